@@ -0,0 +1,251 @@
+package com.handson.tinyurl.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator for the tinyurl service.
+ *
+ * Seeds users (POST /user) and links (POST /tiny), then sends a fixed request rate
+ * of redirects (GET /{tiny}/, Zipfian link popularity) mixed with creates.
+ * Latency is measured from the time each request was scheduled to start, not from
+ * when it was actually sent, so a stalled server is not hidden by the generator
+ * slowing down with it (coordinated omission). The uncorrected service time is
+ * reported next to it.
+ *
+ * Usage: mvn -f loadgen/pom.xml compile exec:java -Dexec.args="--baseUrl=http://localhost:8080 --rate=2000 --duration=60"
+ * Options: baseUrl, users, links, rate (req/s), duration, warmup (seconds), createRatio,
+ * zipf (skew exponent), maxInFlight, output (JSON file, stdout if absent)
+ */
+public class LoadGenerator {
+
+    private final Map<String, String> options;
+    private final String baseUrl;
+    private final int rate;
+    private final double createRatio;
+    private final int maxInFlight;
+    private final HttpClient client;
+
+    private final List<String> userNames = new ArrayList<>();
+    private final List<String> codes = Collections.synchronizedList(new ArrayList<>());
+
+    private final Recorder redirectLatency = new Recorder(3);
+    private final Recorder redirectServiceTime = new Recorder(3);
+    private final Recorder createLatency = new Recorder(3);
+    private final Recorder createServiceTime = new Recorder(3);
+    private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.baseUrl = option("baseUrl", "http://localhost:8080").replaceAll("/$", "");
+        this.rate = Integer.parseInt(option("rate", "1000"));
+        this.createRatio = Double.parseDouble(option("createRatio", "0.05"));
+        this.maxInFlight = Integer.parseInt(option("maxInFlight", "512"));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        seed(Integer.parseInt(option("users", "10")), Integer.parseInt(option("links", "1000")));
+        ZipfSampler sampler = new ZipfSampler(codes.size(), Double.parseDouble(option("zipf", "1.0")));
+        Collections.shuffle(codes);
+
+        log("Warming up");
+        replay(sampler, Integer.parseInt(option("warmup", "10")));
+        reset();
+
+        int duration = Integer.parseInt(option("duration", "60"));
+        log("Measuring for " + duration + "s at " + rate + " req/s");
+        long start = System.nanoTime();
+        replay(sampler, duration);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        report(elapsedSeconds);
+    }
+
+    private void seed(int users, int links) {
+        log("Seeding " + users + " users and " + links + " links");
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < users; i++) {
+            String name = "loadgen-" + runId + "-" + i;
+            send(HttpRequest.newBuilder(URI.create(baseUrl + "/user?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8)))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build()).join();
+            userNames.add(name);
+        }
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (int i = 0; i < links; i++) {
+            acquire();
+            pending.add(send(createRequest(i)).whenComplete((response, error) -> {
+                inFlight.release();
+                if (error == null && response.statusCode() == 200) {
+                    codes.add(codeOf(response.body()));
+                }
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        if (codes.isEmpty()) {
+            throw new IllegalStateException("No links could be created at " + baseUrl);
+        }
+        log("Created " + codes.size() + " links");
+    }
+
+    private void replay(ZipfSampler sampler, int seconds) {
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        int created = 0;
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            acquire();
+            boolean create = ThreadLocalRandom.current().nextDouble() < createRatio;
+            HttpRequest request = create ? createRequest(codes.size() + created++) : redirectRequest(codes.get(sampler.next()));
+            long sent = System.nanoTime();
+            send(request).whenComplete((response, error) -> {
+                long done = System.nanoTime();
+                (create ? createLatency : redirectLatency).recordValue((done - intended) / 1000);
+                (create ? createServiceTime : redirectServiceTime).recordValue((done - sent) / 1000);
+                String status = error != null ? "error" : Integer.toString(response.statusCode());
+                statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                inFlight.release();
+            });
+        }
+        // drain
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    private HttpRequest createRequest(int i) {
+        String user = userNames.get(i % userNames.size());
+        String body = "{\"longUrl\":\"https://example.com/loadgen/" + i + "\",\"userName\":\"" + user + "\"}";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/tiny"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest redirectRequest(String code) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/" + code + "/")).GET().build();
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void acquire() {
+        // waiting here still counts towards latency, it is measured from the intended start
+        inFlight.acquireUninterruptibly();
+    }
+
+    private void reset() {
+        redirectLatency.reset();
+        redirectServiceTime.reset();
+        createLatency.reset();
+        createServiceTime.reset();
+        statuses.clear();
+    }
+
+    private void report(double elapsedSeconds) throws IOException {
+        Histogram redirects = redirectLatency.getIntervalHistogram();
+        Histogram creates = createLatency.getIntervalHistogram();
+        long requests = redirects.getTotalCount() + creates.getTotalCount();
+
+        Map<String, Object> config = new LinkedHashMap<>(options);
+        config.putIfAbsent("rate", rate);
+        config.put("links", codes.size());
+
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("config", config);
+        res.put("elapsedSeconds", elapsedSeconds);
+        res.put("requests", requests);
+        res.put("throughput", requests / elapsedSeconds);
+        Map<String, Long> statusCounts = new LinkedHashMap<>();
+        statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+        res.put("statuses", statusCounts);
+        res.put("redirect", percentiles(redirects, redirectServiceTime.getIntervalHistogram()));
+        res.put("create", percentiles(creates, createServiceTime.getIntervalHistogram()));
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String output = options.get("output");
+        if (output != null) {
+            mapper.writeValue(new File(output), res);
+            log("Report written to " + output);
+        } else {
+            System.out.println(mapper.writeValueAsString(res));
+        }
+    }
+
+    private static Map<String, Object> percentiles(Histogram latency, Histogram serviceTime) {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("count", latency.getTotalCount());
+        res.put("latencyMs", millis(latency));
+        res.put("uncorrectedServiceTimeMs", millis(serviceTime));
+        return res;
+    }
+
+    private static Map<String, Double> millis(Histogram histogram) {
+        Map<String, Double> res = new LinkedHashMap<>();
+        res.put("mean", histogram.getMean() / 1000);
+        for (double p : new double[]{50, 90, 99, 99.9, 99.99}) {
+            res.put("p" + (p == Math.rint(p) ? Integer.toString((int) p) : Double.toString(p)), histogram.getValueAtPercentile(p) / 1000.0);
+        }
+        res.put("max", histogram.getMaxValue() / 1000.0);
+        return res;
+    }
+
+    private static String codeOf(String tinyUrl) {
+        String trimmed = tinyUrl.trim().replaceAll("/+$", "");
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static void log(String message) {
+        System.err.println("[loadgen] " + message);
+    }
+}
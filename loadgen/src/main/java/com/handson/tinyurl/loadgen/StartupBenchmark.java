@@ -0,0 +1,181 @@
+package com.handson.tinyurl.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a fresh tinyurl process takes to serve its first redirect.
+ *
+ * Each run starts the service with the given command, then as soon as it accepts
+ * requests creates a user and a link and follows the link until it answers with a
+ * redirect. Times are measured from process start: readyMs when /actuator/health
+ * first answers UP, firstRedirectMs when the first redirect came back.
+ *
+ * Usage: mvn -f loadgen/pom.xml compile exec:java -Dexec.mainClass=com.handson.tinyurl.loadgen.StartupBenchmark
+ *            -Dexec.args="--command='java -jar target/tinyurl-0.0.1-SNAPSHOT.jar --spring.profiles.active=inmemory,faststart' --runs=5"
+ * Options: command (split on spaces, single quotes group), baseUrl, runs, timeout (seconds per run),
+ * dir (working directory of the service), output (JSON file, stdout if absent)
+ */
+public class StartupBenchmark {
+
+    private static final long POLL_MILLIS = 10;
+
+    private final Map<String, String> options;
+    private final String baseUrl;
+    private final HttpClient client;
+
+    public StartupBenchmark(Map<String, String> options) {
+        this.options = options;
+        this.baseUrl = option("baseUrl", "http://localhost:8080").replaceAll("/$", "");
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        new StartupBenchmark(options).run();
+    }
+
+    public void run() throws Exception {
+        List<String> command = split(option("command", "java -jar target/tinyurl-0.0.1-SNAPSHOT.jar --spring.profiles.active=inmemory"));
+        int runs = Integer.parseInt(option("runs", "5"));
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("timeout", "120")));
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            log("Run " + (i + 1) + " of " + runs + ": " + String.join(" ", command));
+            results.add(measure(command, timeoutNanos));
+        }
+        report(results);
+    }
+
+    private Map<String, Object> measure(List<String> command, long timeoutNanos) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        if (options.containsKey("dir")) {
+            builder.directory(new File(options.get("dir")));
+        }
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try {
+            long deadline = start + timeoutNanos;
+            awaitStatus(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/health")).GET().build(), 200, process, deadline);
+            long ready = System.nanoTime();
+
+            String user = "startup-" + Long.toString(System.currentTimeMillis(), 36);
+            awaitStatus(HttpRequest.newBuilder(URI.create(baseUrl + "/user?name=" + user)).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                    200, process, deadline);
+            HttpResponse<String> created = awaitStatus(HttpRequest.newBuilder(URI.create(baseUrl + "/tiny"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"longUrl\":\"https://example.com/startup\",\"userName\":\"" + user + "\"}"))
+                    .build(), 200, process, deadline);
+            String tinyUrl = created.body().trim().replaceAll("/+$", "");
+            String code = tinyUrl.substring(tinyUrl.lastIndexOf('/') + 1);
+            awaitStatus(HttpRequest.newBuilder(URI.create(baseUrl + "/" + code + "/")).GET().build(), 302, process, deadline);
+            long redirected = System.nanoTime();
+
+            Map<String, Object> res = new LinkedHashMap<>();
+            res.put("readyMs", (ready - start) / 1_000_000);
+            res.put("firstRedirectMs", (redirected - start) / 1_000_000);
+            return res;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    // retries until the service answers with the expected status
+    private HttpResponse<String> awaitStatus(HttpRequest request, int status, Process process, long deadline) throws Exception {
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Service exited with " + process.exitValue() + " before answering " + request.uri());
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for " + status + " from " + request.uri());
+            }
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == status) {
+                    return response;
+                }
+            } catch (ConnectException e) {
+                // not listening yet
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private void report(List<Map<String, Object>> results) throws IOException {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("config", new LinkedHashMap<>(options));
+        res.put("runs", results);
+        res.put("readyMs", summary(results, "readyMs"));
+        res.put("firstRedirectMs", summary(results, "firstRedirectMs"));
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String output = options.get("output");
+        if (output != null) {
+            mapper.writeValue(new File(output), res);
+            log("Report written to " + output);
+        } else {
+            System.out.println(mapper.writeValueAsString(res));
+        }
+    }
+
+    private static Map<String, Long> summary(List<Map<String, Object>> results, String key) {
+        List<Long> values = new ArrayList<>();
+        for (Map<String, Object> result : results) {
+            values.add((Long) result.get(key));
+        }
+        Collections.sort(values);
+        Map<String, Long> res = new LinkedHashMap<>();
+        res.put("min", values.get(0));
+        res.put("median", values.get(values.size() / 2));
+        res.put("max", values.get(values.size() - 1));
+        return res;
+    }
+
+    private static List<String> split(String command) {
+        List<String> res = new ArrayList<>();
+        for (String part : command.split(" (?=(?:[^']*'[^']*')*[^']*$)")) {
+            if (!part.isEmpty()) {
+                res.add(part.replace("'", ""));
+            }
+        }
+        return res;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static void log(String message) {
+        System.err.println("[startup] " + message);
+    }
+}
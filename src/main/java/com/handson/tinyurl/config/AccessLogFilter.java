@@ -0,0 +1,95 @@
+package com.handson.tinyurl.config;
+
+import com.handson.tinyurl.util.ClientIp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Structured access log of a sample of the redirects and creates, one NDJSON line
+ * per request on the tinyurl.access logger (written to access-log.file by
+ * logback-spring.xml):
+ * {"ts":1700000000000,"op":"redirect","tiny":"Ab3dE9","status":302,"us":412,"ip":"1.2.3.4","rate":0.01}
+ * Requests that are not sampled cost one random number; rate is the sample rate,
+ * so counts scale back up by 1 / rate.
+ */
+@Component
+public class AccessLogFilter extends OncePerRequestFilter {
+
+    private static final Logger accessLog = LoggerFactory.getLogger("tinyurl.access");
+
+    @Value("${access-log.enabled:true}")
+    private boolean enabled;
+
+    @Value("${access-log.sample-rate:0.01}")
+    private double sampleRate;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || sampleRate <= 0 || operation(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            log(request, response, (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private void log(HttpServletRequest request, HttpServletResponse response, long micros) {
+        String op = operation(request);
+        StringBuilder line = new StringBuilder(128)
+                .append("{\"ts\":").append(System.currentTimeMillis())
+                .append(",\"op\":\"").append(op).append('"');
+        if ("redirect".equals(op)) {
+            String uri = request.getRequestURI();
+            // codes are alphanumeric, nothing to escape
+            line.append(",\"tiny\":\"").append(uri, 1, uri.length() - 1).append('"');
+        }
+        line.append(",\"status\":").append(response.getStatus())
+                .append(",\"us\":").append(micros)
+                .append(",\"ip\":\"").append(escape(ClientIp.of(request))).append('"')
+                .append(",\"rate\":").append(sampleRate)
+                .append('}');
+        accessLog.info(line.toString());
+    }
+
+    // "redirect" for GET /{tiny}/, "create" for POST /tiny, "resolve" for POST /resolve, null for anything else
+    static String operation(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        if ("POST".equals(request.getMethod())) {
+            return "/tiny".equals(uri) ? "create" : "/resolve".equals(uri) ? "resolve" : null;
+        }
+        if (!"GET".equals(request.getMethod()) || uri.length() < 3 || uri.charAt(0) != '/' || uri.charAt(uri.length() - 1) != '/') {
+            return null;
+        }
+        for (int i = 1; i < uri.length() - 1; i++) {
+            char c = uri.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) {
+                return null;
+            }
+        }
+        return "redirect";
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
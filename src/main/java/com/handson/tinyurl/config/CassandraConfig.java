@@ -1,15 +1,38 @@
 package com.handson.tinyurl.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
 import com.datastax.oss.driver.api.core.CqlSession;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.ClassPathResource;
+
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * The Astra session takes seconds to open (bundle, TLS, topology), so the
+ * connection is started as soon as this configuration is created and runs in the
+ * background while the rest of the context starts. Kept eager under
+ * spring.main.lazy-initialization for the same reason.
+ * The session carries the execution profiles of {@link CassandraProfiles}.
+ */
+@Lazy(false)
 @Configuration
+@Profile("!inmemory")
 public class CassandraConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(CassandraConfig.class);
+
     @Value("${spring.data.cassandra.keyspace-name}")
     private String keyspace;
 
@@ -22,13 +45,30 @@ public class CassandraConfig {
     @Value("${astra.db.secure-connect-bundle}")
     private String bundleName;
 
-    @Bean
-    public CqlSession getCassandraSession() throws IOException {
+    @Autowired
+    private Environment environment;
+
+    @Value("${spring.data.cassandra.connect-timeout-ms:60000}")
+    private long connectTimeoutMs;
+
+    private CompletableFuture<CqlSession> connecting;
+
+    @PostConstruct
+    public void connect() throws IOException {
         ClassPathResource resource = new ClassPathResource(bundleName);
-        return CqlSession.builder()
+        long start = System.nanoTime();
+        connecting = CqlSession.builder()
                 .withCloudSecureConnectBundle(resource.getInputStream())
                 .withAuthCredentials(username, password)
                 .withKeyspace(keyspace)
-                .build();
+                .withConfigLoader(CassandraProfiles.loader(environment))
+                .buildAsync()
+                .toCompletableFuture();
+        connecting.thenRun(() -> logger.info("Cassandra session opened in {} ms", (System.nanoTime() - start) / 1_000_000));
+    }
+
+    @Bean
+    public CqlSession getCassandraSession() throws InterruptedException, ExecutionException, TimeoutException {
+        return connecting.get(connectTimeoutMs, TimeUnit.MILLISECONDS);
     }
-}
\ No newline at end of file
+}
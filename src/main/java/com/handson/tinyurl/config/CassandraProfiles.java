@@ -0,0 +1,54 @@
+package com.handson.tinyurl.config;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.internal.core.specex.ConstantSpeculativeExecutionPolicy;
+import org.springframework.core.env.PropertyResolver;
+
+import java.time.Duration;
+
+/**
+ * Driver execution profiles, picked per call through QueryOptions / InsertOptions
+ * executionProfile. Everything else keeps the driver defaults.
+ *
+ * click-write: click rows are append-only and keyed by user and click time, so a
+ * retry cannot duplicate, and a short timeout is enough. Writes default to
+ * LOCAL_QUORUM, the weakest consistency Astra accepts; on a self-managed cluster
+ * LOCAL_ONE can be opted into for a single replica ack.
+ * click-read: click history queries are idempotent, so a second replica is asked
+ * when the first has not answered after speculative-delay-ms, which cuts the tail
+ * caused by a single slow node. Larger pages mean fewer round trips per history.
+ *
+ * Settings are read from cassandra.profile.&lt;profile&gt;.* (see application.properties.example).
+ */
+public final class CassandraProfiles {
+
+    public static final String CLICK_WRITE = "click-write";
+    public static final String CLICK_READ = "click-read";
+
+    private CassandraProfiles() {
+    }
+
+    public static DriverConfigLoader loader(PropertyResolver env) {
+        return DriverConfigLoader.programmaticBuilder()
+                .startProfile(CLICK_WRITE)
+                .withString(DefaultDriverOption.REQUEST_CONSISTENCY, env.getProperty("cassandra.profile.click-write.consistency", "LOCAL_QUORUM"))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, millis(env, "cassandra.profile.click-write.timeout-ms", 500))
+                .withBoolean(DefaultDriverOption.REQUEST_DEFAULT_IDEMPOTENCE, true)
+                .endProfile()
+                .startProfile(CLICK_READ)
+                .withString(DefaultDriverOption.REQUEST_CONSISTENCY, env.getProperty("cassandra.profile.click-read.consistency", "LOCAL_ONE"))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, millis(env, "cassandra.profile.click-read.timeout-ms", 2000))
+                .withInt(DefaultDriverOption.REQUEST_PAGE_SIZE, env.getProperty("cassandra.profile.click-read.page-size", Integer.class, 1000))
+                .withBoolean(DefaultDriverOption.REQUEST_DEFAULT_IDEMPOTENCE, true)
+                .withClass(DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS, ConstantSpeculativeExecutionPolicy.class)
+                .withInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX, env.getProperty("cassandra.profile.click-read.speculative-executions", Integer.class, 2))
+                .withDuration(DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY, millis(env, "cassandra.profile.click-read.speculative-delay-ms", 50))
+                .endProfile()
+                .build();
+    }
+
+    private static Duration millis(PropertyResolver env, String key, long defaultValue) {
+        return Duration.ofMillis(env.getProperty(key, Long.class, defaultValue));
+    }
+}
@@ -0,0 +1,144 @@
+package com.handson.tinyurl.config;
+
+import com.handson.tinyurl.util.AdaptiveLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Keeps the AppController endpoints at the concurrency the backends can serve
+ * without queueing, see {@link AdaptiveLimiter}. Requests over the limit get a
+ * 503 with Retry-After right away instead of waiting in Tomcat's queue.
+ * Redirects may use the whole limit, creates limiter.share.create of it and
+ * analytics reads and bulk resolves limiter.share.read, so when the node is
+ * saturated the reads are shed first and redirects last. Overload shows up as 503s from the backend
+ * guards, which also shrink the limit.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+    private enum Priority {
+        REDIRECT, CREATE, READ
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${limiter.initial:50}")
+    private int initialLimit;
+
+    @Value("${limiter.min:8}")
+    private int minLimit;
+
+    // Tomcat's default thread pool, a higher limit would queue there anyway
+    @Value("${limiter.max:200}")
+    private int maxLimit;
+
+    // latency may grow by this factor over the baseline before the limit shrinks
+    @Value("${limiter.tolerance:1.5}")
+    private double tolerance;
+
+    @Value("${limiter.smoothing:0.2}")
+    private double smoothing;
+
+    @Value("${limiter.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${limiter.window-ms:500}")
+    private long windowMs;
+
+    @Value("${limiter.min-window-samples:20}")
+    private int minWindowSamples;
+
+    // windows averaged into the no-load latency
+    @Value("${limiter.long-window:120}")
+    private int longWindow;
+
+    @Value("${limiter.share.create:0.8}")
+    private double createShare;
+
+    @Value("${limiter.share.read:0.6}")
+    private double readShare;
+
+    private AdaptiveLimiter limiter;
+    private final Counter[] rejected = new Counter[Priority.values().length];
+
+    @PostConstruct
+    public void init() {
+        limiter = new AdaptiveLimiter(initialLimit, minLimit, maxLimit, tolerance, smoothing, backoffRatio,
+                windowMs, minWindowSamples, longWindow);
+        Gauge.builder("tinyurl.limiter.limit", limiter, AdaptiveLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("tinyurl.limiter.inflight", limiter, AdaptiveLimiter::getInflight).register(meterRegistry);
+        for (Priority priority : Priority.values()) {
+            rejected[priority.ordinal()] = Counter.builder("tinyurl.limiter.rejected")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        logger.info("Concurrency limiter {}: initial={}, min={}, max={}", enabled ? "enabled" : "disabled", initialLimit, minLimit, maxLimit);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || priority(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Priority priority = priority(request);
+        double share = priority == Priority.REDIRECT ? 1 : priority == Priority.CREATE ? createShare : readShare;
+        if (!limiter.tryAcquire(share)) {
+            rejected[priority.ordinal()].increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Overloaded, try again later");
+            return;
+        }
+        long start = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            chain.doFilter(request, response);
+            int status = response.getStatus();
+            overloaded = status == HttpStatus.SERVICE_UNAVAILABLE.value() || status == HttpStatus.GATEWAY_TIMEOUT.value();
+        } finally {
+            limiter.release(start, overloaded);
+        }
+    }
+
+    private static Priority priority(HttpServletRequest request) {
+        String operation = AccessLogFilter.operation(request);
+        if ("redirect".equals(operation)) {
+            return Priority.REDIRECT;
+        }
+        if ("create".equals(operation) || ("POST".equals(request.getMethod()) && "/user".equals(request.getRequestURI()))) {
+            return Priority.CREATE;
+        }
+        String uri = request.getRequestURI();
+        if ("resolve".equals(operation) || "GET".equals(request.getMethod()) && (uri.startsWith("/user/") || uri.startsWith("/tiny/"))) {
+            return Priority.READ;
+        }
+        return null;
+    }
+}
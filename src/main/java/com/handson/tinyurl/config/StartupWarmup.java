@@ -0,0 +1,148 @@
+package com.handson.tinyurl.config;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.service.KeyValueStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Controller;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Targeted warm-up for spring.main.lazy-initialization (the faststart profile).
+ * Once the context is refreshed, and before the application reports itself ready,
+ * the beans on the request path are created (every controller and their
+ * dependencies, plus startup.warmup.beans) and one round trip is made to each
+ * backend in parallel, so the first redirect does not pay for either.
+ * Everything else stays lazy.
+ *
+ * startup.exit-after-ready stops the application right after it became ready,
+ * for the class-data sharing training run in the Dockerfile.
+ */
+@Lazy(false)
+@Component
+public class StartupWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ObjectProvider<KeyValueStore> keyValueStore;
+
+    @Autowired
+    private ObjectProvider<MongoTemplate> mongoTemplate;
+
+    @Autowired
+    private ObjectProvider<CqlSession> cqlSession;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Value("${startup.warmup.enabled:true}")
+    private boolean enabled;
+
+    // background components that no controller depends on
+    @Value("${startup.warmup.beans:hotMappingSnapshot}")
+    private List<String> extraBeans;
+
+    @Value("${startup.warmup.timeout-ms:30000}")
+    private long timeoutMs;
+
+    @Value("${startup.exit-after-ready:false}")
+    private boolean exitAfterReady;
+
+    @EventListener
+    public void onStarted(ApplicationStartedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        // singletons are created under one lock, so beans are resolved here, only the round trips run in parallel
+        Set<String> names = new LinkedHashSet<>(List.of(context.getBeanNamesForAnnotation(Controller.class)));
+        names.addAll(extraBeans);
+        for (String name : names) {
+            if (context.containsBean(name)) {
+                context.getBean(name);
+            }
+        }
+        long beansMs = (System.nanoTime() - start) / 1_000_000;
+
+        List<CompletableFuture<Void>> pings = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            pings.add(warm(pool, "jackson", () -> mapper.readValue("{\"longUrl\":\"https://example.com\",\"userName\":\"warmup\"}", NewTinyRequest.class)));
+            if (!environment.acceptsProfiles(Profiles.of("inmemory"))) {
+                KeyValueStore store = keyValueStore.getIfAvailable();
+                MongoTemplate mongo = mongoTemplate.getIfAvailable();
+                CqlSession session = cqlSession.getIfAvailable();
+                if (store != null) {
+                    pings.add(warm(pool, "mapping cache", () -> store.get("warmup")));
+                }
+                if (mongo != null) {
+                    pings.add(warm(pool, "mongo", () -> mongo.executeCommand("{ping: 1}")));
+                }
+                if (session != null) {
+                    pings.add(warm(pool, "cassandra", () -> session.execute("SELECT release_version FROM system.local")));
+                }
+            }
+            CompletableFuture.allOf(pings.toArray(new CompletableFuture[0])).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // a cold backend is not a reason to stay out of rotation, the guards deal with it
+            logger.warn("Warm-up did not complete, error: {}", e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        logger.info("Warm-up took {} ms ({} ms creating {} beans)", (System.nanoTime() - start) / 1_000_000, beansMs, names.size());
+    }
+
+    private CompletableFuture<Void> warm(ExecutorService pool, String name, WarmupCall call) {
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                call.run();
+                logger.debug("Warmed up {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception e) {
+                logger.warn("Warm-up of {} failed, error: {}", name, e.getMessage());
+            }
+        }, pool);
+    }
+
+    @EventListener
+    public void onReady(ApplicationReadyEvent event) {
+        if (exitAfterReady) {
+            logger.info("Exiting after startup (startup.exit-after-ready)");
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+
+    private interface WarmupCall {
+        void run() throws Exception;
+    }
+}
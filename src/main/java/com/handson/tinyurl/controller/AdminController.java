@@ -0,0 +1,186 @@
+package com.handson.tinyurl.controller;
+
+import com.handson.tinyurl.model.TakedownRequest;
+import com.handson.tinyurl.service.ClickDownsampler;
+import com.handson.tinyurl.service.ClickLongUrlMigration;
+import com.handson.tinyurl.service.EdgeLogImporter;
+import com.handson.tinyurl.service.LinkTakedown;
+import com.handson.tinyurl.service.MappingReconciler;
+import com.handson.tinyurl.service.RedisResharder;
+import com.handson.tinyurl.service.TinyMappingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+@RestController
+@Profile("!inmemory")
+@RequestMapping("/admin")
+public class AdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    @Autowired
+    private RedisResharder resharder;
+
+    @Autowired
+    private TinyMappingService tinyMappingService;
+
+    @Autowired
+    private EdgeLogImporter edgeLogImporter;
+
+    @Autowired
+    private ClickDownsampler clickDownsampler;
+
+    @Autowired
+    private ClickLongUrlMigration clickLongUrlMigration;
+
+    @Autowired
+    private LinkTakedown linkTakedown;
+
+    @Autowired
+    private MappingReconciler mappingReconciler;
+
+    // Start moving keys from redis.shards.previous to redis.shards
+    @RequestMapping(value = "/reshard", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> startReshard() {
+        logger.info("Starting resharding");
+        try {
+            if (!resharder.start()) {
+                logger.warn("Resharding already running");
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(resharder.status());
+            }
+            return ResponseEntity.ok(resharder.status());
+        } catch (IllegalStateException e) {
+            logger.warn("Cannot start resharding: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @RequestMapping(value = "/reshard", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getReshardStatus() {
+        return ResponseEntity.ok(resharder.status());
+    }
+
+    @RequestMapping(value = "/reshard", method = RequestMethod.DELETE)
+    public ResponseEntity<Map<String, Object>> stopReshard() {
+        logger.info("Stopping resharding");
+        resharder.stop();
+        return ResponseEntity.ok(resharder.status());
+    }
+
+    // Copy Redis-only mappings into Cassandra's tiny_mapping table
+    @RequestMapping(value = "/mappings/backfill", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> backfillMappings(@RequestParam(defaultValue = "500") int batchSize) {
+        logger.info("Backfilling mappings from Redis");
+        try {
+            return ResponseEntity.ok(Map.of("written", tinyMappingService.backfillFromRedis(batchSize)));
+        } catch (Exception e) {
+            logger.error("Error backfilling mappings: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    // Count the clicks of edge-cacheable links from a CDN access log (combined format, gzip allowed).
+    // Post the same log with the same logId again to resume a failed import.
+    @RequestMapping(value = "/clicks/edge-log", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> importEdgeLog(@RequestParam String logId, HttpServletRequest request) {
+        logger.info("Importing edge access log {}", logId);
+        try (InputStream body = "gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))
+                ? new GZIPInputStream(request.getInputStream()) : request.getInputStream()) {
+            return ResponseEntity.ok(edgeLogImporter.importLog(logId, body));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cannot import edge access log: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error importing edge access log: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    // Fold raw clicks close to expiry into userclick_daily now instead of at the scheduled time
+    @RequestMapping(value = "/clicks/downsample", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> startDownsampling() {
+        logger.info("Starting click downsampling");
+        if (!clickDownsampler.start()) {
+            logger.warn("Click downsampling already running");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(clickDownsampler.status());
+        }
+        return ResponseEntity.ok(clickDownsampler.status());
+    }
+
+    @RequestMapping(value = "/clicks/downsample", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getDownsamplingStatus() {
+        return ResponseEntity.ok(clickDownsampler.status());
+    }
+
+    // Remove the long URL from old click rows that only repeat the link's default
+    @RequestMapping(value = "/clicks/migrate-long-urls", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> startLongUrlMigration(@RequestParam(defaultValue = "false") boolean restart) {
+        logger.info("Starting click long URL migration, restart: {}", restart);
+        if (!clickLongUrlMigration.start(restart)) {
+            logger.warn("Click long URL migration already running");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(clickLongUrlMigration.status());
+        }
+        return ResponseEntity.ok(clickLongUrlMigration.status());
+    }
+
+    @RequestMapping(value = "/clicks/migrate-long-urls", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getLongUrlMigrationStatus() {
+        return ResponseEntity.ok(clickLongUrlMigration.status());
+    }
+
+    @RequestMapping(value = "/clicks/migrate-long-urls", method = RequestMethod.DELETE)
+    public ResponseEntity<Map<String, Object>> stopLongUrlMigration() {
+        logger.info("Stopping click long URL migration");
+        clickLongUrlMigration.stop();
+        return ResponseEntity.ok(clickLongUrlMigration.status());
+    }
+
+    // Delete every link with a destination (long URL or rule URL) on one of the domains or matching one of the patterns
+    @RequestMapping(value = "/takedown", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> startTakedown(@RequestBody TakedownRequest request) {
+        logger.info("Starting takedown of domains {} and patterns {}", request.getDomains(), request.getPatterns());
+        try {
+            if (!linkTakedown.start(request)) {
+                logger.warn("Takedown already running");
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(linkTakedown.status());
+            }
+            return ResponseEntity.ok(linkTakedown.status());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cannot start takedown: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @RequestMapping(value = "/takedown", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getTakedownStatus() {
+        return ResponseEntity.ok(linkTakedown.status());
+    }
+
+    // Stops after the current batches; starting the same rules again resumes from the checkpoints
+    @RequestMapping(value = "/takedown", method = RequestMethod.DELETE)
+    public ResponseEntity<Map<String, Object>> stopTakedown() {
+        logger.info("Stopping takedown");
+        linkTakedown.stop();
+        return ResponseEntity.ok(linkTakedown.status());
+    }
+
+    // Cursors and drift found by the background reconciliation of mappings and shorts
+    @RequestMapping(value = "/reconcile", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getReconcileStatus() {
+        return ResponseEntity.ok(mappingReconciler.status());
+    }
+}
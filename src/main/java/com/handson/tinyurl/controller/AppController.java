@@ -3,33 +3,57 @@ package com.handson.tinyurl.controller;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.model.TinyStatsOut;
+import com.handson.tinyurl.model.TinyVisitorsOut;
 import com.handson.tinyurl.model.User;
 import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.model.UserClickDailyOut;
 import com.handson.tinyurl.model.UserClickOut;
-import com.handson.tinyurl.repository.UserClickRepository;
-import com.handson.tinyurl.repository.UserRepository;
-import com.handson.tinyurl.service.Redis;
+import com.handson.tinyurl.service.ClickDownsampler;
+import com.handson.tinyurl.service.ClickEnricher;
+import com.handson.tinyurl.service.ClickJournal;
+import com.handson.tinyurl.service.ClickLongUrls;
+import com.handson.tinyurl.service.ClickExporter;
+import com.handson.tinyurl.service.BackendGuards;
+import com.handson.tinyurl.service.ClickRollupService;
+import com.handson.tinyurl.service.CompiledMappings;
+import com.handson.tinyurl.service.UniqueVisitorService;
+import com.handson.tinyurl.storage.ClickSink;
+import com.handson.tinyurl.storage.ClickStats;
+import com.handson.tinyurl.storage.MappingStore;
+import com.handson.tinyurl.storage.UserStore;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import com.handson.tinyurl.util.ClientIp;
+import com.handson.tinyurl.util.RedirectRules;
+import com.handson.tinyurl.util.RequestEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.view.RedirectView;
 import org.springframework.dao.DuplicateKeyException;
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -37,6 +61,7 @@ import static com.handson.tinyurl.model.User.UserBuilder.anUser;
 import static com.handson.tinyurl.model.UserClick.UserClickBuilder.anUserClick;
 import static com.handson.tinyurl.model.UserClickKey.UserClickKeyBuilder.anUserClickKey;
 import static com.handson.tinyurl.util.Dates.getCurMonth;
+import static com.handson.tinyurl.util.Dates.parseIsoMillis;
 
 @RestController
 public class AppController {
@@ -45,9 +70,10 @@ public class AppController {
 
     private static final int MAX_RETRIES = 4;
     private static final int TINY_LENGTH = 6;
+    private static final Set<Integer> CACHEABLE_REDIRECTS = Set.of(301, 302, 308);
 
     @Autowired
-    Redis redis;
+    MappingStore mappingStore;
 
     Random random = new Random();
 
@@ -57,14 +83,50 @@ public class AppController {
     @Value("${base.url}")
     private String baseUrl;
 
+    @Value("${redirect.cache.default-max-age:86400}")
+    private int defaultCacheMaxAge;
+
+    // set by the CDN or load balancer in front of us, e.g. CloudFront-Viewer-Country
+    @Value("${redirect.rules.country-header:CF-IPCountry}")
+    private String countryHeader;
+
+    @Value("${resolve.max-codes:5000}")
+    private int maxResolveCodes;
+
+    @Autowired
+    private UserStore userStore;
+
+    @Autowired
+    private ClickSink clickSink;
+
+    @Autowired
+    private ClickRollupService clickRollupService;
+
+    @Autowired
+    private UniqueVisitorService uniqueVisitorService;
+
+    @Autowired
+    private ClickEnricher clickEnricher;
+
+    @Autowired
+    private ClickExporter clickExporter;
+
+    // absent in the inmemory profile, raw clicks are kept there
+    @Autowired(required = false)
+    private ClickDownsampler clickDownsampler;
+
     @Autowired
-    private UserRepository userRepository;
+    private BackendGuards guards;
 
     @Autowired
-    private MongoTemplate mongoTemplate;
+    private CompiledMappings compiledMappings;
 
     @Autowired
-    private UserClickRepository userClickRepository;
+    private ClickLongUrls clickLongUrls;
+
+    // absent when click.journal.enabled=false
+    @Autowired(required = false)
+    private ClickJournal clickJournal;
 
     @PostConstruct
     public void init() {
@@ -114,13 +176,13 @@ public class AppController {
         logger.info("Attempting to create user: {}", name);
         try {
             // Check if a user with the same name already exists
-            if (userRepository.existsByName(name)) {
+            if (userStore.existsByName(name)) {
                 logger.warn("User already exists: {}", name);
                 return ResponseEntity.status(HttpStatus.CONFLICT).body("User already exists");
             }
             // Create and save the new user
             User user = anUser().withName(name).build();
-            userRepository.save(user);
+            userStore.save(user);
             logger.info("User created successfully: {}", name);
             return ResponseEntity.ok("User created successfully");
         } catch (DuplicateKeyException e) {
@@ -137,7 +199,7 @@ public class AppController {
     public ResponseEntity<User> getUser(@PathVariable String name) {
         logger.info("Fetching user: {}", name);
         try {
-            User user = userRepository.findFirstByName(name);
+            User user = userStore.findByName(name);
             logger.debug("User found: {}", user != null ? user.getName() : "null");
             if (user == null) {
                 logger.warn("User not found: {}", name);
@@ -157,33 +219,32 @@ public class AppController {
         }
     }
 
-    private void incrementMongoField(String userName, String key) {
-        logger.debug("Incrementing Mongo field: userName={}, key={}", userName, key);
+    @RequestMapping(value = "/tiny", method = RequestMethod.POST)
+    public String generate(@RequestBody NewTinyRequest request) throws JsonProcessingException {
+        RequestEvent event = RequestEvent.start("generate", null, request.getUserName());
         try {
-            Query query = new Query(Criteria.where("name").is(userName));
-            Update update = new Update().inc(key, 1);
-            mongoTemplate.updateFirst(query, update, "users");
-            logger.debug("Field incremented successfully: userName={}, key={}", userName, key);
-        } catch (Exception e) {
-            logger.error("Error incrementing Mongo field: userName={}, key={}, error={}", userName, key, e.getMessage(), e);
+            return generate(request, event);
+        } finally {
+            event.finish();
         }
     }
 
-    private void updateUserShorts(String userName, String tinyCode, String longUrl) {
-        logger.debug("Updating shorts for user: {}, tinyCode: {}, longUrl: {}", userName, tinyCode, longUrl);
-        try {
-            Query query = new Query(Criteria.where("name").is(userName));
-            Update update = new Update().set("shorts." + tinyCode + ".longUrl", longUrl);
-            mongoTemplate.updateFirst(query, update, "users");
-            logger.debug("Shorts updated successfully for user: {}", userName);
-        } catch (Exception e) {
-            logger.error("Error updating shorts for user: {}, error: {}", userName, e.getMessage(), e);
+    private String generate(NewTinyRequest request, RequestEvent event) throws JsonProcessingException {
+        logger.debug("Generating tiny URL for: longUrl={}, userName={}", request.getLongUrl(), request.getUserName());
+        if (request.getRedirectStatus() != null && !CACHEABLE_REDIRECTS.contains(request.getRedirectStatus())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "redirectStatus must be one of " + CACHEABLE_REDIRECTS);
+        }
+        if (request.getRules() != null && !request.getRules().isEmpty()) {
+            if (request.isCacheable()) {
+                // edge caches would send every visitor to the first visitor's destination
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "rules cannot be combined with a cacheable redirect");
+            }
+            try {
+                RedirectRules.compile(request.getLongUrl(), request.getRules());
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
         }
-    }
-
-    @RequestMapping(value = "/tiny", method = RequestMethod.POST)
-    public String generate(@RequestBody NewTinyRequest request) throws JsonProcessingException {
-        logger.info("Generating tiny URL for: longUrl={}, userName={}", request.getLongUrl(), request.getUserName());
         String longUrl = normalizeUrl(request.getLongUrl());
         // Create a new NewTinyRequest with the normalized URL using reflection
         NewTinyRequest normalizedRequest = new NewTinyRequest();
@@ -195,14 +256,29 @@ public class AppController {
             Field userNameField = NewTinyRequest.class.getDeclaredField("userName");
             userNameField.setAccessible(true);
             userNameField.set(normalizedRequest, request.getUserName());
+
+            Field redirectStatusField = NewTinyRequest.class.getDeclaredField("redirectStatus");
+            redirectStatusField.setAccessible(true);
+            redirectStatusField.set(normalizedRequest, request.getRedirectStatus());
+
+            Field cacheMaxAgeField = NewTinyRequest.class.getDeclaredField("cacheMaxAge");
+            cacheMaxAgeField.setAccessible(true);
+            cacheMaxAgeField.set(normalizedRequest, request.getCacheMaxAge());
+
+            Field rulesField = NewTinyRequest.class.getDeclaredField("rules");
+            rulesField.setAccessible(true);
+            rulesField.set(normalizedRequest, request.getRules());
         } catch (NoSuchFieldException | IllegalAccessException e) {
             logger.error("Failed to set fields in NewTinyRequest: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to set fields in NewTinyRequest", e);
         }
 
+        long start = System.nanoTime();
+        String payload = mapper.writeValueAsString(normalizedRequest);
+        event.addSerialization(System.nanoTime() - start);
         String tinyCode = generateTinyCode();
         int i = 0;
-        while (!redis.set(tinyCode, mapper.writeValueAsString(normalizedRequest)) && i < MAX_RETRIES) {
+        while (!mappingStore.create(tinyCode, payload) && i < MAX_RETRIES) {
             tinyCode = generateTinyCode();
             i++;
         }
@@ -210,63 +286,157 @@ public class AppController {
             logger.error("Failed to generate tiny code after {} retries", MAX_RETRIES);
             throw new RuntimeException("SPACE IS FULL");
         }
+        event.setTiny(tinyCode);
         // עדכון ה-shorts של המשתמש
         if (normalizedRequest.getUserName() != null) {
-            updateUserShorts(normalizedRequest.getUserName(), tinyCode, longUrl);
+            userStore.addShort(normalizedRequest.getUserName(), tinyCode, longUrl);
         }
         // בניית ה-URL
         logger.debug("Base URL: {}", baseUrl);
         logger.debug("Tiny code: {}", tinyCode);
         String tinyUrl = baseUrl + tinyCode + "/";
-        logger.info("Tiny URL generated: {}", tinyUrl);
+        logger.debug("Tiny URL generated: {}", tinyUrl);
         return tinyUrl;
     }
 
     @RequestMapping(value = "/{tiny}/", method = RequestMethod.GET)
-    public ModelAndView getTiny(@PathVariable String tiny) throws JsonProcessingException {
-        logger.info("Fetching tiny URL: {}", tiny);
+    public ModelAndView getTiny(@PathVariable String tiny, HttpServletRequest request, HttpServletResponse response) throws JsonProcessingException {
+        RequestEvent event = RequestEvent.start("getTiny", tiny, null);
+        try {
+            return getTiny(tiny, request, response, event);
+        } finally {
+            event.finish();
+        }
+    }
+
+    private ModelAndView getTiny(String tiny, HttpServletRequest request, HttpServletResponse response, RequestEvent event) throws JsonProcessingException {
+        logger.debug("Fetching tiny URL: {}", tiny);
         if (tiny == null || tiny.trim().isEmpty() || !tiny.matches("[a-zA-Z0-9]+")) {
             logger.warn("Invalid tiny URL: {}", tiny);
             return new ModelAndView("redirect:/error?message=Invalid tiny URL");
         }
-        Object tinyRequestStr = redis.get(tiny);
+        Object tinyRequestStr;
+        try {
+            tinyRequestStr = mappingStore.get(tiny);
+        } catch (BackendUnavailableException e) {
+            logger.warn("Mapping stores unavailable for tiny: {}, error: {}", tiny, e.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Try again later");
+        }
         if (tinyRequestStr == null) {
             logger.warn("Tiny URL not found: {}", tiny);
             return new ModelAndView("redirect:/error?message=Tiny URL not found");
         }
-        NewTinyRequest tinyRequest = mapper.readValue(tinyRequestStr.toString(), NewTinyRequest.class);
+        long start = System.nanoTime();
+        CompiledMappings.Compiled compiled = compiledMappings.get(tiny, tinyRequestStr.toString());
+        NewTinyRequest tinyRequest = compiled.getRequest();
+        event.addSerialization(System.nanoTime() - start);
+        event.setUserName(tinyRequest.getUserName());
+        if (tinyRequest.getLongUrl() != null && tinyRequest.isCacheable()) {
+            // edge caches answer repeat clicks, they are counted from the imported access logs
+            int maxAge = tinyRequest.getCacheMaxAge() != null && tinyRequest.getCacheMaxAge() > 0 ? tinyRequest.getCacheMaxAge() : defaultCacheMaxAge;
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAge);
+            RedirectView redirect = new RedirectView(tinyRequest.getLongUrl());
+            redirect.setStatusCode(HttpStatus.valueOf(tinyRequest.getRedirectStatus() != null ? tinyRequest.getRedirectStatus() : 302));
+            logger.debug("Redirecting (cacheable) to: {}", tinyRequest.getLongUrl());
+            return new ModelAndView(redirect);
+        }
         if (tinyRequest.getLongUrl() != null) {
+            // every click has to reach us to be counted
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-store");
+            long now = System.currentTimeMillis();
+            String ip = ClientIp.of(request);
+            String userAgent = request.getHeader("User-Agent");
+            RedirectRules rules = compiled.getRules();
+            String longUrl = rules.isEmpty() ? tinyRequest.getLongUrl()
+                    : rules.resolve(rules.usesCountry() ? request.getHeader(countryHeader) : null, userAgent, ip);
+            clickRollupService.record(tiny, now);
+            uniqueVisitorService.record(tiny, now, ip, userAgent);
             String userName = tinyRequest.getUserName();
             if (userName != null) {
                 logger.debug("Recording click for user: {}, tiny: {}", userName, tiny);
-                incrementMongoField(userName, "allUrlClicks");
-                incrementMongoField(userName, "shorts." + tiny + ".clicks." + getCurMonth());
-                userClickRepository.save(anUserClick()
-                        .userClickKey(anUserClickKey().withUserName(userName).withClickTime(new Date()).build())
-                        .tiny(tiny)
-                        .longUrl(tinyRequest.getLongUrl())
-                        .build());
-                logger.debug("Click recorded successfully for user: {}, tiny: {}", userName, tiny);
+                String month = getCurMonth();
+                // rows only keep the destination when a rule chose it, the default is resolved when history is read
+                String clickLongUrl = longUrl.equals(tinyRequest.getLongUrl()) ? null : longUrl;
+                start = System.nanoTime();
+                if (clickJournal != null) {
+                    // shipped to Cassandra and Mongo from the local journal, survives their outages and our restarts
+                    clickJournal.record(tiny, userName, now, month, clickLongUrl, userAgent, request.getHeader("Referer"), ip);
+                } else {
+                    // analytics never hold up the redirect, they are shed when Mongo is slow
+                    guards.mongo().submit(() -> userStore.incrementClicks(userName, tiny, month, 1));
+                    // the row is enriched and written in the background
+                    clickEnricher.submit(anUserClick()
+                            .userClickKey(anUserClickKey().withUserName(userName).withClickTime(new Date(now)).build())
+                            .tiny(tiny)
+                            .longUrl(clickLongUrl)
+                            .build(), userAgent, request.getHeader("Referer"), ip);
+                }
+                event.addClickRecording(System.nanoTime() - start);
+                logger.debug("Click queued for user: {}, tiny: {}", userName, tiny);
             }
-            logger.info("Redirecting to: {}", tinyRequest.getLongUrl());
-            return new ModelAndView("redirect:" + tinyRequest.getLongUrl());
+            logger.debug("Redirecting to: {}", longUrl);
+            return new ModelAndView("redirect:" + longUrl);
         } else {
             logger.warn("Invalid tiny URL: {}", tiny);
             return new ModelAndView("redirect:/error?message=Invalid tiny URL");
         }
     }
 
+    // Resolves many codes at once for link scanners and crawlers, no clicks are recorded
+    @RequestMapping(value = "/resolve", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, String>> resolve(@RequestBody List<String> tinies) {
+        if (tinies.size() > maxResolveCodes) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "at most " + maxResolveCodes + " codes per request");
+        }
+        RequestEvent event = RequestEvent.start("resolve", null, null);
+        try {
+            Set<String> codes = new LinkedHashSet<>();
+            for (String tiny : tinies) {
+                if (tiny != null && tiny.matches("[a-zA-Z0-9]+")) {
+                    codes.add(tiny);
+                }
+            }
+            Map<String, Object> payloads = mappingStore.getAll(codes);
+            long start = System.nanoTime();
+            // unknown and invalid codes are left out
+            Map<String, String> resolved = new LinkedHashMap<>();
+            for (String tiny : codes) {
+                Object payload = payloads.get(tiny);
+                if (payload != null) {
+                    // parsed directly, thousands of cold codes would only churn the compiled mappings
+                    String longUrl = mapper.readValue(payload.toString(), NewTinyRequest.class).getLongUrl();
+                    if (longUrl != null) {
+                        resolved.put(tiny, longUrl);
+                    }
+                }
+            }
+            event.addSerialization(System.nanoTime() - start);
+            event.setResults(resolved.size());
+            logger.debug("Resolved {} of {} codes", resolved.size(), tinies.size());
+            return ResponseEntity.ok(resolved);
+        } catch (BackendUnavailableException e) {
+            logger.warn("Mapping stores unavailable for resolving {} codes, error: {}", tinies.size(), e.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Try again later");
+        } catch (JsonProcessingException e) {
+            logger.error("Error resolving codes: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        } finally {
+            event.finish();
+        }
+    }
+
     @RequestMapping(value = "/user/{name}/clicks", method = RequestMethod.GET)
     public ResponseEntity<List<UserClickOut>> getUserClicks(@PathVariable String name) {
         logger.info("Fetching clicks for user: {}", name);
+        RequestEvent event = RequestEvent.start("getUserClicks", null, name);
         try {
             // המרה מ-Iterable ל-List
-            Iterable<UserClick> userClicksIterable = userClickRepository.findByUserName(name);
+            Iterable<UserClick> userClicksIterable = clickSink.findByUserName(name);
             List<UserClick> userClicks = StreamSupport.stream(userClicksIterable.spliterator(), false)
                     .collect(Collectors.toList());
-            List<UserClickOut> userClickOuts = userClicks.stream()
-                    .map(UserClickOut::of)
-                    .collect(Collectors.toList());
+            // long URLs are looked up for the distinct codes, the time shows up as redis/cassandra
+            List<UserClickOut> userClickOuts = clickLongUrls.toOut(userClicks);
+            event.setResults(userClickOuts.size());
             logger.debug("Found {} clicks for user: {}", userClickOuts.size(), name);
             if (userClickOuts.isEmpty()) {
                 logger.info("No clicks found for user: {}", name);
@@ -276,9 +446,109 @@ public class AppController {
         } catch (Exception e) {
             logger.error("Error fetching clicks for user: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new ArrayList<>());
+        } finally {
+            event.finish();
+        }
+    }
+
+    // Streams the user's click history as a gzipped NDJSON or CSV file
+    @RequestMapping(value = "/user/{name}/clicks/export", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> exportUserClicks(@PathVariable String name,
+                                                                  @RequestParam(defaultValue = "ndjson") String format,
+                                                                  @RequestParam(required = false) String from,
+                                                                  @RequestParam(required = false) String to) {
+        logger.info("Exporting clicks for user: {}, format: {}, from: {}, to: {}", name, format, from, to);
+        ClickExporter.Format exportFormat;
+        Date fromDate;
+        Date toDate;
+        try {
+            exportFormat = ClickExporter.Format.valueOf(format.toUpperCase());
+            fromDate = new Date(from != null ? parseIsoMillis(from) : 0);
+            toDate = new Date(to != null ? parseIsoMillis(to) : System.currentTimeMillis() + 1);
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            logger.warn("Invalid export request for user: {}, error: {}", name, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+        StreamingResponseBody body = out -> clickExporter.export(name, fromDate, toDate, exportFormat, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"clicks-" + name.replaceAll("[^A-Za-z0-9._-]", "_")
+                        + "." + exportFormat.getExtension() + ".gz\"")
+                .body(body);
+    }
+
+    // The user's clicks per day and link, folded from raw clicks that have expired or are about to
+    @RequestMapping(value = "/user/{name}/clicks/daily", method = RequestMethod.GET)
+    public ResponseEntity<List<UserClickDailyOut>> getUserDailyClicks(@PathVariable String name,
+                                                                      @RequestParam(required = false) String from,
+                                                                      @RequestParam(required = false) String to) {
+        logger.info("Fetching daily clicks for user: {}, from: {}, to: {}", name, from, to);
+        try {
+            long toMillis = to != null ? parseIsoMillis(to) : System.currentTimeMillis() + ClickStats.Granularity.DAY.getMillis();
+            long fromMillis = from != null ? parseIsoMillis(from) : 0;
+            if (fromMillis >= toMillis) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+            }
+            if (clickDownsampler == null) {
+                return ResponseEntity.ok(new ArrayList<>());
+            }
+            return ResponseEntity.ok(clickDownsampler.daily(name, fromMillis, toMillis));
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            logger.warn("Invalid daily clicks query for user: {}, error: {}", name, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (Exception e) {
+            logger.error("Error fetching daily clicks for user: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    // Per-link click counts, answered from the hourly / daily rollups
+    @RequestMapping(value = "/tiny/{tiny}/stats", method = RequestMethod.GET)
+    public ResponseEntity<TinyStatsOut> getTinyStats(@PathVariable String tiny,
+                                                     @RequestParam(required = false) String from,
+                                                     @RequestParam(required = false) String to,
+                                                     @RequestParam(defaultValue = "day") String granularity) {
+        logger.info("Fetching stats for tiny: {}, from: {}, to: {}, granularity: {}", tiny, from, to, granularity);
+        try {
+            ClickStats.Granularity bucket = ClickStats.Granularity.valueOf(granularity.toUpperCase());
+            long toMillis = to != null ? parseIsoMillis(to) : System.currentTimeMillis();
+            long fromMillis = from != null ? parseIsoMillis(from) : toMillis - (bucket == ClickStats.Granularity.DAY ? 7 : 1) * ClickStats.Granularity.DAY.getMillis();
+            if (fromMillis >= toMillis) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+            }
+            return ResponseEntity.ok(clickRollupService.stats(tiny, fromMillis, toMillis, bucket));
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            logger.warn("Invalid stats query for tiny: {}, error: {}", tiny, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (Exception e) {
+            logger.error("Error fetching stats for tiny: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    // Approximate distinct visitors per day, and over the whole range
+    @RequestMapping(value = "/tiny/{tiny}/visitors", method = RequestMethod.GET)
+    public ResponseEntity<TinyVisitorsOut> getTinyVisitors(@PathVariable String tiny,
+                                                           @RequestParam(required = false) String from,
+                                                           @RequestParam(required = false) String to) {
+        logger.info("Fetching unique visitors for tiny: {}, from: {}, to: {}", tiny, from, to);
+        try {
+            long toMillis = to != null ? parseIsoMillis(to) : System.currentTimeMillis();
+            long fromMillis = from != null ? parseIsoMillis(from) : toMillis - 7 * ClickStats.Granularity.DAY.getMillis();
+            if (fromMillis >= toMillis) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+            }
+            return ResponseEntity.ok(uniqueVisitorService.visitors(tiny, fromMillis, toMillis));
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            logger.warn("Invalid visitors query for tiny: {}, error: {}", tiny, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (Exception e) {
+            logger.error("Error fetching unique visitors for tiny: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
 
+    // First hop of X-Forwarded-For when behind a proxy, otherwise the peer address
     private String generateTinyCode() {
         String charPool = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
         StringBuilder res = new StringBuilder();
@@ -1,11 +1,26 @@
 package com.handson.tinyurl.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class NewTinyRequest {
 
     private  String longUrl;
 
     private  String userName;
 
+    // optional edge-cacheable redirect: 301, 308, or 302 together with cacheMaxAge
+    private  Integer redirectStatus;
+
+    // seconds edge caches may keep the redirect
+    private  Integer cacheMaxAge;
+
+    // optional per-visitor destinations, evaluated in order, longUrl when none matches
+    private  List<RedirectRule> rules;
+
     public String getUserName() {
         return userName;
     }
@@ -13,4 +28,25 @@ public class NewTinyRequest {
     public String getLongUrl() {
         return longUrl;
     }
+
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public Integer getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public List<RedirectRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Cacheable links are served with Cache-Control: public and their clicks are
+     * counted from the imported edge access logs instead of at the origin.
+     */
+    @JsonIgnore
+    public boolean isCacheable() {
+        return (redirectStatus != null && redirectStatus != 302) || (cacheMaxAge != null && cacheMaxAge > 0);
+    }
 }
@@ -0,0 +1,80 @@
+package com.handson.tinyurl.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One rule of a link with several destinations. A rule matches when the visitor is
+ * in one of its countries and on one of its devices (an absent list matches
+ * anyone), and then sends them to longUrl, or to one of the split targets in
+ * proportion to their weights.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RedirectRule {
+
+    // ISO 3166 alpha-2 codes, as sent by the edge in redirect.rules.country-header
+    private List<String> countries;
+
+    // mobile, tablet, desktop, bot or other, as classified by UserAgentParser
+    private List<String> devices;
+
+    private String longUrl;
+
+    private List<Target> split;
+
+    public List<String> getCountries() {
+        return countries;
+    }
+
+    public void setCountries(List<String> countries) {
+        this.countries = countries;
+    }
+
+    public List<String> getDevices() {
+        return devices;
+    }
+
+    public void setDevices(List<String> devices) {
+        this.devices = devices;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public List<Target> getSplit() {
+        return split;
+    }
+
+    public void setSplit(List<Target> split) {
+        this.split = split;
+    }
+
+    public static class Target {
+
+        private String longUrl;
+
+        private int weight;
+
+        public String getLongUrl() {
+            return longUrl;
+        }
+
+        public void setLongUrl(String longUrl) {
+            this.longUrl = longUrl;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+    }
+}
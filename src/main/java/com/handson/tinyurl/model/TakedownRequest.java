@@ -0,0 +1,40 @@
+package com.handson.tinyurl.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TakedownRequest {
+
+    // hosts to take down, subdomains included
+    private List<String> domains = new ArrayList<>();
+
+    // regular expressions, found anywhere in the long URL
+    private List<String> patterns = new ArrayList<>();
+
+    // ignore the checkpoint of an earlier run with the same rules
+    private boolean restart;
+
+    public List<String> getDomains() {
+        return domains;
+    }
+
+    public void setDomains(List<String> domains) {
+        this.domains = domains;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    public void setPatterns(List<String> patterns) {
+        this.patterns = patterns;
+    }
+
+    public boolean isRestart() {
+        return restart;
+    }
+
+    public void setRestart(boolean restart) {
+        this.restart = restart;
+    }
+}
@@ -0,0 +1,91 @@
+package com.handson.tinyurl.model;
+
+import org.springframework.data.cassandra.core.mapping.PrimaryKey;
+import org.springframework.data.cassandra.core.mapping.Table;
+
+import java.util.Date;
+import java.util.Objects;
+
+@Table("tiny_mapping")
+public class TinyMapping {
+    @PrimaryKey
+    private String tiny;
+
+    // the serialized NewTinyRequest, exactly as it is cached in Redis
+    private String payload;
+
+    private Date created;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TinyMapping that = (TinyMapping) o;
+        return Objects.equals(tiny, that.tiny) && Objects.equals(payload, that.payload) && Objects.equals(created, that.created);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(tiny, payload, created);
+    }
+
+    public String getTiny() {
+        return tiny;
+    }
+
+    public void setTiny(String tiny) {
+        this.tiny = tiny;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public static final class TinyMappingBuilder {
+        private String tiny;
+        private String payload;
+        private Date created = new Date();
+
+        private TinyMappingBuilder() {
+        }
+
+        public static TinyMappingBuilder aTinyMapping() {
+            return new TinyMappingBuilder();
+        }
+
+        public TinyMappingBuilder withTiny(String tiny) {
+            this.tiny = tiny;
+            return this;
+        }
+
+        public TinyMappingBuilder withPayload(String payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public TinyMappingBuilder withCreated(Date created) {
+            this.created = created;
+            return this;
+        }
+
+        public TinyMapping build() {
+            TinyMapping tinyMapping = new TinyMapping();
+            tinyMapping.setTiny(tiny);
+            tinyMapping.setPayload(payload);
+            tinyMapping.setCreated(created);
+            return tinyMapping;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.handson.tinyurl.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.util.Date;
+import java.util.List;
+
+public class TinyStatsOut {
+
+    private String tiny;
+    private String granularity;
+    private long total;
+    private List<Bucket> buckets;
+
+    public String getTiny() {
+        return tiny;
+    }
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    public static TinyStatsOut of(String tiny, String granularity, long total, List<Bucket> buckets) {
+        TinyStatsOut res = new TinyStatsOut();
+        res.tiny = tiny;
+        res.granularity = granularity;
+        res.total = total;
+        res.buckets = buckets;
+        return res;
+    }
+
+    public static class Bucket {
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'", timezone = "UTC")
+        private Date time;
+        private long clicks;
+
+        public Date getTime() {
+            return time;
+        }
+
+        public long getClicks() {
+            return clicks;
+        }
+
+        public static Bucket of(long time, long clicks) {
+            Bucket res = new Bucket();
+            res.time = new Date(time);
+            res.clicks = clicks;
+            return res;
+        }
+    }
+}
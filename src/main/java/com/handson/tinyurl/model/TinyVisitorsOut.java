@@ -0,0 +1,57 @@
+package com.handson.tinyurl.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.util.Date;
+import java.util.List;
+
+public class TinyVisitorsOut {
+
+    private String tiny;
+    private long uniqueVisitors;
+    private List<Day> days;
+
+    public String getTiny() {
+        return tiny;
+    }
+
+    /**
+     * Distinct visitors over the whole range, not the sum of the days
+     */
+    public long getUniqueVisitors() {
+        return uniqueVisitors;
+    }
+
+    public List<Day> getDays() {
+        return days;
+    }
+
+    public static TinyVisitorsOut of(String tiny, long uniqueVisitors, List<Day> days) {
+        TinyVisitorsOut res = new TinyVisitorsOut();
+        res.tiny = tiny;
+        res.uniqueVisitors = uniqueVisitors;
+        res.days = days;
+        return res;
+    }
+
+    public static class Day {
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd", timezone = "UTC")
+        private Date day;
+        private long uniqueVisitors;
+
+        public Date getDay() {
+            return day;
+        }
+
+        public long getUniqueVisitors() {
+            return uniqueVisitors;
+        }
+
+        public static Day of(long day, long uniqueVisitors) {
+            Day res = new Day();
+            res.day = new Date(day);
+            res.uniqueVisitors = uniqueVisitors;
+            return res;
+        }
+    }
+}
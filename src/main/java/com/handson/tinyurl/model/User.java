@@ -1,5 +1,6 @@
 package com.handson.tinyurl.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -19,6 +20,9 @@ public class User {
 
     private Map<String, ShortUrl> shorts;
 
+    // highest number of user_counter_shards documents the counters were spread over, 0 if never
+    private int counterShards;
+
     public User() {
         this.shorts = new HashMap<>();
     }
@@ -47,6 +51,15 @@ public class User {
         this.allUrlClicks = allUrlClicks;
     }
 
+    @JsonIgnore
+    public int getCounterShards() {
+        return counterShards;
+    }
+
+    public void setCounterShards(int counterShards) {
+        this.counterShards = counterShards;
+    }
+
     public Map<String, ShortUrl> getShorts() {
         return shorts;
     }
@@ -14,19 +14,24 @@ public class UserClick {
 
     private String tiny;
     private String longUrl;
-
+    private String referrer;
+    private String device;
+    private String browser;
+    private String ipPrefix;
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         UserClick userClick = (UserClick) o;
-        return Objects.equals(userClickKey, userClick.userClickKey) && Objects.equals(tiny, userClick.tiny) && Objects.equals(longUrl, userClick.longUrl);
+        return Objects.equals(userClickKey, userClick.userClickKey) && Objects.equals(tiny, userClick.tiny) && Objects.equals(longUrl, userClick.longUrl)
+                && Objects.equals(referrer, userClick.referrer) && Objects.equals(device, userClick.device)
+                && Objects.equals(browser, userClick.browser) && Objects.equals(ipPrefix, userClick.ipPrefix);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(userClickKey, tiny, longUrl);
+        return Objects.hash(userClickKey, tiny, longUrl, referrer, device, browser, ipPrefix);
     }
 
     public UserClickKey getUserClickKey() {
@@ -53,10 +58,46 @@ public class UserClick {
         return longUrl;
     }
 
+    public String getReferrer() {
+        return referrer;
+    }
+
+    public void setReferrer(String referrer) {
+        this.referrer = referrer;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public void setDevice(String device) {
+        this.device = device;
+    }
+
+    public String getBrowser() {
+        return browser;
+    }
+
+    public void setBrowser(String browser) {
+        this.browser = browser;
+    }
+
+    public String getIpPrefix() {
+        return ipPrefix;
+    }
+
+    public void setIpPrefix(String ipPrefix) {
+        this.ipPrefix = ipPrefix;
+    }
+
     public static final class UserClickBuilder {
         private UserClickKey userClickKey;
         private String tiny;
         private String longUrl;
+        private String referrer;
+        private String device;
+        private String browser;
+        private String ipPrefix;
 
         private UserClickBuilder() {
         }
@@ -80,11 +121,35 @@ public class UserClick {
             return this;
         }
 
+        public UserClickBuilder referrer(String referrer) {
+            this.referrer = referrer;
+            return this;
+        }
+
+        public UserClickBuilder device(String device) {
+            this.device = device;
+            return this;
+        }
+
+        public UserClickBuilder browser(String browser) {
+            this.browser = browser;
+            return this;
+        }
+
+        public UserClickBuilder ipPrefix(String ipPrefix) {
+            this.ipPrefix = ipPrefix;
+            return this;
+        }
+
         public UserClick build() {
             UserClick userClick = new UserClick();
             userClick.setUserClickKey(userClickKey);
             userClick.setTiny(tiny);
             userClick.setLongUrl(longUrl);
+            userClick.setReferrer(referrer);
+            userClick.setDevice(device);
+            userClick.setBrowser(browser);
+            userClick.setIpPrefix(ipPrefix);
             return userClick;
         }
     }
@@ -0,0 +1,56 @@
+package com.handson.tinyurl.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A user's clicks on one link over one UTC day, folded from raw clicks before they expire
+ */
+public class UserClickDailyOut {
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd", timezone = "UTC")
+    private Date day;
+    private String tiny;
+    private long clicks;
+    private Map<String, Long> devices;
+    private Map<String, Long> browsers;
+    private Map<String, Long> referrers;
+
+    public Date getDay() {
+        return day;
+    }
+
+    public String getTiny() {
+        return tiny;
+    }
+
+    public long getClicks() {
+        return clicks;
+    }
+
+    public Map<String, Long> getDevices() {
+        return devices;
+    }
+
+    public Map<String, Long> getBrowsers() {
+        return browsers;
+    }
+
+    public Map<String, Long> getReferrers() {
+        return referrers;
+    }
+
+    public static UserClickDailyOut of(long day, String tiny, long clicks, Map<String, Long> devices,
+                                       Map<String, Long> browsers, Map<String, Long> referrers) {
+        UserClickDailyOut res = new UserClickDailyOut();
+        res.day = new Date(day);
+        res.tiny = tiny;
+        res.clicks = clicks;
+        res.devices = devices;
+        res.browsers = browsers;
+        res.referrers = referrers;
+        return res;
+    }
+}
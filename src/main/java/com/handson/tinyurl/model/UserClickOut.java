@@ -23,6 +23,10 @@ public class UserClickOut {
 
     private String tiny;
     private String longUrl;
+    private String referrer;
+    private String device;
+    private String browser;
+    private String ipPrefix;
 
     public String getUserName() {
         return userName;
@@ -40,12 +44,39 @@ public class UserClickOut {
         return longUrl;
     }
 
+    public String getReferrer() {
+        return referrer;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public String getBrowser() {
+        return browser;
+    }
+
+    public String getIpPrefix() {
+        return ipPrefix;
+    }
+
     public static UserClickOut of(UserClick userClick) {
+        return of(userClick, null);
+    }
+
+    /**
+     * @param defaultLongUrl the link's long URL, for rows that only store it when a redirect rule chose another one
+     */
+    public static UserClickOut of(UserClick userClick, String defaultLongUrl) {
         UserClickOut res = new UserClickOut();
         res.userName = userClick.getUserClickKey().getUserName();
         res.clickTime = userClick.getUserClickKey().getClickTime();
         res.tiny = userClick.getTiny();
-        res.longUrl = userClick.getLongUrl();
+        res.longUrl = userClick.getLongUrl() != null ? userClick.getLongUrl() : defaultLongUrl;
+        res.referrer = userClick.getReferrer();
+        res.device = userClick.getDevice();
+        res.browser = userClick.getBrowser();
+        res.ipPrefix = userClick.getIpPrefix();
         return res;
     }
 }
@@ -0,0 +1,7 @@
+package com.handson.tinyurl.repository;
+
+import com.handson.tinyurl.model.TinyMapping;
+import org.springframework.data.cassandra.repository.CassandraRepository;
+
+public interface TinyMappingRepository extends CassandraRepository<TinyMapping, String> {
+}
@@ -3,11 +3,23 @@ package com.handson.tinyurl.repository;
 
 import com.handson.tinyurl.model.UserClick;
 import com.handson.tinyurl.model.UserClickKey;
+import org.springframework.data.cassandra.core.cql.QueryOptions;
 import org.springframework.data.cassandra.repository.CassandraRepository;
 import org.springframework.data.cassandra.repository.Query;
 
+import java.util.Date;
+import java.util.stream.Stream;
+
+/**
+ * The QueryOptions arguments select the driver execution profile per call,
+ * see {@link com.handson.tinyurl.config.CassandraProfiles}.
+ */
 public interface UserClickRepository extends CassandraRepository<UserClick, UserClickKey> {
     @Query("SELECT * FROM userclick WHERE user_name=:userName")
-    Iterable<UserClick> findByUserName(String userName);
+    Iterable<UserClick> findByUserName(String userName, QueryOptions options);
+
+    // pages are fetched lazily as the stream is consumed
+    @Query("SELECT * FROM userclick WHERE user_name=:userName AND click_time>=:from AND click_time<:to")
+    Stream<UserClick> streamByUserName(String userName, Date from, Date to, QueryOptions options);
 
 }
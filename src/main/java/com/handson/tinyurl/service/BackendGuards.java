@@ -0,0 +1,111 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.util.BackendGuard;
+import com.handson.tinyurl.util.CircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One {@link BackendGuard} per backend, configured with resilience.{redis|mongo|cassandra}.*,
+ * plus redis-bulk and cassandra-bulk for bulk lookups (POST /resolve, history long
+ * URLs): those run longer, and their timeouts must not open the breakers redirects use.
+ * Breaker states are reported in the health details and at /actuator/breakers.
+ * An open breaker does not make the node DOWN: redirects keep being served from
+ * the local cache or the other store, only analytics are shed.
+ */
+@Component
+@Endpoint(id = "breakers")
+public class BackendGuards implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendGuards.class);
+
+    @Autowired
+    private Environment env;
+
+    private BackendGuard redis;
+    private BackendGuard mongo;
+    private BackendGuard cassandra;
+    private BackendGuard redisBulk;
+    private BackendGuard cassandraBulk;
+
+    @PostConstruct
+    public void init() {
+        redis = create("redis", 32, 64, 50);
+        mongo = create("mongo", 16, 1000, 200);
+        cassandra = create("cassandra", 16, 1000, 200);
+        redisBulk = create("redis-bulk", 8, 64, 500);
+        cassandraBulk = create("cassandra-bulk", 8, 256, 1000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        redis.shutdown();
+        mongo.shutdown();
+        cassandra.shutdown();
+        redisBulk.shutdown();
+        cassandraBulk.shutdown();
+    }
+
+    private BackendGuard create(String name, int threads, int queueSize, long timeoutMs) {
+        String prefix = "resilience." + name + ".";
+        CircuitBreaker breaker = new CircuitBreaker(
+                env.getProperty(prefix + "window", Integer.class, 100),
+                env.getProperty(prefix + "minimum-calls", Integer.class, 20),
+                env.getProperty(prefix + "failure-rate", Double.class, 50.0),
+                env.getProperty(prefix + "open-ms", Long.class, 5000L),
+                env.getProperty(prefix + "half-open-calls", Integer.class, 5));
+        BackendGuard guard = new BackendGuard(name,
+                env.getProperty(prefix + "threads", Integer.class, threads),
+                env.getProperty(prefix + "queue-size", Integer.class, queueSize),
+                env.getProperty(prefix + "timeout-ms", Long.class, timeoutMs),
+                breaker);
+        logger.info("Backend guard {}: {}", name, guard.status());
+        return guard;
+    }
+
+    public BackendGuard redis() {
+        return redis;
+    }
+
+    public BackendGuard mongo() {
+        return mongo;
+    }
+
+    public BackendGuard cassandra() {
+        return cassandra;
+    }
+
+    public BackendGuard redisBulk() {
+        return redisBulk;
+    }
+
+    public BackendGuard cassandraBulk() {
+        return cassandraBulk;
+    }
+
+    @ReadOperation
+    public Map<String, Object> breakers() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        for (BackendGuard guard : new BackendGuard[]{redis, mongo, cassandra, redisBulk, cassandraBulk}) {
+            res.put(guard.getName(), guard.status());
+        }
+        return res;
+    }
+
+    @Override
+    public Health health() {
+        return Health.up().withDetails(breakers()).build();
+    }
+}
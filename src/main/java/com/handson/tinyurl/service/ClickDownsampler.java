@@ -0,0 +1,323 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.handson.tinyurl.model.UserClickDailyOut;
+import com.handson.tinyurl.storage.ClickStats;
+import com.handson.tinyurl.util.TokenRanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folds raw click rows into daily aggregates (userclick_daily: clicks plus device,
+ * browser and referrer breakdowns per user, day and link) before they reach
+ * click.retention.raw-days and expire.
+ *
+ * Each run scans the userclick table by token range for the days between the last
+ * checkpoint (job_checkpoints) and raw-days - lead-days ago. A run after a failed
+ * one can find days whose rows have partly expired or been deleted, so an aggregate
+ * is only written when it has more clicks than the one already stored (max merge):
+ * a repeated run never replaces a complete day with a partial one. The first run
+ * folds the whole history. Rows past retention that were written before the table
+ * had a default TTL are deleted once folded.
+ *
+ * The aggregates are read back with {@link #daily}, GET /user/{name}/clicks/daily.
+ */
+@Component
+@Profile("!inmemory")
+public class ClickDownsampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickDownsampler.class);
+
+    private static final String JOB = "click-downsampling";
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Autowired
+    private CqlSession session;
+
+    @Value("${click.retention.raw-days:90}")
+    private int rawDays;
+
+    // how many days before expiry a day is folded
+    @Value("${click.retention.lead-days:2}")
+    private int leadDays;
+
+    // 0 keeps the daily aggregates forever
+    @Value("${click.retention.aggregate-days:0}")
+    private int aggregateDays;
+
+    @Value("${click.retention.downsample.enabled:true}")
+    private boolean enabled;
+
+    @Value("${click.retention.downsample.threads:4}")
+    private int threads;
+
+    @Value("${click.retention.downsample.token-ranges:256}")
+    private int tokenRanges;
+
+    @Value("${click.retention.downsample.delete-expired:true}")
+    private boolean deleteExpired;
+
+    // aggregates of a range held before they are written, flushed between two users
+    @Value("${click.retention.downsample.flush-aggregates:1000}")
+    private int flushAggregates;
+
+    private PreparedStatement selectRange;
+    private PreparedStatement upsertDaily;
+    private PreparedStatement selectDailyClicks;
+    private PreparedStatement selectDaily;
+    private PreparedStatement deleteRows;
+    private PreparedStatement selectCheckpoint;
+    private PreparedStatement updateCheckpoint;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong rangesDone = new AtomicLong();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong aggregates = new AtomicLong();
+    private final AtomicLong keptAggregates = new AtomicLong();
+    private final AtomicLong purgedUsers = new AtomicLong();
+    private volatile long from;
+    private volatile long to;
+    private volatile String lastResult;
+
+    @PostConstruct
+    public void init() {
+        session.execute("CREATE TABLE IF NOT EXISTS userclick_daily (user_name text, day date, tiny text, clicks bigint, "
+                + "devices map<text, bigint>, browsers map<text, bigint>, referrers map<text, bigint>, "
+                + "PRIMARY KEY ((user_name), day, tiny)) WITH CLUSTERING ORDER BY (day DESC, tiny ASC)");
+        session.execute("CREATE TABLE IF NOT EXISTS job_checkpoints (job text PRIMARY KEY, position bigint)");
+        selectRange = session.prepare("SELECT user_name, click_time, tiny, device, browser, referrer FROM userclick "
+                + "WHERE token(user_name) > ? AND token(user_name) <= ? AND click_time >= ? AND click_time < ? ALLOW FILTERING");
+        upsertDaily = session.prepare("INSERT INTO userclick_daily (user_name, day, tiny, clicks, devices, browsers, referrers) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?) USING TTL ?");
+        selectDailyClicks = session.prepare("SELECT day, tiny, clicks FROM userclick_daily WHERE user_name = ? AND day >= ? AND day < ?");
+        selectDaily = session.prepare("SELECT day, tiny, clicks, devices, browsers, referrers FROM userclick_daily "
+                + "WHERE user_name = ? AND day >= ? AND day < ?");
+        deleteRows = session.prepare("DELETE FROM userclick WHERE user_name = ? AND click_time >= ? AND click_time < ?");
+        selectCheckpoint = session.prepare("SELECT position FROM job_checkpoints WHERE job = ?");
+        updateCheckpoint = session.prepare("UPDATE job_checkpoints SET position = ? WHERE job = ?");
+    }
+
+    @Scheduled(cron = "${click.retention.downsample.cron:0 30 3 * * *}")
+    public void scheduled() {
+        if (enabled && rawDays > 0) {
+            start();
+        }
+    }
+
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        rangesDone.set(0);
+        scanned.set(0);
+        aggregates.set(0);
+        keptAggregates.set(0);
+        purgedUsers.set(0);
+        Thread worker = new Thread(this::run, "click-downsampler");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("running", running.get());
+        res.put("from", Instant.ofEpochMilli(from).toString());
+        res.put("to", Instant.ofEpochMilli(to).toString());
+        res.put("rangesDone", rangesDone.get());
+        res.put("tokenRanges", tokenRanges);
+        res.put("scanned", scanned.get());
+        res.put("aggregates", aggregates.get());
+        res.put("keptAggregates", keptAggregates.get());
+        res.put("purgedUsers", purgedUsers.get());
+        res.put("lastResult", lastResult);
+        return res;
+    }
+
+    private void run() {
+        if (rawDays <= 0) {
+            lastResult = "raw clicks are kept forever (click.retention.raw-days=0)";
+            running.set(false);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long today = ClickStats.Granularity.DAY.bucketOf(System.currentTimeMillis());
+            Row checkpoint = session.execute(selectCheckpoint.bind(JOB)).one();
+            from = checkpoint != null ? checkpoint.getLong("position") : 0;
+            to = today - (rawDays - leadDays) * DAY;
+            long expiredBefore = today - rawDays * DAY;
+            if (from >= to) {
+                lastResult = "up to date";
+                return;
+            }
+            logger.info("Downsampling clicks from {} to {}", Instant.ofEpochMilli(from), Instant.ofEpochMilli(to));
+            List<Future<?>> pending = new ArrayList<>();
+            for (TokenRanges.Range range : TokenRanges.split(tokenRanges)) {
+                pending.add(pool.submit(() -> {
+                    fold(range, expiredBefore);
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                // any failed range leaves the checkpoint where it was, the next run redoes the whole window
+                future.get();
+            }
+            session.execute(updateCheckpoint.bind(to, JOB));
+            lastResult = "completed";
+            logger.info("Downsampling finished: scanned={}, aggregates={}, purgedUsers={}", scanned.get(), aggregates.get(), purgedUsers.get());
+        } catch (Exception e) {
+            lastResult = "failed: " + e.getMessage();
+            logger.error("Downsampling failed: {}", e.getMessage(), e);
+        } finally {
+            pool.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    // the range is read partition by partition, so a user's aggregates are complete once the next user's rows start
+    private void fold(TokenRanges.Range range, long expiredBefore) throws Exception {
+        Map<List<Object>, DailyAggregate> daily = new HashMap<>();
+        Set<String> expiredUsers = new HashSet<>();
+        String current = null;
+        for (Row row : session.execute(selectRange.bind(range.getStart(), range.getEnd(), Instant.ofEpochMilli(from), Instant.ofEpochMilli(to)))) {
+            scanned.incrementAndGet();
+            String userName = row.getString("user_name");
+            if (!userName.equals(current)) {
+                if (daily.size() >= flushAggregates) {
+                    flush(daily, expiredUsers, expiredBefore);
+                }
+                current = userName;
+            }
+            long clickTime = row.getInstant("click_time").toEpochMilli();
+            LocalDate day = Instant.ofEpochMilli(clickTime).atOffset(ZoneOffset.UTC).toLocalDate();
+            daily.computeIfAbsent(List.of(userName, day, String.valueOf(row.getString("tiny"))), k -> new DailyAggregate())
+                    .add(row.getString("device"), row.getString("browser"), row.getString("referrer"));
+            if (clickTime < expiredBefore) {
+                expiredUsers.add(userName);
+            }
+        }
+        flush(daily, expiredUsers, expiredBefore);
+        rangesDone.incrementAndGet();
+    }
+
+    // writes the aggregates of whole users and deletes their expired rows, then clears both
+    private void flush(Map<List<Object>, DailyAggregate> daily, Set<String> expiredUsers, long expiredBefore) throws Exception {
+        Map<List<Object>, Long> stored = storedClicks(daily.keySet());
+        int ttl = (int) TimeUnit.DAYS.toSeconds(aggregateDays);
+        List<CompletableFuture<AsyncResultSet>> writes = new ArrayList<>(daily.size());
+        daily.forEach((key, aggregate) -> {
+            if (aggregate.clicks <= stored.getOrDefault(key, 0L)) {
+                // folded before more of the day's rows had expired
+                keptAggregates.incrementAndGet();
+                return;
+            }
+            writes.add(session.executeAsync(upsertDaily.bind(
+                    key.get(0), key.get(1), key.get(2), aggregate.clicks, aggregate.devices, aggregate.browsers, aggregate.referrers, ttl))
+                    .toCompletableFuture());
+        });
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get();
+        aggregates.addAndGet(writes.size());
+
+        if (deleteExpired && !expiredUsers.isEmpty()) {
+            List<CompletableFuture<AsyncResultSet>> deletes = new ArrayList<>(expiredUsers.size());
+            for (String userName : expiredUsers) {
+                deletes.add(session.executeAsync(deleteRows.bind(userName, Instant.ofEpochMilli(from), Instant.ofEpochMilli(expiredBefore)))
+                        .toCompletableFuture());
+            }
+            CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).get();
+            purgedUsers.addAndGet(deletes.size());
+        }
+        daily.clear();
+        expiredUsers.clear();
+    }
+
+    // clicks of the aggregates already stored for the keys' users over the folded days, by (user, day, tiny)
+    private Map<List<Object>, Long> storedClicks(Set<List<Object>> keys) throws Exception {
+        Set<String> userNames = new HashSet<>();
+        keys.forEach(key -> userNames.add((String) key.get(0)));
+        LocalDate fromDay = Instant.ofEpochMilli(from).atOffset(ZoneOffset.UTC).toLocalDate();
+        LocalDate toDay = Instant.ofEpochMilli(to).atOffset(ZoneOffset.UTC).toLocalDate().plusDays(1);
+        Map<String, CompletableFuture<AsyncResultSet>> reads = new HashMap<>();
+        for (String userName : userNames) {
+            reads.put(userName, session.executeAsync(selectDailyClicks.bind(userName, fromDay, toDay)).toCompletableFuture());
+        }
+        CompletableFuture.allOf(reads.values().toArray(new CompletableFuture[0])).get();
+        Map<List<Object>, Long> res = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<AsyncResultSet>> read : reads.entrySet()) {
+            AsyncResultSet page = read.getValue().join();
+            while (true) {
+                for (Row row : page.currentPage()) {
+                    res.put(List.of(read.getKey(), row.getLocalDate("day"), String.valueOf(row.getString("tiny"))), row.getLong("clicks"));
+                }
+                if (!page.hasMorePages()) {
+                    break;
+                }
+                page = page.fetchNextPage().toCompletableFuture().get();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the user's daily aggregates of the days in [from, to), newest first
+     */
+    public List<UserClickDailyOut> daily(String userName, long from, long to) {
+        LocalDate fromDay = Instant.ofEpochMilli(from).atOffset(ZoneOffset.UTC).toLocalDate();
+        LocalDate toDay = Instant.ofEpochMilli(to).atOffset(ZoneOffset.UTC).toLocalDate();
+        List<UserClickDailyOut> res = new ArrayList<>();
+        for (Row row : session.execute(selectDaily.bind(userName, fromDay, toDay))) {
+            res.add(UserClickDailyOut.of(row.getLocalDate("day").atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli(),
+                    row.getString("tiny"), row.getLong("clicks"), row.getMap("devices", String.class, Long.class),
+                    row.getMap("browsers", String.class, Long.class), row.getMap("referrers", String.class, Long.class)));
+        }
+        return res;
+    }
+
+    private static final class DailyAggregate {
+        private long clicks;
+        private final Map<String, Long> devices = new HashMap<>();
+        private final Map<String, Long> browsers = new HashMap<>();
+        private final Map<String, Long> referrers = new HashMap<>();
+
+        private void add(String device, String browser, String referrer) {
+            clicks++;
+            count(devices, device);
+            count(browsers, browser);
+            count(referrers, referrer);
+        }
+
+        private static void count(Map<String, Long> counts, String value) {
+            if (value != null) {
+                counts.merge(value, 1L, Long::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.storage.ClickSink;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import com.handson.tinyurl.util.UserAgentParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enriches click rows with referrer host, device class, browser and IP prefix off
+ * the redirect path. getTiny only hands over the raw header values; parsing and the
+ * Cassandra write happen on a bounded worker pool. User-Agent strings repeat a lot,
+ * so parse results are kept in an LRU cache.
+ * Rows are analytics: when the queue is full or Cassandra is degraded they are
+ * dropped rather than slowing redirects down.
+ */
+@Component
+public class ClickEnricher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickEnricher.class);
+
+    @Autowired
+    private ClickSink clickSink;
+
+    @Autowired
+    private BackendGuards guards;
+
+    @Value("${click.enrichment.threads:2}")
+    private int threads;
+
+    @Value("${click.enrichment.queue-size:10000}")
+    private int queueSize;
+
+    @Value("${click.enrichment.ua-cache-size:10000}")
+    private int uaCacheSize;
+
+    private ThreadPoolExecutor executor;
+    // striped so the workers do not all queue on one lock, each stripe is its own LRU
+    private static final int UA_CACHE_STRIPES = 16;
+    private Map<String, UserAgentParser.Parsed>[] userAgents;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        AtomicInteger threadId = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "click-enricher-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int stripeSize = Math.max(1, uaCacheSize / UA_CACHE_STRIPES);
+        userAgents = new Map[UA_CACHE_STRIPES];
+        for (int i = 0; i < UA_CACHE_STRIPES; i++) {
+            userAgents[i] = Collections.synchronizedMap(new LinkedHashMap<String, UserAgentParser.Parsed>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, UserAgentParser.Parsed> eldest) {
+                    return size() > stripeSize;
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Click enrichment did not drain, {} clicks not written", executor.getQueue().size());
+        }
+    }
+
+    /**
+     * @param click the row with key, tiny and long url set
+     */
+    public void submit(UserClick click, String userAgent, String referrer, String ip) {
+        try {
+            executor.execute(() -> write(click, userAgent, referrer, ip));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Click enrichment queue full, dropping click for tiny: {}", click.getTiny());
+            guards.cassandra().shed();
+        }
+    }
+
+    private void write(UserClick click, String userAgent, String referrer, String ip) {
+        try {
+            UserClick enriched = enrich(click, userAgent, referrer, ip);
+            guards.cassandra().call(() -> {
+                clickSink.record(enriched);
+                return null;
+            });
+        } catch (BackendUnavailableException e) {
+            logger.debug("Dropping click for tiny: {}, error: {}", click.getTiny(), e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error recording click for tiny: {}, error: {}", click.getTiny(), e.getMessage(), e);
+        }
+    }
+
+    public UserClick enrich(UserClick click, String userAgent, String referrer, String ip) {
+        UserAgentParser.Parsed parsed = parseUserAgent(userAgent);
+        click.setDevice(parsed.getDevice());
+        click.setBrowser(parsed.getBrowser());
+        click.setReferrer(UserAgentParser.referrerHost(referrer));
+        click.setIpPrefix(UserAgentParser.ipPrefix(ip));
+        return click;
+    }
+
+    public UserAgentParser.Parsed parseUserAgent(String userAgent) {
+        if (userAgent == null) {
+            return UserAgentParser.parse(null);
+        }
+        Map<String, UserAgentParser.Parsed> stripe = userAgents[(userAgent.hashCode() & 0x7fffffff) % UA_CACHE_STRIPES];
+        UserAgentParser.Parsed parsed = stripe.get(userAgent);
+        if (parsed == null) {
+            parsed = UserAgentParser.parse(userAgent);
+            stripe.put(userAgent, parsed);
+        }
+        return parsed;
+    }
+}
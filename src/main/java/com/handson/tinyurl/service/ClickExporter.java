@@ -0,0 +1,133 @@
+package com.handson.tinyurl.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.model.UserClickOut;
+import com.handson.tinyurl.storage.ClickSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a user's click history as gzipped NDJSON or CSV straight from the
+ * Cassandra paged query. Rows are serialized one at a time and the next page is
+ * only fetched once the previous one has been written, so heap use does not grow
+ * with the export and a slow client simply slows the query down. Long URLs the
+ * rows do not carry are resolved through {@link ClickLongUrls}, one lookup per
+ * chunk of rows.
+ */
+@Component
+public class ClickExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickExporter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // rows whose long URLs are resolved together
+    private static final int CHUNK_SIZE = 500;
+    private static final String CSV_HEADER = "userName,clickTime,tiny,longUrl,referrer,device,browser,ipPrefix\n";
+
+    public enum Format {
+        NDJSON("ndjson"),
+        CSV("csv");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    @Autowired
+    private ClickSink clickSink;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private ClickLongUrls clickLongUrls;
+
+    /**
+     * @return the number of rows written
+     */
+    public long export(String userName, Date from, Date to, Format format, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        try (Stream<UserClick> clicks = clickSink.streamByUserName(userName, from, to);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            JsonGenerator json = null;
+            if (format == Format.NDJSON) {
+                json = mapper.getFactory().createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                        .setRootValueSeparator(null);
+            } else {
+                writer.write(CSV_HEADER);
+            }
+            Iterator<UserClick> it = clicks.iterator();
+            List<UserClick> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (it.hasNext()) {
+                chunk.add(it.next());
+                if (chunk.size() == CHUNK_SIZE || !it.hasNext()) {
+                    Map<String, String> longUrls = clickLongUrls.resolve(ClickLongUrls.tiniesWithoutLongUrl(chunk));
+                    for (UserClick click : chunk) {
+                        String longUrl = click.getLongUrl() != null ? click.getLongUrl() : longUrls.get(click.getTiny());
+                        if (json != null) {
+                            json.writeObject(UserClickOut.of(click, longUrl));
+                            json.writeRaw('\n');
+                        } else {
+                            writeCsv(writer, click, longUrl);
+                        }
+                    }
+                    rows += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (json != null) {
+                json.flush();
+            }
+        }
+        logger.info("Exported {} clicks of user: {} as {} in {} ms", rows, userName, format, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    private static void writeCsv(Writer writer, UserClick click, String longUrl) throws IOException {
+        writer.write(csv(click.getUserClickKey().getUserName()));
+        writer.write(',');
+        writer.write(DateTimeFormatter.ISO_INSTANT.format(click.getUserClickKey().getClickTime().toInstant()));
+        for (String value : new String[]{click.getTiny(), longUrl, click.getReferrer(), click.getDevice(), click.getBrowser(), click.getIpPrefix()}) {
+            writer.write(',');
+            writer.write(csv(value));
+        }
+        writer.write('\n');
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
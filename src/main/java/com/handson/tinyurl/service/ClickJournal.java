@@ -0,0 +1,273 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.storage.ClickSink;
+import com.handson.tinyurl.storage.UserStore;
+import com.handson.tinyurl.util.MappedJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.handson.tinyurl.model.UserClick.UserClickBuilder.anUserClick;
+import static com.handson.tinyurl.model.UserClickKey.UserClickKeyBuilder.anUserClickKey;
+
+/**
+ * Local write-ahead journal for click accounting. getTiny appends one record per
+ * click to a {@link MappedJournal}, which costs a few microseconds, and a shipper
+ * thread replays the journal into the userclick table and the users' Mongo
+ * counters, checkpointing after every batch and retrying a failed batch until it
+ * goes through (at-least-once). Replays are idempotent: click rows are keyed by
+ * user and click time, and counters are applied together with the journal
+ * position (see {@link UserStore#applyClicks}). The end of a batch is saved before
+ * it is applied, so a retry or restart re-reads exactly the same records instead
+ * of a larger batch whose counts would include the already applied ones.
+ * The positions are kept per node (click.journal.source, the host name by
+ * default), so users carry one per node rather than one per journal directory
+ * ever created. The directory records the source it ships as; when that is not
+ * the node's (a new directory, or one from before), the node's positions are
+ * dropped before its first batch, and those of the old source after it drained.
+ * Enabled unless click.journal.enabled=false, in which case clicks are written
+ * directly as before.
+ */
+@Component
+@ConditionalOnProperty(name = "click.journal.enabled", havingValue = "true", matchIfMissing = true)
+public class ClickJournal implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickJournal.class);
+
+    private static final byte VERSION = 1;
+    private static final String SOURCE_FILE = "source-id";
+
+    @Autowired
+    private ClickSink clickSink;
+
+    @Autowired
+    private UserStore userStore;
+
+    @Autowired
+    private ClickEnricher clickEnricher;
+
+    @Value("${click.journal.dir:data/click-journal}")
+    private String dir;
+
+    @Value("${click.journal.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${click.journal.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${click.journal.idle-ms:100}")
+    private long idleMs;
+
+    @Value("${click.journal.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${click.journal.source:}")
+    private String nodeSource;
+
+    private MappedJournal journal;
+    private Path sourceFile;
+    private volatile String source;
+    private Thread shipper;
+    private volatile boolean running;
+
+    private final AtomicLong appendFailures = new AtomicLong();
+    private final AtomicLong shipped = new AtomicLong();
+    private volatile long consecutiveFailures;
+    private volatile String lastError;
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path path = Paths.get(dir);
+        journal = MappedJournal.open(path, segmentSize);
+        if (nodeSource.isEmpty()) {
+            nodeSource = InetAddress.getLocalHost().getHostName();
+        }
+        // a field name in the users' journalPositions
+        nodeSource = nodeSource.replaceAll("[^a-zA-Z0-9_-]", "_");
+        sourceFile = path.resolve(SOURCE_FILE);
+        source = Files.exists(sourceFile) ? new String(Files.readAllBytes(sourceFile), StandardCharsets.US_ASCII).trim() : null;
+        logger.info("Opened click journal {} (source {}), {} bytes to replay", path.toAbsolutePath(), source, journal.backlog());
+        running = true;
+        shipper = new Thread(this::ship, "click-journal-shipper");
+        shipper.setDaemon(true);
+        shipper.start();
+    }
+
+    // journal positions only mean something together with the journal they come from,
+    // so the node's are dropped before this journal ships under its name; a begun batch
+    // is finished under the old source first, it may already be applied there
+    private void adoptNodeSource() throws IOException {
+        userStore.forgetJournal(nodeSource);
+        if (source != null) {
+            userStore.forgetJournal(source);
+        }
+        Files.write(sourceFile, nodeSource.getBytes(StandardCharsets.US_ASCII));
+        logger.info("Click journal ships as source {} (was {})", nodeSource, source);
+        source = nodeSource;
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        shipper.interrupt();
+        shipper.join(10_000);
+        journal.close();
+    }
+
+    public void record(String tiny, String userName, long clickTime, String month, String longUrl,
+                       String userAgent, String referrer, String ip) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeUTF(tiny);
+            out.writeUTF(userName);
+            out.writeLong(clickTime);
+            out.writeUTF(month);
+            writeNullable(out, longUrl);
+            writeNullable(out, userAgent);
+            writeNullable(out, referrer);
+            writeNullable(out, ip);
+            journal.append(bytes.toByteArray());
+        } catch (Exception e) {
+            // never fail a redirect over analytics
+            appendFailures.incrementAndGet();
+            logger.warn("Failed to journal click for tiny: {}, error: {}", tiny, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${click.journal.flush-interval-ms:50}")
+    public void flush() {
+        journal.flush();
+    }
+
+    private void ship() {
+        long position = journal.getCheckpoint();
+        long backoff = idleMs;
+        while (running) {
+            try {
+                long pending = journal.getPending();
+                if (pending < 0 && !nodeSource.equals(source)) {
+                    adoptNodeSource();
+                }
+                MappedJournal.Batch batch = pending >= 0 ? journal.readTo(position, pending) : journal.read(position, batchSize);
+                if (batch.getRecords().isEmpty()) {
+                    if (pending >= 0) {
+                        // nothing left of the batch after a torn tail
+                        journal.checkpoint(pending);
+                        position = pending;
+                        continue;
+                    }
+                    Thread.sleep(idleMs);
+                    continue;
+                }
+                if (pending < 0) {
+                    journal.begin(batch.getEnd());
+                }
+                apply(batch.getRecords(), batch.getEnd());
+                journal.checkpoint(batch.getEnd());
+                position = batch.getEnd();
+                shipped.addAndGet(batch.getRecords().size());
+                consecutiveFailures = 0;
+                backoff = idleMs;
+                if (journal.compact() > 0) {
+                    logger.debug("Compacted click journal, {} segments left", journal.segmentCount());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // the same batch is retried from the checkpoint, nothing is skipped
+                consecutiveFailures++;
+                lastError = e.getMessage();
+                logger.warn("Failed to ship click journal batch at {}, retrying in {} ms, error: {}", position, backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, maxBackoffMs);
+            }
+        }
+    }
+
+    private void apply(List<byte[]> records, long end) throws IOException {
+        List<UserClick> rows = new ArrayList<>(records.size());
+        Map<String, Map<String, Map<String, Long>>> counts = new HashMap<>();
+        for (byte[] record : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            if (in.readByte() != VERSION) {
+                logger.warn("Skipping click journal record of unknown version");
+                continue;
+            }
+            String tiny = in.readUTF();
+            String userName = in.readUTF();
+            long clickTime = in.readLong();
+            String month = in.readUTF();
+            String longUrl = readNullable(in);
+            String userAgent = readNullable(in);
+            String referrer = readNullable(in);
+            String ip = readNullable(in);
+            counts.computeIfAbsent(userName, u -> new HashMap<>())
+                    .computeIfAbsent(tiny, t -> new HashMap<>())
+                    .merge(month, 1L, Long::sum);
+            rows.add(clickEnricher.enrich(anUserClick()
+                    .userClickKey(anUserClickKey().withUserName(userName).withClickTime(new Date(clickTime)).build())
+                    .tiny(tiny)
+                    .longUrl(longUrl)
+                    .build(), userAgent, referrer, ip));
+        }
+        clickSink.recordAll(rows);
+        userStore.applyClicks(counts, source, end);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public Health health() {
+        // a backlog is expected while a backend is down, the redirects are still served
+        return Health.up()
+                .withDetail("source", String.valueOf(source))
+                .withDetail("backlogBytes", journal.backlog())
+                .withDetail("segments", journal.segmentCount())
+                .withDetail("shipped", shipped.get())
+                .withDetail("appendFailures", appendFailures.get())
+                .withDetail("consecutiveFailures", consecutiveFailures)
+                .withDetail("lastError", String.valueOf(lastError))
+                .build();
+    }
+}
@@ -0,0 +1,219 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.handson.tinyurl.util.TokenRanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes the long URL from click rows written before rows stopped carrying it.
+ * The userclick table is scanned by token range on click.long-url-migration.threads
+ * workers, and the column is deleted from every row whose URL is the link's
+ * default (see {@link ClickLongUrls}). Rows a redirect rule sent elsewhere, and
+ * rows of links that no longer exist, keep theirs.
+ *
+ * Progress is checkpointed in job_checkpoints (token up to which all ranges are
+ * done), so a stopped or crashed run resumes where it left off. The deletes are
+ * tombstones: space comes back once they are compacted with the rows after
+ * gc_grace_seconds. With click.retention.raw-days set, TWCS only compacts a
+ * window with its own SSTables, so there old rows mostly free their space by
+ * expiring and the saving is in the rows written since.
+ */
+@Component
+@Profile("!inmemory")
+public class ClickLongUrlMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickLongUrlMigration.class);
+
+    private static final String JOB = "click-long-url-migration";
+
+    @Autowired
+    private CqlSession session;
+
+    @Autowired
+    private ClickLongUrls clickLongUrls;
+
+    @Value("${click.long-url-migration.threads:4}")
+    private int threads;
+
+    @Value("${click.long-url-migration.token-ranges:256}")
+    private int tokenRanges;
+
+    // rows whose links are resolved together
+    @Value("${click.long-url-migration.batch-size:500}")
+    private int batchSize;
+
+    private PreparedStatement selectRange;
+    private PreparedStatement deleteLongUrl;
+    private PreparedStatement selectCheckpoint;
+    private PreparedStatement updateCheckpoint;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong rangesDone = new AtomicLong();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong rewritten = new AtomicLong();
+    private final AtomicLong kept = new AtomicLong();
+    private volatile String lastResult;
+
+    // start -> end of the ranges not yet done; the checkpoint is the start of the lowest one
+    private final TreeMap<Long, Long> pendingRanges = new TreeMap<>();
+
+    @PostConstruct
+    public void init() {
+        session.execute("CREATE TABLE IF NOT EXISTS job_checkpoints (job text PRIMARY KEY, position bigint)");
+        selectRange = session.prepare("SELECT user_name, click_time, tiny, longurl FROM userclick "
+                + "WHERE token(user_name) > ? AND token(user_name) <= ?");
+        deleteLongUrl = session.prepare("DELETE longurl FROM userclick WHERE user_name = ? AND click_time = ?");
+        selectCheckpoint = session.prepare("SELECT position FROM job_checkpoints WHERE job = ?");
+        updateCheckpoint = session.prepare("UPDATE job_checkpoints SET position = ? WHERE job = ?");
+    }
+
+    /**
+     * @param restart ignore the checkpoint and scan the whole table again
+     * @return false if the migration is already running
+     */
+    public boolean start(boolean restart) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        rangesDone.set(0);
+        scanned.set(0);
+        rewritten.set(0);
+        kept.set(0);
+        Thread worker = new Thread(() -> run(restart), "click-long-url-migration");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("running", running.get());
+        res.put("rangesDone", rangesDone.get());
+        res.put("tokenRanges", tokenRanges);
+        res.put("scanned", scanned.get());
+        res.put("rewritten", rewritten.get());
+        res.put("kept", kept.get());
+        res.put("lastResult", lastResult);
+        return res;
+    }
+
+    private void run(boolean restart) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Row checkpoint = restart ? null : session.execute(selectCheckpoint.bind(JOB)).one();
+            long from = checkpoint != null ? checkpoint.getLong("position") : Long.MIN_VALUE;
+            logger.info("Removing default long URLs from click rows, from token {}", from);
+            List<TokenRanges.Range> ranges = new ArrayList<>();
+            for (TokenRanges.Range range : TokenRanges.split(tokenRanges)) {
+                if (range.getEnd() <= from) {
+                    rangesDone.incrementAndGet();
+                } else {
+                    ranges.add(range);
+                }
+            }
+            synchronized (pendingRanges) {
+                pendingRanges.clear();
+                ranges.forEach(range -> pendingRanges.put(range.getStart(), range.getEnd()));
+            }
+            List<Future<?>> pending = new ArrayList<>();
+            for (TokenRanges.Range range : ranges) {
+                pending.add(pool.submit(() -> {
+                    migrate(range);
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+            lastResult = running.get() ? "completed" : "stopped";
+            logger.info("Long URL migration {}: {}", lastResult, status());
+        } catch (Exception e) {
+            lastResult = "failed: " + e.getMessage();
+            logger.error("Long URL migration failed: {}", e.getMessage(), e);
+        } finally {
+            pool.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    private void migrate(TokenRanges.Range range) throws Exception {
+        if (!running.get()) {
+            return;
+        }
+        List<Row> batch = new ArrayList<>(batchSize);
+        for (Row row : session.execute(selectRange.bind(range.getStart(), range.getEnd()))) {
+            scanned.incrementAndGet();
+            if (row.getString("longurl") == null) {
+                continue;
+            }
+            batch.add(row);
+            if (batch.size() >= batchSize) {
+                rewrite(batch);
+                batch.clear();
+                if (!running.get()) {
+                    // the range is redone on the next run
+                    return;
+                }
+            }
+        }
+        rewrite(batch);
+        rangesDone.incrementAndGet();
+        synchronized (pendingRanges) {
+            boolean lowest = range.getStart() == pendingRanges.firstKey();
+            pendingRanges.remove(range.getStart());
+            if (lowest) {
+                // everything up to the start of the lowest range still pending is done
+                long position = pendingRanges.isEmpty() ? Long.MAX_VALUE : pendingRanges.firstKey();
+                session.execute(updateCheckpoint.bind(position, JOB));
+            }
+        }
+    }
+
+    private void rewrite(List<Row> rows) throws Exception {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> tinies = new ArrayList<>(rows.size());
+        rows.forEach(row -> tinies.add(row.getString("tiny")));
+        // fails the range rather than keeping URLs of links that could not be looked up
+        Map<String, String> defaults = clickLongUrls.lookup(tinies);
+        List<CompletableFuture<AsyncResultSet>> deletes = new ArrayList<>();
+        for (Row row : rows) {
+            String longUrl = defaults.get(row.getString("tiny"));
+            if (row.getString("longurl").equals(longUrl)) {
+                Instant clickTime = row.getInstant("click_time");
+                deletes.add(session.executeAsync(deleteLongUrl.bind(row.getString("user_name"), clickTime)).toCompletableFuture());
+            } else {
+                kept.incrementAndGet();
+            }
+        }
+        CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).get();
+        rewritten.addAndGet(deletes.size());
+    }
+}
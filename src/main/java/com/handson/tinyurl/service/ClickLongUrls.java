@@ -0,0 +1,137 @@
+package com.handson.tinyurl.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.model.UserClickOut;
+import com.handson.tinyurl.storage.MappingStore;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Click rows only carry the long URL when a redirect rule sent the visitor
+ * somewhere other than the link's default. The default is looked up when the
+ * history is read, for the distinct codes of a page in one {@link MappingStore#getAll},
+ * and kept per node since a link's default URL never changes. The map is cleared
+ * when it reaches click.long-url-cache.max-size.
+ */
+@Component
+public class ClickLongUrls {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickLongUrls.class);
+
+    // cached for codes whose mapping is gone, so they are not looked up on every read
+    private static final String MISSING = "";
+
+    @Autowired
+    private MappingStore mappingStore;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Value("${click.long-url-cache.max-size:100000}")
+    private int maxSize;
+
+    private final Map<String, String> longUrls = new ConcurrentHashMap<>();
+
+    /**
+     * @return tiny -> default long URL of the codes that still exist, without the
+     * ones that are not cached while the mapping stores are unavailable
+     */
+    public Map<String, String> resolve(Collection<String> tinies) {
+        try {
+            return lookup(tinies);
+        } catch (BackendUnavailableException e) {
+            // history is still worth showing without the URLs, nothing is cached so the next read retries
+            logger.debug("Mapping stores unavailable, long URLs left out, error: {}", e.getMessage());
+            Map<String, String> res = new HashMap<>();
+            for (String tiny : tinies) {
+                String longUrl = tiny == null ? null : longUrls.get(tiny);
+                if (longUrl != null && !longUrl.isEmpty()) {
+                    res.put(tiny, longUrl);
+                }
+            }
+            return res;
+        }
+    }
+
+    /**
+     * @return tiny -> default long URL of the codes that still exist
+     * @throws BackendUnavailableException when the mapping stores did not answer in time
+     */
+    public Map<String, String> lookup(Collection<String> tinies) {
+        Map<String, String> res = new HashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+        for (String tiny : tinies) {
+            String longUrl = tiny == null ? MISSING : longUrls.get(tiny);
+            if (longUrl == null) {
+                misses.add(tiny);
+            } else if (!longUrl.isEmpty()) {
+                res.put(tiny, longUrl);
+            }
+        }
+        if (misses.isEmpty()) {
+            return res;
+        }
+        Map<String, Object> payloads = mappingStore.getAll(misses);
+        if (longUrls.size() + misses.size() > maxSize) {
+            longUrls.clear();
+        }
+        for (String tiny : misses) {
+            String longUrl = longUrl(payloads.get(tiny));
+            longUrls.put(tiny, longUrl == null ? MISSING : longUrl);
+            if (longUrl != null) {
+                res.put(tiny, longUrl);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The rows with their long URLs filled in, resolved in one lookup
+     */
+    public List<UserClickOut> toOut(List<UserClick> clicks) {
+        Map<String, String> resolved = resolve(tiniesWithoutLongUrl(clicks));
+        List<UserClickOut> res = new ArrayList<>(clicks.size());
+        for (UserClick click : clicks) {
+            res.add(UserClickOut.of(click, resolved.get(click.getTiny())));
+        }
+        return res;
+    }
+
+    public static Set<String> tiniesWithoutLongUrl(List<UserClick> clicks) {
+        Set<String> tinies = new LinkedHashSet<>();
+        for (UserClick click : clicks) {
+            if (click.getLongUrl() == null && click.getTiny() != null) {
+                tinies.add(click.getTiny());
+            }
+        }
+        return tinies;
+    }
+
+    // the payload's default long URL, null if there is none or it does not parse
+    private String longUrl(Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return mapper.readValue(payload.toString(), NewTinyRequest.class).getLongUrl();
+        } catch (Exception e) {
+            logger.warn("Unreadable mapping payload, error: {}", e.getMessage());
+            return null;
+        }
+    }
+}
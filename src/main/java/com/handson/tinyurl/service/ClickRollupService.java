@@ -0,0 +1,148 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.model.TinyStatsOut;
+import com.handson.tinyurl.storage.ClickStats;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Incremental per-link click rollups. Clicks are counted in memory per (tiny, hour)
+ * and the deltas are flushed to {@link ClickStats} every flush-interval-ms, so a
+ * popular link costs one counter update per flush instead of one per click.
+ *
+ * A flush takes each bucket out of the map atomically, and clicks are only added
+ * to a bucket while it is in the map, so none are lost in between. Counter updates
+ * are not idempotent: deltas are put back only when the guard refused the write,
+ * never after a timeout or failure that may have applied it. Those are dropped and
+ * counted in tinyurl.rollup.dropped.
+ */
+@Component
+public class ClickRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickRollupService.class);
+
+    @Autowired
+    private ClickStats clickStats;
+
+    @Autowired
+    private BackendGuards guards;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${rollup.max-buckets:2232}")
+    private int maxBuckets;
+
+    private final Map<BucketKey, LongAdder> pending = new ConcurrentHashMap<>();
+    private Counter dropped;
+
+    @PostConstruct
+    public void init() {
+        dropped = Counter.builder("tinyurl.rollup.dropped").register(meterRegistry);
+    }
+
+    public void record(String tiny, long clickTime) {
+        record(tiny, clickTime, 1);
+    }
+
+    public void record(String tiny, long clickTime, long count) {
+        // added under the bucket's lock, so a flush cannot take the bucket out in between
+        pending.compute(new BucketKey(tiny, ClickStats.Granularity.HOUR.bucketOf(clickTime)), (k, adder) -> {
+            LongAdder res = adder != null ? adder : new LongAdder();
+            res.add(count);
+            return res;
+        });
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${rollup.flush-interval-ms:1000}")
+    public void flush() {
+        Map<String, Map<Long, Long>> deltas = new HashMap<>();
+        for (BucketKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, adder) -> {
+                long clicks = adder.sum();
+                if (clicks != 0) {
+                    deltas.computeIfAbsent(k.tiny, t -> new HashMap<>()).put(k.hour, clicks);
+                }
+                return null;
+            });
+        }
+        deltas.forEach((tiny, hourly) -> {
+            try {
+                guards.cassandra().call(() -> {
+                    clickStats.add(tiny, hourly);
+                    return null;
+                });
+            } catch (BackendUnavailableException e) {
+                if (e.isRefused()) {
+                    logger.warn("Rollups for tiny: {} not flushed, retrying next flush, error: {}", tiny, e.getMessage());
+                    hourly.forEach((hour, clicks) -> record(tiny, hour, clicks));
+                } else {
+                    long clicks = hourly.values().stream().mapToLong(Long::longValue).sum();
+                    dropped.increment(clicks);
+                    logger.warn("Failed to flush rollups for tiny: {}, dropped {} clicks that may have been counted, error: {}",
+                            tiny, clicks, e.getMessage());
+                }
+            }
+        });
+        if (!deltas.isEmpty()) {
+            logger.debug("Flushed rollups for {} links", deltas.size());
+        }
+    }
+
+    public TinyStatsOut stats(String tiny, long from, long to, ClickStats.Granularity granularity) {
+        long start = granularity.bucketOf(from);
+        if ((to - start) / granularity.getMillis() > maxBuckets) {
+            throw new IllegalArgumentException("Range too large, at most " + maxBuckets + " buckets");
+        }
+        Map<Long, Long> counts = clickStats.query(tiny, start, to, granularity);
+        List<TinyStatsOut.Bucket> buckets = new ArrayList<>();
+        long total = 0;
+        for (long bucket = start; bucket < to; bucket += granularity.getMillis()) {
+            long clicks = counts.getOrDefault(bucket, 0L);
+            buckets.add(TinyStatsOut.Bucket.of(bucket, clicks));
+            total += clicks;
+        }
+        return TinyStatsOut.of(tiny, granularity.name().toLowerCase(), total, buckets);
+    }
+
+    private static final class BucketKey {
+        private final String tiny;
+        private final long hour;
+
+        private BucketKey(String tiny, long hour) {
+            this.tiny = tiny;
+            this.hour = hour;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BucketKey that = (BucketKey) o;
+            return hour == that.hour && Objects.equals(tiny, that.tiny);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tiny, hour);
+        }
+    }
+}
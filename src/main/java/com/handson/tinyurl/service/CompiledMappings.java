@@ -0,0 +1,72 @@
+package com.handson.tinyurl.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.util.RedirectRules;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapping payloads parsed and their redirect rules compiled on first use, so a
+ * redirect neither parses JSON nor rebuilds rules. Entries are checked against
+ * the payload the store returned, a deleted and re-created code is compiled again.
+ * The map is cleared when it reaches redirect.compiled-cache.max-size, hot links
+ * come straight back.
+ */
+@Component
+public class CompiledMappings {
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Value("${redirect.compiled-cache.max-size:100000}")
+    private int maxSize;
+
+    private final Map<String, Compiled> compiled = new ConcurrentHashMap<>();
+
+    public Compiled get(String tiny, String payload) throws JsonProcessingException {
+        Compiled entry = compiled.get(tiny);
+        if (entry != null && (entry.payload == payload || entry.payload.equals(payload))) {
+            return entry;
+        }
+        entry = compile(payload);
+        if (compiled.size() >= maxSize) {
+            compiled.clear();
+        }
+        compiled.put(tiny, entry);
+        return entry;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rules of the payload are malformed
+     */
+    public Compiled compile(String payload) throws JsonProcessingException {
+        NewTinyRequest request = mapper.readValue(payload, NewTinyRequest.class);
+        return new Compiled(payload, request, RedirectRules.compile(request.getLongUrl(), request.getRules()));
+    }
+
+    public static final class Compiled {
+        private final String payload;
+        private final NewTinyRequest request;
+        private final RedirectRules rules;
+
+        private Compiled(String payload, NewTinyRequest request, RedirectRules rules) {
+            this.payload = payload;
+            this.request = request;
+            this.rules = rules;
+        }
+
+        public NewTinyRequest getRequest() {
+            return request;
+        }
+
+        public RedirectRules getRules() {
+            return rules;
+        }
+    }
+}
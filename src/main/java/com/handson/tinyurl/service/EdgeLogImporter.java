@@ -0,0 +1,290 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.storage.ClickSink;
+import com.handson.tinyurl.storage.MappingStore;
+import com.handson.tinyurl.storage.UserStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.handson.tinyurl.model.UserClick.UserClickBuilder.anUserClick;
+import static com.handson.tinyurl.model.UserClickKey.UserClickKeyBuilder.anUserClickKey;
+import static com.handson.tinyurl.util.Dates.getMonth;
+
+/**
+ * Rebuilds click accounting for edge-cacheable links from CDN access logs in
+ * combined log format. Only links in cacheable mode are counted, all other clicks
+ * already reached the origin. Each click feeds the same places getTiny does:
+ * the user's monthly counters (summed per link and month, one update each),
+ * the userclick table, the rollups and the unique visitor sketches.
+ *
+ * Every log is imported under a caller-chosen log ID and can be posted again after
+ * a failure: lines are applied in chunks of edge-log.batch-lines, and the number of
+ * lines done is checkpointed per log ID in job_checkpoints (in memory without
+ * Cassandra), so a rerun skips them and a completed log is not imported twice.
+ * The chunk's counters go through {@link UserStore#applyClicks} with the log as the
+ * journal and the line as the position, so a chunk that failed after some users
+ * were updated is not counted twice for them. Log times only have one-second
+ * resolution, so the clicks of an owner within one second are numbered and the
+ * number added as milliseconds (see ClickSequences): they keep separate rows, and a
+ * rerun rewrites the same rows. Only the rollups of a chunk in flight when an
+ * import fails may be counted again. A failed click row is counted and skipped,
+ * the import goes on; a failed link lookup fails the import, to be posted again.
+ */
+@Component
+public class EdgeLogImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EdgeLogImporter.class);
+
+    // 203.0.113.9 - - [19/Oct/2026:13:55:36 +0000] "GET /aB3xYz/ HTTP/1.1" 301 0 "https://t.co/" "Mozilla/5.0 ..."
+    private static final Pattern COMBINED = Pattern.compile(
+            "^(\\S+) \\S+ \\S+ \\[([^\\]]+)] \"(\\S+) (\\S+)[^\"]*\" (\\d{3}) \\S+(?: \"([^\"]*)\" \"([^\"]*)\")?.*$");
+    private static final Pattern TINY_PATH = Pattern.compile("^/([a-zA-Z0-9]+)/?(?:\\?.*)?$");
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+    // also ends up in Mongo field names (journal positions), so no dots
+    private static final Pattern LOG_ID = Pattern.compile("^[a-zA-Z0-9_-]{1,128}$");
+    private static final String JOB = "edge-log:";
+    private static final long COMPLETE = Long.MAX_VALUE;
+
+    @Autowired
+    private MappingStore mappingStore;
+
+    @Autowired
+    private UserStore userStore;
+
+    @Autowired
+    private ClickSink clickSink;
+
+    @Autowired
+    private ClickEnricher clickEnricher;
+
+    @Autowired
+    private ClickRollupService clickRollupService;
+
+    @Autowired
+    private UniqueVisitorService uniqueVisitorService;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    // absent in the inmemory profile
+    @Autowired(required = false)
+    private CqlSession session;
+
+    @Value("${edge-log.batch-lines:10000}")
+    private int batchLines;
+
+    private PreparedStatement selectCheckpoint;
+    private PreparedStatement updateCheckpoint;
+    private final Map<String, Long> localCheckpoints = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (session == null) {
+            return;
+        }
+        session.execute("CREATE TABLE IF NOT EXISTS job_checkpoints (job text PRIMARY KEY, position bigint)");
+        selectCheckpoint = session.prepare("SELECT position FROM job_checkpoints WHERE job = ?");
+        updateCheckpoint = session.prepare("UPDATE job_checkpoints SET position = ? WHERE job = ?");
+    }
+
+    /**
+     * @param logId identifies the log across reruns, letters, digits, '_' and '-'
+     * @throws IllegalArgumentException if logId is not valid
+     */
+    public Map<String, Object> importLog(String logId, InputStream in) throws IOException {
+        if (logId == null || !LOG_ID.matcher(logId).matches()) {
+            throw new IllegalArgumentException("logId must be 1 to 128 letters, digits, '_' or '-'");
+        }
+        long start = System.currentTimeMillis();
+        String source = JOB + logId;
+        long done = checkpoint(source);
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("logId", logId);
+        if (done == COMPLETE) {
+            logger.info("Edge log {} was already imported", logId);
+            res.put("alreadyImported", true);
+            return res;
+        }
+        Map<String, Optional<NewTinyRequest>> links = new HashMap<>();
+        Map<String, Map<String, Map<String, Long>>> userCounts = new HashMap<>();
+        Set<String> userNames = new HashSet<>();
+        ClickSequences sequences = new ClickSequences();
+        long lines = 0, clicks = 0, malformed = 0, skipped = 0, failed = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (lines > 0 && lines % batchLines == 0) {
+                applyChunk(userCounts, source, lines, done);
+            }
+            lines++;
+            // lines done by an earlier run are still parsed, so the click time sequences come out the same
+            boolean resumed = lines <= done;
+            Matcher m = COMBINED.matcher(line);
+            if (!m.matches()) {
+                malformed += resumed ? 0 : 1;
+                continue;
+            }
+            Matcher path = TINY_PATH.matcher(m.group(4));
+            int status = Integer.parseInt(m.group(5));
+            if (!"GET".equals(m.group(3)) || status < 300 || status >= 400 || !path.matches()) {
+                skipped += resumed ? 0 : 1;
+                continue;
+            }
+            String tiny = path.group(1);
+            // a failed lookup throws: the chunk is not checkpointed and the next run retries it
+            Optional<NewTinyRequest> link = links.computeIfAbsent(tiny, this::cacheableLink);
+            if (!link.isPresent()) {
+                skipped += resumed ? 0 : 1;
+                continue;
+            }
+            long clickTime;
+            try {
+                clickTime = OffsetDateTime.parse(m.group(2), LOG_TIME).toInstant().toEpochMilli();
+            } catch (Exception e) {
+                malformed += resumed ? 0 : 1;
+                continue;
+            }
+            String userName = link.get().getUserName();
+            if (userName != null) {
+                clickTime += sequences.next(userName, clickTime);
+            }
+            if (resumed) {
+                continue;
+            }
+            String ip = m.group(1);
+            String referrer = "-".equals(m.group(6)) ? null : m.group(6);
+            String userAgent = "-".equals(m.group(7)) ? null : m.group(7);
+            clickRollupService.record(tiny, clickTime);
+            uniqueVisitorService.record(tiny, clickTime, ip, userAgent);
+            if (userName != null) {
+                userCounts.computeIfAbsent(userName, u -> new HashMap<>())
+                        .computeIfAbsent(tiny, t -> new HashMap<>())
+                        .merge(getMonth(new Date(clickTime)), 1L, Long::sum);
+                userNames.add(userName);
+                UserClick click = anUserClick()
+                        .userClickKey(anUserClickKey().withUserName(userName).withClickTime(new Date(clickTime)).build())
+                        .tiny(tiny)
+                        .build();
+                try {
+                    clickSink.record(clickEnricher.enrich(click, userAgent, referrer, ip));
+                } catch (Exception e) {
+                    // the counters still include the click, as they do for getTiny
+                    failed++;
+                    logger.debug("Failed to record edge click of tiny: {} at line {}, error: {}", tiny, lines, e.getMessage());
+                }
+            }
+            clicks++;
+        }
+        applyChunk(userCounts, source, lines, done);
+        saveCheckpoint(source, COMPLETE);
+        userStore.forgetJournal(source, userNames);
+        if (failed > 0) {
+            logger.warn("Failed to record {} click rows of edge log {}", failed, logId);
+        }
+        res.put("lines", lines);
+        res.put("resumedAfter", done);
+        res.put("clicks", clicks);
+        res.put("skipped", skipped);
+        res.put("malformed", malformed);
+        res.put("failed", failed);
+        res.put("millis", System.currentTimeMillis() - start);
+        logger.info("Imported edge log: {}", res);
+        return res;
+    }
+
+    // throws when the counters could not be applied, the chunk is redone on the next run
+    private void applyChunk(Map<String, Map<String, Map<String, Long>>> userCounts, String source, long lines, long done) {
+        if (lines <= done) {
+            return;
+        }
+        userStore.applyClicks(userCounts, source, lines);
+        userCounts.clear();
+        saveCheckpoint(source, lines);
+    }
+
+    private long checkpoint(String job) {
+        if (session == null) {
+            return localCheckpoints.getOrDefault(job, 0L);
+        }
+        Row row = session.execute(selectCheckpoint.bind(job)).one();
+        return row == null ? 0 : row.getLong("position");
+    }
+
+    private void saveCheckpoint(String job, long position) {
+        if (session == null) {
+            localCheckpoints.put(job, position);
+        } else {
+            session.execute(updateCheckpoint.bind(position, job));
+        }
+    }
+
+    // empty for codes that do not exist or are not cacheable, mappingStore.get failures propagate
+    private Optional<NewTinyRequest> cacheableLink(String tiny) {
+        Object payload = mappingStore.get(tiny);
+        if (payload == null) {
+            return Optional.empty();
+        }
+        NewTinyRequest link;
+        try {
+            link = mapper.readValue(payload.toString(), NewTinyRequest.class);
+        } catch (Exception e) {
+            logger.warn("Unreadable mapping of tiny: {} while importing edge log, error: {}", tiny, e.getMessage());
+            return Optional.empty();
+        }
+        return link.isCacheable() && link.getLongUrl() != null ? Optional.of(link) : Optional.empty();
+    }
+
+    /**
+     * Millisecond offsets for the clicks of an owner within one second of the log,
+     * 0, 1, 2... in line order, so their rows get distinct click times. Above 1000
+     * clicks of one owner in one second the offsets wrap and rows overwrite each
+     * other; the counters still count every click. Seconds more than PRUNE_MS behind
+     * the newest one seen are forgotten, logs are close enough to time order.
+     */
+    private static final class ClickSequences {
+        private static final int MAX_ENTRIES = 100_000;
+        private static final long PRUNE_MS = 300_000;
+
+        private final Map<List<Object>, Integer> next = new HashMap<>();
+        private long newest;
+
+        private long next(String userName, long second) {
+            newest = Math.max(newest, second);
+            if (next.size() >= MAX_ENTRIES) {
+                next.keySet().removeIf(key -> (Long) key.get(1) < newest - PRUNE_MS);
+            }
+            int seq = next.merge(List.of(userName, second), 1, Integer::sum) - 1;
+            return seq % 1000;
+        }
+    }
+}
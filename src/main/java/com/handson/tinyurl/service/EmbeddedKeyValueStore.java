@@ -0,0 +1,128 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.util.MappedHashStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the mappings in a local {@link MappedHashStore} instead of Redis, for
+ * single-node deployments. Enabled with mapping.backend=embedded.
+ * Unless sync-writes is set, writes are flushed to disk together every
+ * flush-interval-ms (group commit).
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "mapping.backend", havingValue = "embedded")
+public class EmbeddedKeyValueStore implements KeyValueStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedKeyValueStore.class);
+
+    @Value("${mapping.embedded.dir:data/mappings}")
+    private String dir;
+
+    @Value("${mapping.embedded.initial-capacity:1048576}")
+    private int initialCapacity;
+
+    @Value("${mapping.embedded.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${mapping.embedded.sync-writes:false}")
+    private boolean syncWrites;
+
+    @Value("${mapping.embedded.compaction-threshold:0.5}")
+    private double compactionThreshold;
+
+    private MappedHashStore store;
+
+    @PostConstruct
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        store = MappedHashStore.open(Paths.get(dir), initialCapacity, segmentSize, syncWrites);
+        logger.info("Opened embedded mapping store {} with {} mappings in {} ms", dir, store.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Override
+    public Object get(String key) {
+        return key == null ? null : store.get(key);
+    }
+
+    @Override
+    public List<Object> multiGet(List<String> keys) {
+        // reads are local, there is no round trip to save
+        List<Object> values = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
+
+    @Override
+    public boolean set(String key, Object value) {
+        try {
+            return store.putIfAbsent(key, value.toString());
+        } catch (IOException e) {
+            logger.error("Error writing mapping: {}, error: {}", key, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean set(String key, Object value, long time) {
+        try {
+            store.put(key, value.toString());
+            return true;
+        } catch (IOException e) {
+            logger.error("Error writing mapping: {}, error: {}", key, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void del(String... key) {
+        for (String k : key) {
+            try {
+                store.delete(k);
+            } catch (IOException e) {
+                logger.error("Error deleting mapping: {}, error: {}", k, e.getMessage(), e);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mapping.embedded.flush-interval-ms:100}")
+    public void flush() {
+        if (!syncWrites) {
+            store.flush();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mapping.embedded.compaction-check-ms:600000}")
+    public void compactIfNeeded() {
+        if (store.garbageRatio() < compactionThreshold) {
+            return;
+        }
+        try {
+            long before = store.logBytes();
+            store.compact();
+            logger.info("Compacted embedded mapping store from {} to {} bytes", before, store.logBytes());
+        } catch (IOException e) {
+            logger.error("Error compacting embedded mapping store: {}", e.getMessage(), e);
+        }
+    }
+}
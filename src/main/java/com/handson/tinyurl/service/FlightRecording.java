@@ -0,0 +1,127 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.util.RequestEvent;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Always-on JDK Flight Recorder recording of {@link RequestEvent}s slower than
+ * jfr.threshold-ms, kept for jfr.max-age-minutes / jfr.max-size-mb. With
+ * jfr.settings=default (about 1% overhead) or profile the JDK's own events are
+ * recorded too. GET /actuator/jfr returns a snapshot of every running recording,
+ * including ones started with -XX:StartFlightRecording or jcmd, to open in JDK
+ * Mission Control or with the jfr tool. Recordings hold user data and each
+ * snapshot is written to disk first, so the endpoint is not exposed by default;
+ * expose it on a separate, internal management port.
+ */
+@Lazy(false)
+@Component
+@WebEndpoint(id = "jfr")
+public class FlightRecording {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecording.class);
+
+    @Value("${jfr.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jfr.threshold-ms:50}")
+    private long thresholdMs;
+
+    @Value("${jfr.max-age-minutes:60}")
+    private long maxAgeMinutes;
+
+    @Value("${jfr.max-size-mb:100}")
+    private long maxSizeMb;
+
+    // empty records only the request events
+    @Value("${jfr.settings:}")
+    private String settings;
+
+    private Recording recording;
+
+    @PostConstruct
+    public void init() throws Exception {
+        if (!enabled || !FlightRecorder.isAvailable()) {
+            logger.info("Flight recording disabled");
+            return;
+        }
+        recording = settings.isEmpty() ? new Recording() : new Recording(Configuration.getConfiguration(settings));
+        recording.setName("tinyurl");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+        recording.setMaxSize(maxSizeMb * 1024 * 1024);
+        recording.enable(RequestEvent.class).withThreshold(Duration.ofMillis(thresholdMs));
+        recording.start();
+        logger.info("Flight recording requests slower than {} ms, settings: {}", thresholdMs, settings.isEmpty() ? "none" : settings);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    @ReadOperation(produces = "application/octet-stream")
+    public WebEndpointResponse<Resource> dump() throws IOException {
+        if (!FlightRecorder.isAvailable()) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE);
+        }
+        try (Recording snapshot = FlightRecorder.getFlightRecorder().takeSnapshot()) {
+            if (snapshot.getSize() == 0) {
+                return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+            }
+            Path file = Files.createTempFile("tinyurl-", ".jfr");
+            snapshot.dump(file);
+            logger.info("Dumped flight recording of {} bytes", Files.size(file));
+            return new WebEndpointResponse<>(new TemporaryFileResource(file), WebEndpointResponse.STATUS_OK);
+        }
+    }
+
+    // deleted once sent
+    private static final class TemporaryFileResource extends FileSystemResource {
+
+        private TemporaryFileResource(Path file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        Files.deleteIfExists(getFile().toPath());
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String getFilename() {
+            return "tinyurl.jfr";
+        }
+    }
+}
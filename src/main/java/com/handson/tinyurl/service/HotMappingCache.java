@@ -0,0 +1,123 @@
+package com.handson.tinyurl.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local copy of the most requested mappings, with a hit counter per code.
+ * Mappings never change once created, so entries only leave the cache when they
+ * are deleted or trimmed for being cold. Deleted codes ({@link MappingTombstones})
+ * are never cached again. Trimming and decay run every
+ * mapping.local-cache.decay-interval-ms, whether or not snapshots are enabled.
+ */
+@Component
+public class HotMappingCache {
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Value("${mapping.local-cache.max-size:100000}")
+    private int maxSize;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public String get(String tiny) {
+        Entry entry = entries.get(tiny);
+        if (entry == null) {
+            return null;
+        }
+        entry.hits.incrementAndGet();
+        return entry.payload;
+    }
+
+    public void put(String tiny, String payload) {
+        put(tiny, payload, 1);
+    }
+
+    public void put(String tiny, String payload, long hits) {
+        // hard bound between two trims, new entries wait for the next trim
+        if (entries.size() >= 2 * maxSize || tombstones.contains(tiny)) {
+            return;
+        }
+        entries.putIfAbsent(tiny, new Entry(payload, hits));
+    }
+
+    public void remove(String tiny) {
+        entries.remove(tiny);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the n most requested entries, hottest first
+     */
+    public List<Ranked> hottest(int n) {
+        // counters keep moving while we sort, so rank on a copy of them
+        List<Ranked> res = new ArrayList<>(entries.size());
+        entries.forEach((tiny, entry) -> res.add(new Ranked(tiny, entry.payload, entry.hits.get())));
+        res.sort(Comparator.comparingLong(Ranked::getHits).reversed());
+        return res.size() > n ? res.subList(0, n) : res;
+    }
+
+    /**
+     * Drops the coldest entries down to max-size and halves all counters, so the
+     * ranking follows recent traffic rather than all-time totals.
+     */
+    @Scheduled(fixedDelayString = "${mapping.local-cache.decay-interval-ms:60000}")
+    public synchronized void trimAndDecay() {
+        if (entries.size() > maxSize) {
+            List<Ranked> ranked = hottest(Integer.MAX_VALUE);
+            for (Ranked cold : ranked.subList(maxSize, ranked.size())) {
+                entries.remove(cold.getTiny());
+            }
+        }
+        for (Entry entry : entries.values()) {
+            entry.hits.updateAndGet(h -> h / 2);
+        }
+    }
+
+    private static final class Entry {
+        private final String payload;
+        private final AtomicLong hits;
+
+        private Entry(String payload, long hits) {
+            this.payload = payload;
+            this.hits = new AtomicLong(hits);
+        }
+    }
+
+    public static final class Ranked {
+        private final String tiny;
+        private final String payload;
+        private final long hits;
+
+        private Ranked(String tiny, String payload, long hits) {
+            this.tiny = tiny;
+            this.payload = payload;
+            this.hits = hits;
+        }
+
+        public String getTiny() {
+            return tiny;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.handson.tinyurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Persists the hottest mappings of {@link HotMappingCache} to a memory-mapped file
+ * and loads it back on startup, so a restarted node does not hit Redis with its
+ * whole working set at once. The file is loaded while the context starts, before
+ * the web server accepts traffic or the health endpoint reports UP.
+ *
+ * Layout: magic, version, count, then per entry: hits (long), tiny length (short),
+ * tiny bytes, payload length (int), payload bytes (UTF-8).
+ */
+@Component
+public class HotMappingSnapshot implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotMappingSnapshot.class);
+
+    private static final int MAGIC = 0x54494E59;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    @Autowired
+    private HotMappingCache hotMappingCache;
+
+    // loaded before the snapshot, mappings deleted while the node was down are skipped
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Value("${mapping.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mapping.snapshot.path:data/hot-mappings.snap}")
+    private String path;
+
+    @Value("${mapping.snapshot.size:100000}")
+    private int size;
+
+    private volatile int loadedEntries;
+    private volatile long loadMillis;
+    private volatile int savedEntries;
+    private volatile long savedAt;
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            logger.info("No mapping snapshot at {}, starting cold", file.toAbsolutePath());
+            return;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("Ignoring unrecognized mapping snapshot: {}", file);
+                return;
+            }
+            int count = buffer.getInt();
+            int deleted = 0;
+            for (int i = 0; i < count; i++) {
+                long hits = buffer.getLong();
+                byte[] tiny = new byte[buffer.getShort()];
+                buffer.get(tiny);
+                byte[] payload = new byte[buffer.getInt()];
+                buffer.get(payload);
+                String code = new String(tiny, StandardCharsets.US_ASCII);
+                if (tombstones.contains(code)) {
+                    deleted++;
+                    continue;
+                }
+                hotMappingCache.put(code, new String(payload, StandardCharsets.UTF_8), hits);
+            }
+            loadedEntries = count - deleted;
+            loadMillis = (System.nanoTime() - start) / 1_000_000;
+            logger.info("Loaded {} mappings from snapshot in {} ms, skipped {} deleted", loadedEntries, loadMillis, deleted);
+        } catch (Exception e) {
+            // a damaged snapshot only costs us the warm start
+            logger.warn("Failed to load mapping snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mapping.snapshot.interval-ms:60000}", initialDelayString = "${mapping.snapshot.interval-ms:60000}")
+    public void scheduledSave() {
+        if (enabled) {
+            save();
+        }
+    }
+
+    @PreDestroy
+    public void saveOnShutdown() {
+        if (enabled) {
+            save();
+        }
+    }
+
+    public synchronized void save() {
+        List<HotMappingCache.Ranked> hottest = hotMappingCache.hottest(size);
+        byte[][] tinies = new byte[hottest.size()][];
+        byte[][] payloads = new byte[hottest.size()][];
+        long total = HEADER_SIZE;
+        for (int i = 0; i < hottest.size(); i++) {
+            tinies[i] = hottest.get(i).getTiny().getBytes(StandardCharsets.US_ASCII);
+            payloads[i] = hottest.get(i).getPayload().getBytes(StandardCharsets.UTF_8);
+            total += 8 + 2 + tinies[i].length + 4 + payloads[i].length;
+        }
+        Path file = Paths.get(path).toAbsolutePath();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(hottest.size());
+                for (int i = 0; i < hottest.size(); i++) {
+                    buffer.putLong(hottest.get(i).getHits());
+                    buffer.putShort((short) tinies[i].length).put(tinies[i]);
+                    buffer.putInt(payloads[i].length).put(payloads[i]);
+                }
+                buffer.force();
+            }
+            // readers only ever see a complete snapshot
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedEntries = hottest.size();
+            savedAt = System.currentTimeMillis();
+            logger.debug("Saved {} mappings to snapshot {}", hottest.size(), file);
+        } catch (IOException e) {
+            logger.warn("Failed to save mapping snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public Health health() {
+        return Health.up()
+                .withDetail("enabled", enabled)
+                .withDetail("loadedEntries", loadedEntries)
+                .withDetail("loadMillis", loadMillis)
+                .withDetail("cachedEntries", hotMappingCache.size())
+                .withDetail("savedEntries", savedEntries)
+                .withDetail("savedAt", savedAt)
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package com.handson.tinyurl.service;
+
+import java.util.List;
+
+/**
+ * The subset of {@link Redis} that holds tiny -> mapping entries, so that the
+ * mappings can be kept in a different engine (see {@link EmbeddedKeyValueStore}).
+ */
+public interface KeyValueStore {
+
+    Object get(String key);
+
+    /**
+     * Reads many keys in one round trip where the engine allows it
+     * @return the values in the order of the keys, null for absent keys
+     */
+    List<Object> multiGet(List<String> keys);
+
+    /**
+     * Stores the value only if the key is absent
+     * @return true if the value was stored
+     */
+    boolean set(String key, Object value);
+
+    /**
+     * Stores the value, replacing any previous one
+     * @param time expiry in seconds, 0 or less for none (engines without expiry ignore it)
+     */
+    boolean set(String key, Object value, long time);
+
+    void del(String... key);
+}
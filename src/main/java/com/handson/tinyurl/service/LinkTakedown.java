@@ -0,0 +1,396 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.model.RedirectRule;
+import com.handson.tinyurl.model.TakedownRequest;
+import com.handson.tinyurl.storage.MappingStore;
+import com.handson.tinyurl.storage.UserStore;
+import com.handson.tinyurl.util.TokenRanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Takes down every link with a destination (its long URL, or the URL of any of
+ * its redirect rules and A/B splits) that matches a set of domains or regular
+ * expressions, e.g. a reported phishing domain.
+ *
+ * Both copies of the mappings are scanned in parallel on takedown.threads
+ * workers: every Redis node with its own SCAN cursor (batches read with MGET),
+ * and Cassandra's tiny_mapping split into token ranges. Matches are deleted
+ * through {@link MappingStore#deleteAll}: tombstoned, removed from Cassandra, then
+ * from the mapping cache (Redis or the embedded store) and every node's
+ * {@link HotMappingCache}. Their entries are removed from the owners' shorts in
+ * one bulk update per batch.
+ *
+ * Progress is checkpointed in job_checkpoints under an id derived from the rules
+ * (Redis cursor per node, Cassandra token up to which all ranges are done), so
+ * starting the same rules again resumes where a stopped or crashed run left off.
+ */
+@Component
+@Profile("!inmemory")
+public class LinkTakedown {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkTakedown.class);
+
+    private static final long DONE = -1;
+    private static final Pattern MAPPING_KEY = Pattern.compile("[a-zA-Z0-9]+");
+
+    @Autowired
+    private Redis redis;
+
+    @Autowired
+    private CqlSession session;
+
+    @Autowired
+    private UserStore userStore;
+
+    @Autowired
+    private MappingStore mappingStore;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Value("${takedown.threads:8}")
+    private int threads;
+
+    @Value("${takedown.scan-count:1000}")
+    private int scanCount;
+
+    @Value("${takedown.token-ranges:256}")
+    private int tokenRanges;
+
+    private PreparedStatement selectMappings;
+    private PreparedStatement selectCheckpoint;
+    private PreparedStatement updateCheckpoint;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong redisScanned = new AtomicLong();
+    private final AtomicLong cassandraScanned = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong redisNodesDone = new AtomicLong();
+    private final AtomicLong rangesDone = new AtomicLong();
+    private volatile String id;
+    private volatile List<String> domains = List.of();
+    private volatile List<Pattern> patterns = List.of();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String lastResult;
+
+    // start -> end of the Cassandra ranges not yet done; the checkpoint is the start of the lowest one
+    private final TreeMap<Long, Long> pendingRanges = new TreeMap<>();
+
+    @PostConstruct
+    public void init() {
+        session.execute("CREATE TABLE IF NOT EXISTS job_checkpoints (job text PRIMARY KEY, position bigint)");
+        selectMappings = session.prepare("SELECT tiny, payload FROM tiny_mapping WHERE token(tiny) > ? AND token(tiny) <= ?");
+        selectCheckpoint = session.prepare("SELECT position FROM job_checkpoints WHERE job = ?");
+        updateCheckpoint = session.prepare("UPDATE job_checkpoints SET position = ? WHERE job = ?");
+    }
+
+    /**
+     * @return false if a takedown is already running
+     * @throws IllegalArgumentException if there are no rules or a pattern does not compile
+     */
+    public boolean start(TakedownRequest request) {
+        List<String> newDomains = request.getDomains() == null ? List.of() : request.getDomains().stream()
+                .map(d -> d.trim().toLowerCase(Locale.ROOT).replaceAll("^\\*?\\.", ""))
+                .filter(d -> !d.isEmpty())
+                .sorted()
+                .collect(Collectors.toList());
+        List<Pattern> newPatterns = new ArrayList<>();
+        for (String pattern : request.getPatterns() == null ? List.<String>of() : request.getPatterns()) {
+            try {
+                newPatterns.add(Pattern.compile(pattern));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern " + pattern + ": " + e.getDescription());
+            }
+        }
+        if (newDomains.isEmpty() && newPatterns.isEmpty()) {
+            throw new IllegalArgumentException("No domains or patterns given");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        domains = newDomains;
+        patterns = newPatterns;
+        id = fingerprint(newDomains, newPatterns);
+        redisScanned.set(0);
+        cassandraScanned.set(0);
+        matched.set(0);
+        redisNodesDone.set(0);
+        rangesDone.set(0);
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        lastResult = null;
+        boolean restart = request.isRestart();
+        Thread worker = new Thread(() -> run(restart), "link-takedown");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("id", id);
+        res.put("running", running.get());
+        res.put("domains", domains);
+        res.put("patterns", patterns.stream().map(Pattern::pattern).collect(Collectors.toList()));
+        res.put("redisScanned", redisScanned.get());
+        res.put("redisNodesDone", redisNodesDone.get());
+        res.put("cassandraScanned", cassandraScanned.get());
+        res.put("tokenRangesDone", rangesDone.get());
+        res.put("matched", matched.get());
+        long elapsed = (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+        res.put("elapsedMs", startedAt > 0 ? elapsed : 0);
+        res.put("lastResult", lastResult);
+        return res;
+    }
+
+    private void run(boolean restart) {
+        logger.info("Takedown {} started: domains={}, patterns={}", id, domains, patterns);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Redis.ScanNode node : redis.scanNodes()) {
+                pending.add(pool.submit(() -> {
+                    scanRedis(node, restart);
+                    return null;
+                }));
+            }
+            long from = restart ? Long.MIN_VALUE : checkpoint("cassandra", Long.MIN_VALUE);
+            List<TokenRanges.Range> ranges = new ArrayList<>();
+            for (TokenRanges.Range range : TokenRanges.split(tokenRanges)) {
+                if (range.getEnd() <= from) {
+                    rangesDone.incrementAndGet();
+                } else {
+                    ranges.add(range);
+                }
+            }
+            synchronized (pendingRanges) {
+                pendingRanges.clear();
+                ranges.forEach(range -> pendingRanges.put(range.getStart(), range.getEnd()));
+            }
+            for (TokenRanges.Range range : ranges) {
+                pending.add(pool.submit(() -> {
+                    scanCassandra(range);
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+            lastResult = running.get() ? "completed" : "stopped";
+            logger.info("Takedown {} {}: {}", id, lastResult, status());
+        } catch (Exception e) {
+            lastResult = "failed: " + e.getMessage();
+            logger.error("Takedown {} failed: {}", id, e.getMessage(), e);
+        } finally {
+            pool.shutdownNow();
+            finishedAt = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    private void scanRedis(Redis.ScanNode node, boolean restart) {
+        String job = "redis:" + node.getName();
+        long cursor = restart ? 0 : checkpoint(job, 0);
+        if (cursor == DONE) {
+            redisNodesDone.incrementAndGet();
+            return;
+        }
+        do {
+            List<String> keys = new ArrayList<>(scanCount);
+            cursor = node.scan(cursor, scanCount, keys);
+            keys.removeIf(key -> !MAPPING_KEY.matcher(key).matches());
+            if (!keys.isEmpty()) {
+                redisScanned.addAndGet(keys.size());
+                @SuppressWarnings("unchecked")
+                List<Object> payloads = node.getTemplate().opsForValue().multiGet(keys);
+                Map<String, String> hits = new LinkedHashMap<>();
+                for (int i = 0; i < keys.size(); i++) {
+                    match(keys.get(i), payloads == null ? null : payloads.get(i), hits);
+                }
+                takeDown(hits);
+            }
+            saveCheckpoint(job, cursor == 0 ? DONE : cursor);
+        } while (cursor != 0 && running.get());
+        if (cursor == 0) {
+            redisNodesDone.incrementAndGet();
+        }
+    }
+
+    private void scanCassandra(TokenRanges.Range range) {
+        if (!running.get()) {
+            return;
+        }
+        Map<String, String> hits = new LinkedHashMap<>();
+        for (Row row : session.execute(selectMappings.bind(range.getStart(), range.getEnd()))) {
+            cassandraScanned.incrementAndGet();
+            match(row.getString("tiny"), row.getString("payload"), hits);
+            if (hits.size() >= scanCount) {
+                takeDown(hits);
+                hits.clear();
+            }
+        }
+        takeDown(hits);
+        rangesDone.incrementAndGet();
+        synchronized (pendingRanges) {
+            boolean lowest = range.getStart() == pendingRanges.firstKey();
+            pendingRanges.remove(range.getStart());
+            if (lowest) {
+                // everything up to the start of the lowest range still pending is done
+                saveCheckpoint("cassandra", pendingRanges.isEmpty() ? Long.MAX_VALUE : pendingRanges.firstKey());
+            }
+        }
+    }
+
+    // adds tiny -> owner ("" if none) when any destination of the payload matches the rules
+    private void match(String tiny, Object payload, Map<String, String> hits) {
+        if (payload == null) {
+            return;
+        }
+        NewTinyRequest request;
+        try {
+            request = mapper.readValue(payload.toString(), NewTinyRequest.class);
+        } catch (Exception e) {
+            return;
+        }
+        for (String longUrl : destinations(request)) {
+            if (matches(longUrl)) {
+                hits.put(tiny, request.getUserName() == null ? "" : request.getUserName());
+                return;
+            }
+        }
+    }
+
+    // the default long URL and every URL a redirect rule or split can send visitors to
+    private static List<String> destinations(NewTinyRequest request) {
+        List<String> urls = new ArrayList<>();
+        if (request.getLongUrl() != null) {
+            urls.add(request.getLongUrl());
+        }
+        if (request.getRules() != null) {
+            for (RedirectRule rule : request.getRules()) {
+                if (rule == null) {
+                    continue;
+                }
+                if (rule.getLongUrl() != null) {
+                    urls.add(rule.getLongUrl());
+                }
+                if (rule.getSplit() != null) {
+                    for (RedirectRule.Target target : rule.getSplit()) {
+                        if (target != null && target.getLongUrl() != null) {
+                            urls.add(target.getLongUrl());
+                        }
+                    }
+                }
+            }
+        }
+        return urls;
+    }
+
+    private boolean matches(String longUrl) {
+        String host = hostOf(longUrl);
+        if (host != null) {
+            for (String domain : domains) {
+                if (host.equals(domain) || host.endsWith("." + domain)) {
+                    return true;
+                }
+            }
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(longUrl).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hostOf(String longUrl) {
+        try {
+            String host = URI.create(longUrl.trim()).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT).replaceAll("\\.$", "");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void takeDown(Map<String, String> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        matched.addAndGet(hits.size());
+        List<String> tinies = new ArrayList<>(hits.keySet());
+        logger.info("Taking down {} links", tinies.size());
+        // tombstoned, deleted from Cassandra before the cache, and invalidated on every node
+        mappingStore.deleteAll(tinies);
+        Map<String, List<String>> byUser = new HashMap<>();
+        hits.forEach((tiny, userName) -> {
+            if (!userName.isEmpty()) {
+                byUser.computeIfAbsent(userName, u -> new ArrayList<>()).add(tiny);
+            }
+        });
+        userStore.removeShorts(byUser);
+    }
+
+    private long checkpoint(String job, long defaultValue) {
+        Row row = session.execute(selectCheckpoint.bind("takedown:" + id + ":" + job)).one();
+        return row == null ? defaultValue : row.getLong("position");
+    }
+
+    private void saveCheckpoint(String job, long position) {
+        session.execute(updateCheckpoint.bind(position, "takedown:" + id + ":" + job));
+    }
+
+    private static String fingerprint(List<String> domains, List<Pattern> patterns) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.join("\n", domains).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            for (Pattern pattern : patterns) {
+                digest.update(pattern.pattern().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder res = new StringBuilder();
+            for (byte b : digest.digest()) {
+                res.append(String.format("%02x", b));
+            }
+            return res.substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.handson.tinyurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tells every node to drop deleted mappings from its {@link HotMappingCache},
+ * over a Redis pub/sub channel. Messages are comma-separated codes.
+ * Delivery is best effort: a node that is down misses the message, and picks
+ * the delete up from {@link MappingTombstones} instead.
+ * With mapping.backend=embedded there is a single node and no Redis: codes are
+ * only removed locally and nothing is subscribed or published.
+ */
+@Component
+@Profile("!inmemory")
+public class MappingInvalidations {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappingInvalidations.class);
+
+    private static final String CHANNEL = "tinyurl:mapping-invalidations";
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private HotMappingCache hotMappingCache;
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Value("${mapping.backend:redis}")
+    private String backend;
+
+    private RedisMessageListenerContainer container;
+
+    @PostConstruct
+    public void init() {
+        if ("embedded".equals(backend)) {
+            return;
+        }
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> {
+            List<String> tinies = Arrays.asList(new String(message.getBody(), StandardCharsets.UTF_8).split(","));
+            tombstones.addLocal(tinies);
+            tinies.forEach(hotMappingCache::remove);
+        }, new ChannelTopic(CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        if (container != null) {
+            container.destroy();
+        }
+    }
+
+    /**
+     * Removes the codes locally and publishes them to the other nodes. The codes
+     * must already be in {@link MappingTombstones}.
+     */
+    @SuppressWarnings("unchecked")
+    public void publish(Collection<String> tinies) {
+        if (tinies.isEmpty()) {
+            return;
+        }
+        tinies.forEach(hotMappingCache::remove);
+        if (container == null) {
+            return;
+        }
+        byte[] body = String.join(",", tinies).getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(CHANNEL.getBytes(StandardCharsets.UTF_8), body));
+        } catch (Exception e) {
+            logger.warn("Failed to publish {} mapping invalidations, error: {}", tinies.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.storage.UserStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repairs drift between the mappings and the users' shorts, which generate writes
+ * one after the other and without a transaction:
+ * - missing short: a mapping whose owner's shorts do not have it, added back
+ * - orphan short: a short whose mapping does not exist or belongs to another user, removed.
+ *   A code missing from tiny_mapping may be a legacy mapping that is still only in
+ *   the mapping cache (Redis, before backfillFromRedis has run), so the cache is
+ *   read as well before a short is called an orphan
+ *
+ * Both sides are walked in small batches on every tick, so the load is bounded by
+ * reconcile.batch-size per reconcile.interval-ms: tiny_mapping (the durable copy,
+ * Redis only caches part of it) in token order, and the users collection in _id
+ * order. Each cursor is checkpointed in the store it walks (job_checkpoints in
+ * Cassandra and in Mongo) and wraps around when it reaches the end, one cycle.
+ * Repairs are idempotent, but running on one node is enough.
+ */
+@Component
+@Profile("!inmemory")
+public class MappingReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappingReconciler.class);
+
+    private static final String JOB = "mapping-reconciler";
+    private static final String USERS = "users";
+    private static final String CHECKPOINTS = "job_checkpoints";
+
+    @Autowired
+    private CqlSession session;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UserStore userStore;
+
+    @Autowired
+    private KeyValueStore mappingCache;
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${reconcile.enabled:false}")
+    private boolean enabled;
+
+    // false only measures drift
+    @Value("${reconcile.repair:true}")
+    private boolean repair;
+
+    @Value("${reconcile.batch-size:200}")
+    private int batchSize;
+
+    // mappings younger than this may not have reached their owner's shorts yet
+    @Value("${reconcile.grace-seconds:60}")
+    private long graceSeconds;
+
+    private PreparedStatement selectMappings;
+    private PreparedStatement selectMapping;
+    private PreparedStatement selectCheckpoint;
+    private PreparedStatement updateCheckpoint;
+
+    private long mappingToken = Long.MIN_VALUE;
+    private Object userId;
+    private long mappingCycles;
+    private long userCycles;
+    private volatile String lastError;
+    private final Map<String, Long> currentCycle = new LinkedHashMap<>();
+    private volatile Map<String, Long> lastMappingCycle = Map.of();
+    private volatile Map<String, Long> lastUserCycle = Map.of();
+
+    private Counter mappingsScanned;
+    private Counter usersScanned;
+    private Counter missingShorts;
+    private Counter orphanShorts;
+    private Counter missingUsers;
+    private Counter repairedMissing;
+    private Counter repairedOrphans;
+
+    @PostConstruct
+    public void init() {
+        session.execute("CREATE TABLE IF NOT EXISTS job_checkpoints (job text PRIMARY KEY, position bigint)");
+        selectMappings = session.prepare("SELECT token(tiny) AS t, tiny, payload, created FROM tiny_mapping WHERE token(tiny) > ? LIMIT ?");
+        selectMapping = session.prepare("SELECT payload FROM tiny_mapping WHERE tiny = ?");
+        selectCheckpoint = session.prepare("SELECT position FROM job_checkpoints WHERE job = ?");
+        updateCheckpoint = session.prepare("UPDATE job_checkpoints SET position = ? WHERE job = ?");
+
+        mappingsScanned = counter("tinyurl.reconcile.scanned", "side", "mappings");
+        usersScanned = counter("tinyurl.reconcile.scanned", "side", "users");
+        missingShorts = counter("tinyurl.reconcile.drift", "type", "missing_short");
+        orphanShorts = counter("tinyurl.reconcile.drift", "type", "orphan_short");
+        missingUsers = counter("tinyurl.reconcile.drift", "type", "missing_user");
+        repairedMissing = counter("tinyurl.reconcile.repaired", "type", "missing_short");
+        repairedOrphans = counter("tinyurl.reconcile.repaired", "type", "orphan_short");
+
+        Row row = session.execute(selectCheckpoint.bind(JOB + ":mappings")).one();
+        if (row != null) {
+            mappingToken = row.getLong("position");
+        }
+        Document checkpoint = mongoTemplate.findById(JOB + ":users", Document.class, CHECKPOINTS);
+        if (checkpoint != null) {
+            userId = checkpoint.get("position");
+        }
+    }
+
+    private Counter counter(String name, String tag, String value) {
+        return Counter.builder(name).tag(tag, value).register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${reconcile.interval-ms:1000}")
+    public synchronized void tick() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reconcileMappings();
+            reconcileUsers();
+            lastError = null;
+        } catch (Exception e) {
+            // the cursors stay where they were, the batch is retried on the next tick
+            lastError = e.getMessage();
+            logger.warn("Reconciliation batch failed: {}", e.getMessage());
+        }
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("repair", repair);
+        res.put("mappingToken", mappingToken);
+        res.put("mappingCycles", mappingCycles);
+        res.put("userId", userId == null ? null : userId.toString());
+        res.put("userCycles", userCycles);
+        res.put("currentCycle", new LinkedHashMap<>(currentCycle));
+        res.put("lastMappingCycle", lastMappingCycle);
+        res.put("lastUserCycle", lastUserCycle);
+        res.put("lastError", lastError);
+        return res;
+    }
+
+    // mappings -> shorts: every mapping with an owner is in the owner's shorts
+    private void reconcileMappings() {
+        ResultSet rows = session.execute(selectMappings.bind(mappingToken, batchSize));
+        long youngest = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(graceSeconds);
+        Map<String, Map<String, String>> longUrlsByUser = new HashMap<>();
+        long lastToken = mappingToken;
+        int count = 0;
+        for (Row row : rows) {
+            count++;
+            lastToken = row.getLong("t");
+            Instant created = row.getInstant("created");
+            NewTinyRequest request = decode(row.getString("payload"));
+            if (request == null || request.getUserName() == null || (created != null && created.toEpochMilli() > youngest)) {
+                continue;
+            }
+            longUrlsByUser.computeIfAbsent(request.getUserName(), u -> new HashMap<>())
+                    .put(row.getString("tiny"), String.valueOf(request.getLongUrl()));
+        }
+        mappingsScanned.increment(count);
+
+        Map<String, Map<String, String>> missing = new HashMap<>();
+        if (!longUrlsByUser.isEmpty()) {
+            Query query = new Query(Criteria.where("name").in(longUrlsByUser.keySet()));
+            query.fields().include("name");
+            longUrlsByUser.forEach((userName, longUrls) -> longUrls.keySet().forEach(tiny -> query.fields().include("shorts." + tiny + ".longUrl")));
+            Map<String, Document> users = new HashMap<>();
+            for (Document user : mongoTemplate.find(query, Document.class, USERS)) {
+                users.put(user.getString("name"), user);
+            }
+            longUrlsByUser.forEach((userName, longUrls) -> {
+                Document user = users.get(userName);
+                if (user == null) {
+                    // nothing to attach the links to, they are only counted
+                    add("missingUser", longUrls.size());
+                    missingUsers.increment(longUrls.size());
+                    return;
+                }
+                Document shorts = user.get("shorts", Document.class);
+                longUrls.forEach((tiny, longUrl) -> {
+                    if (shorts == null || !shorts.containsKey(tiny)) {
+                        missing.computeIfAbsent(userName, u -> new HashMap<>()).put(tiny, longUrl);
+                    }
+                });
+            });
+        }
+        long missingCount = missing.values().stream().mapToLong(Map::size).sum();
+        if (missingCount > 0) {
+            add("missingShort", missingCount);
+            missingShorts.increment(missingCount);
+            logger.info("Found {} links missing from their owners' shorts", missingCount);
+            if (repair) {
+                userStore.addShorts(missing);
+                repairedMissing.increment(missingCount);
+            }
+        }
+        add("mappingsScanned", count);
+
+        if (count < batchSize) {
+            mappingToken = Long.MIN_VALUE;
+            mappingCycles++;
+            lastMappingCycle = endCycle("mappingsScanned", "missingShort", "missingUser");
+        } else {
+            mappingToken = lastToken;
+        }
+        session.execute(updateCheckpoint.bind(mappingToken, JOB + ":mappings"));
+    }
+
+    // shorts -> mappings: every short is a mapping of that user
+    private void reconcileUsers() throws Exception {
+        Query query = new Query().with(Sort.by("_id")).limit(batchSize);
+        if (userId != null) {
+            query.addCriteria(Criteria.where("_id").gt(userId));
+        }
+        query.fields().include("name").include("shorts");
+        List<Document> users = mongoTemplate.find(query, Document.class, USERS);
+        usersScanned.increment(users.size());
+        add("usersScanned", users.size());
+
+        Map<String, List<String>> candidates = new HashMap<>();
+        for (Document user : users) {
+            Document shorts = user.get("shorts", Document.class);
+            if (user.getString("name") != null && shorts != null && !shorts.isEmpty()) {
+                candidates.put(user.getString("name"), new ArrayList<>(shorts.keySet()));
+            }
+        }
+        Map<String, List<String>> orphans = orphans(candidates, ConsistencyLevel.LOCAL_ONE);
+        if (!orphans.isEmpty()) {
+            // a short is added right after its mapping, make sure the mapping is not just on its way to this replica
+            orphans = orphans(orphans, ConsistencyLevel.LOCAL_QUORUM);
+        }
+        if (!orphans.isEmpty()) {
+            orphans = withoutLegacyMappings(orphans);
+        }
+        long orphanCount = orphans.values().stream().mapToLong(List::size).sum();
+        if (orphanCount > 0) {
+            add("orphanShort", orphanCount);
+            orphanShorts.increment(orphanCount);
+            logger.info("Found {} shorts without a mapping of their user", orphanCount);
+            if (repair) {
+                userStore.removeShorts(orphans);
+                repairedOrphans.increment(orphanCount);
+            }
+        }
+
+        if (users.size() < batchSize) {
+            userId = null;
+            userCycles++;
+            lastUserCycle = endCycle("usersScanned", "orphanShort", "legacyMapping");
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(JOB + ":users")), CHECKPOINTS);
+        } else {
+            userId = users.get(users.size() - 1).get("_id");
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(JOB + ":users")), new Update().set("position", userId), CHECKPOINTS);
+        }
+    }
+
+    private Map<String, List<String>> orphans(Map<String, List<String>> tiniesByUser, ConsistencyLevel consistency) throws Exception {
+        Map<String, CompletableFuture<AsyncResultSet>> reads = new LinkedHashMap<>();
+        tiniesByUser.forEach((userName, tinies) -> tinies.forEach(tiny -> reads.put(userName + "/" + tiny,
+                session.executeAsync(selectMapping.bind(tiny).setConsistencyLevel(consistency)).toCompletableFuture())));
+        CompletableFuture.allOf(reads.values().toArray(new CompletableFuture[0])).get();
+
+        Map<String, List<String>> res = new HashMap<>();
+        tiniesByUser.forEach((userName, tinies) -> tinies.forEach(tiny -> {
+            Row row = reads.get(userName + "/" + tiny).join().one();
+            NewTinyRequest request = row == null ? null : decode(row.getString("payload"));
+            if (row == null || (request != null && !userName.equals(request.getUserName()))) {
+                res.computeIfAbsent(userName, u -> new ArrayList<>()).add(tiny);
+            }
+        }));
+        return res;
+    }
+
+    // drops the shorts whose mapping only exists in the mapping cache; throws, and so repairs nothing, if it does not answer
+    private Map<String, List<String>> withoutLegacyMappings(Map<String, List<String>> tiniesByUser) {
+        List<String> keys = new ArrayList<>();
+        tiniesByUser.values().forEach(keys::addAll);
+        List<Object> payloads = mappingCache.multiGet(keys);
+        Map<String, List<String>> res = new HashMap<>();
+        int i = 0;
+        long legacy = 0;
+        for (Map.Entry<String, List<String>> entry : tiniesByUser.entrySet()) {
+            for (String tiny : entry.getValue()) {
+                Object payload = payloads.get(i++);
+                NewTinyRequest request = payload == null || tombstones.contains(tiny) ? null : decode(payload.toString());
+                if (request != null && entry.getKey().equals(request.getUserName())) {
+                    legacy++;
+                } else {
+                    res.computeIfAbsent(entry.getKey(), u -> new ArrayList<>()).add(tiny);
+                }
+            }
+        }
+        if (legacy > 0) {
+            add("legacyMapping", legacy);
+            logger.info("Kept {} shorts whose mappings are only in the mapping cache, run the mapping backfill", legacy);
+        }
+        return res;
+    }
+
+    private NewTinyRequest decode(String payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return mapper.readValue(payload, NewTinyRequest.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void add(String key, long count) {
+        currentCycle.merge(key, count, Long::sum);
+    }
+
+    private Map<String, Long> endCycle(String... keys) {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (String key : keys) {
+            Long value = currentCycle.remove(key);
+            res.put(key, value == null ? 0 : value);
+        }
+        logger.info("Reconciliation cycle finished: {}", res);
+        return res;
+    }
+}
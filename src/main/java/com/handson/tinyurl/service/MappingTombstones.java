@@ -0,0 +1,117 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codes of deleted mappings. Node-local copies of a mapping (the {@link HotMappingCache}
+ * and its snapshot, a cache fill racing the delete, a node that missed the
+ * invalidation) are checked against this set, so a deleted link is not served
+ * again. Codes are never handed out again once deleted.
+ *
+ * Tombstones are kept in Cassandra's mapping_tombstones, partitioned by the hour
+ * of the delete: every node loads the whole table on startup and re-reads the
+ * hours since its last successful refresh every mapping.tombstones.refresh-ms.
+ * Without Cassandra (inmemory profile) the set is only kept in memory.
+ */
+@Component
+public class MappingTombstones {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappingTombstones.class);
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    // absent in the inmemory profile
+    @Autowired(required = false)
+    private CqlSession session;
+
+    private PreparedStatement insert;
+    private PreparedStatement selectHour;
+    // hour up to which refreshes have read every partition
+    private volatile long refreshedHour;
+
+    private final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void load() {
+        if (session == null) {
+            return;
+        }
+        session.execute("CREATE TABLE IF NOT EXISTS mapping_tombstones (hour bigint, tiny text, PRIMARY KEY ((hour), tiny))");
+        insert = session.prepare("INSERT INTO mapping_tombstones (hour, tiny) VALUES (?, ?)");
+        selectHour = session.prepare("SELECT tiny FROM mapping_tombstones WHERE hour = ?");
+        refreshedHour = System.currentTimeMillis() / HOUR;
+        long start = System.nanoTime();
+        for (Row row : session.execute("SELECT tiny FROM mapping_tombstones")) {
+            tombstones.add(row.getString("tiny"));
+        }
+        logger.info("Loaded {} mapping tombstones in {} ms", tombstones.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public boolean contains(String tiny) {
+        return tombstones.contains(tiny);
+    }
+
+    /**
+     * Records the codes durably before they are deleted anywhere, so no copy can
+     * outlive the delete.
+     */
+    public void add(Collection<String> tinies) {
+        if (session != null && !tinies.isEmpty()) {
+            long hour = System.currentTimeMillis() / HOUR;
+            List<CompletableFuture<AsyncResultSet>> writes = new ArrayList<>(tinies.size());
+            for (String tiny : tinies) {
+                writes.add(session.executeAsync(insert.bind(hour, tiny)).toCompletableFuture());
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        }
+        tombstones.addAll(tinies);
+    }
+
+    /**
+     * Records codes another node has already made durable.
+     */
+    public void addLocal(Collection<String> tinies) {
+        tombstones.addAll(tinies);
+    }
+
+    public int size() {
+        return tombstones.size();
+    }
+
+    // picks up deletes whose invalidation this node missed
+    @Scheduled(fixedDelayString = "${mapping.tombstones.refresh-ms:60000}")
+    public void refresh() {
+        if (session == null) {
+            return;
+        }
+        long hour = System.currentTimeMillis() / HOUR;
+        try {
+            // the previous hour again, for deletes written around the turn of the hour
+            for (long h = refreshedHour - 1; h <= hour; h++) {
+                for (Row row : session.execute(selectHour.bind(h))) {
+                    tombstones.add(row.getString("tiny"));
+                }
+            }
+            refreshedHour = hour;
+        } catch (Exception e) {
+            logger.warn("Failed to refresh mapping tombstones, error: {}", e.getMessage());
+        }
+    }
+}
@@ -1,23 +1,48 @@
 package com.handson.tinyurl.service;
 
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Lazy
 @Component
-public class Redis {
+public class Redis implements KeyValueStore {
 
     @Autowired
     private RedisTemplate redisTemplate;
 
+    @Autowired
+    private RedisShardRouter shardRouter;
+
     public void setRedisTemplate(RedisTemplate redisTemplate) {
         this.redisTemplate = redisTemplate;
     }
@@ -56,6 +81,10 @@ public class Redis {
      */
     public boolean hasKey(String key){
         try {
+            if(shardRouter.isEnabled()){
+                RedisTemplate previous = shardRouter.previousOwner(key);
+                return shardRouter.owner(key).hasKey(key) || (previous != null && previous.hasKey(key));
+            }
             return redisTemplate.hasKey(key);
         } catch (Exception e) {
             e.printStackTrace();
@@ -68,7 +97,18 @@ public class Redis {
      * @param key 可以传一个值 或多个
      */
     @SuppressWarnings("unchecked")
+    @Override
     public void del(String ... key){
+        if(key!=null&&key.length>0&&shardRouter.isEnabled()){
+            for(String k : key){
+                shardRouter.owner(k).delete(k);
+                RedisTemplate previous = shardRouter.previousOwner(k);
+                if(previous!=null){
+                    previous.delete(k);
+                }
+            }
+            return;
+        }
         if(key!=null&&key.length>0){
             if(key.length==1){
                 redisTemplate.delete(key[0]);
@@ -78,14 +118,181 @@ public class Redis {
         }
     }
 
+    /**
+     * Iterate over all keys with SCAN, on every node in sharded or cluster mode
+     * @param count SCAN COUNT hint, also the size of the batches handed to the consumer
+     * @param batchConsumer receives the keys batch by batch
+     */
+    public void scan(int count, Consumer<List<String>> batchConsumer){
+        ScanOptions options = ScanOptions.scanOptions().count(count).build();
+        if(shardRouter.isEnabled()){
+            Set<RedisTemplate> nodes = new LinkedHashSet<>(shardRouter.nodes());
+            nodes.addAll(shardRouter.previousNodes());
+            for(RedisTemplate node : nodes){
+                try (RedisConnection connection = node.getConnectionFactory().getConnection()) {
+                    drain(connection.scan(options), node.getKeySerializer(), count, batchConsumer);
+                }
+            }
+            return;
+        }
+        RedisConnectionFactory factory = redisTemplate.getConnectionFactory();
+        if(isCluster(redisTemplate)){
+            try (RedisClusterConnection connection = factory.getClusterConnection()) {
+                for(RedisClusterNode node : connection.clusterGetNodes()){
+                    if(node.isMaster()){
+                        drain(connection.scan(node, options), redisTemplate.getKeySerializer(), count, batchConsumer);
+                    }
+                }
+            }
+            return;
+        }
+        try (RedisConnection connection = factory.getConnection()) {
+            drain(connection.scan(options), redisTemplate.getKeySerializer(), count, batchConsumer);
+        }
+    }
+
+    /**
+     * The nodes a full keyspace pass has to SCAN (shard nodes current and previous,
+     * cluster masters, or the single server). Each one has its own cursor, so they
+     * can be scanned in parallel and a pass can be resumed from a saved cursor.
+     */
+    public List<ScanNode> scanNodes(){
+        List<ScanNode> res = new ArrayList<>();
+        if(shardRouter.isEnabled()){
+            Set<RedisTemplate> nodes = new LinkedHashSet<>(shardRouter.nodes());
+            nodes.addAll(shardRouter.previousNodes());
+            for(RedisTemplate node : nodes){
+                res.add(new ScanNode(nameOf(node), node, null));
+            }
+            return res;
+        }
+        if(isCluster(redisTemplate)){
+            try (RedisClusterConnection connection = redisTemplate.getConnectionFactory().getClusterConnection()) {
+                for(RedisClusterNode node : connection.clusterGetNodes()){
+                    if(node.isMaster()){
+                        res.add(new ScanNode(node.getId(), redisTemplate, node.getId()));
+                    }
+                }
+            }
+            return res;
+        }
+        res.add(new ScanNode(nameOf(redisTemplate), redisTemplate, null));
+        return res;
+    }
+
+    private static String nameOf(RedisTemplate template){
+        RedisConnectionFactory factory = template.getConnectionFactory();
+        if(factory instanceof LettuceConnectionFactory){
+            return ((LettuceConnectionFactory) factory).getHostName() + ":" + ((LettuceConnectionFactory) factory).getPort();
+        }
+        return String.valueOf(factory);
+    }
+
+    private static boolean isCluster(RedisTemplate template){
+        RedisConnectionFactory factory = template.getConnectionFactory();
+        return factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware();
+    }
+
+    private void drain(Cursor<byte[]> cursor, RedisSerializer keySerializer, int count, Consumer<List<String>> batchConsumer){
+        try (Cursor<byte[]> c = cursor) {
+            List<String> batch = new ArrayList<>(count);
+            while(c.hasNext()){
+                Object key;
+                try {
+                    key = keySerializer.deserialize(c.next());
+                } catch (Exception e) {
+                    // written by another client with a different serializer
+                    continue;
+                }
+                if(key instanceof String){
+                    batch.add((String) key);
+                }
+                if(batch.size()>=count){
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(count);
+                }
+            }
+            if(!batch.isEmpty()){
+                batchConsumer.accept(batch);
+            }
+        }
+    }
+
     //============================String=============================
     /**
      * 普通缓存获取
      * @param key 键
      * @return 值
      */
+    @Override
     public Object get(String key){
-        return key==null?null:redisTemplate.opsForValue().get(key);
+        if(key==null){
+            return null;
+        }
+        if(shardRouter.isEnabled()){
+            Object value = shardRouter.owner(key).opsForValue().get(key);
+            if(value==null){
+                // key may not have been moved yet by the resharder
+                RedisTemplate previous = shardRouter.previousOwner(key);
+                if(previous!=null){
+                    value = previous.opsForValue().get(key);
+                }
+            }
+            return value;
+        }
+        return redisTemplate.opsForValue().get(key);
+    }
+
+    /**
+     * MGET of a batch of keys: one command, split per slot by the cluster connection,
+     * and in sharded mode one MGET per node
+     * @param keys 键
+     * @return values in the order of the keys, null for missing keys
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Object> multiGet(List<String> keys){
+        if(keys.isEmpty()){
+            return new ArrayList<>();
+        }
+        if(!shardRouter.isEnabled()){
+            List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+            return values != null ? values : new ArrayList<>(Collections.nCopies(keys.size(), null));
+        }
+        Map<RedisTemplate, List<Integer>> byNode = new HashMap<>();
+        for(int i=0;i<keys.size();i++){
+            byNode.computeIfAbsent(shardRouter.owner(keys.get(i)), n -> new ArrayList<>()).add(i);
+        }
+        List<Object> values = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        multiGet(byNode, keys, values);
+        if(shardRouter.isResharding()){
+            // keys the resharder has not moved yet are still on their previous owner
+            Map<RedisTemplate, List<Integer>> missing = new HashMap<>();
+            for(int i=0;i<keys.size();i++){
+                RedisTemplate previous = values.get(i) == null ? shardRouter.previousOwner(keys.get(i)) : null;
+                if(previous!=null){
+                    missing.computeIfAbsent(previous, n -> new ArrayList<>()).add(i);
+                }
+            }
+            multiGet(missing, keys, values);
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void multiGet(Map<RedisTemplate, List<Integer>> byNode, List<String> keys, List<Object> values){
+        byNode.forEach((node, indexes) -> {
+            List<String> nodeKeys = new ArrayList<>(indexes.size());
+            for(int i : indexes){
+                nodeKeys.add(keys.get(i));
+            }
+            List<Object> nodeValues = node.opsForValue().multiGet(nodeKeys);
+            if(nodeValues!=null){
+                for(int j=0;j<indexes.size();j++){
+                    values.set(indexes.get(j), nodeValues.get(j));
+                }
+            }
+        });
     }
 
     /**
@@ -94,8 +301,16 @@ public class Redis {
      * @param value 值
      * @return true成功 false失败
      */
+    @Override
     public boolean set(String key,Object value) {
         try {
+            if(shardRouter.isEnabled()){
+                RedisTemplate previous = shardRouter.previousOwner(key);
+                if(previous!=null&&previous.hasKey(key)){
+                    return false;
+                }
+                return shardRouter.owner(key).opsForValue().setIfAbsent(key, value);
+            }
             return redisTemplate.opsForValue().setIfAbsent(key, value);
         } catch (Exception e) {
             e.printStackTrace();
@@ -111,12 +326,14 @@ public class Redis {
      * @param time 时间(秒) time要大于0 如果time小于等于0 将设置无限期
      * @return true成功 false 失败
      */
+    @Override
     public boolean set(String key,Object value,long time){
         try {
+            RedisTemplate template = shardRouter.isEnabled() ? shardRouter.owner(key) : redisTemplate;
             if(time>0){
-                redisTemplate.opsForValue().set(key, value, time, TimeUnit.SECONDS);
+                template.opsForValue().set(key, value, time, TimeUnit.SECONDS);
             }else{
-                redisTemplate.opsForValue().set(key, value);
+                template.opsForValue().set(key, value);
             }
             return true;
         } catch (Exception e) {
@@ -529,6 +746,64 @@ public class Redis {
         }
     }
 
+    //============================HyperLogLog=============================
+    // keys and elements are written as plain UTF-8 rather than through the template
+    // serializers, so {hash tags} work for cluster slots and for sharded routing
+
+    /**
+     * PFADD a batch of keys, pipelined per node
+     * @param values key -> elements to add
+     * @param time expire time (seconds) set on every key, 0 to keep forever
+     */
+    public void pfAdd(Map<String, ? extends Collection<String>> values, long time){
+        if(shardRouter.isEnabled()){
+            Map<RedisTemplate, Map<String, Collection<String>>> byNode = new HashMap<>();
+            values.forEach((key, elements) -> byNode.computeIfAbsent(shardRouter.owner(key), n -> new HashMap<>()).put(key, elements));
+            byNode.forEach((node, nodeValues) -> pfAdd(node, nodeValues, time));
+            return;
+        }
+        pfAdd(redisTemplate, values, time);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pfAdd(RedisTemplate template, Map<String, ? extends Collection<String>> values, long time){
+        RedisCallback<Object> callback = connection -> {
+            values.forEach((key, elements) -> {
+                byte[] rawKey = raw(key);
+                connection.pfAdd(rawKey, elements.stream().map(Redis::raw).toArray(byte[][]::new));
+                if(time>0){
+                    connection.expire(rawKey, time);
+                }
+            });
+            return null;
+        };
+        if(isCluster(template)){
+            // cluster connections do not support pipelining
+            template.execute(callback);
+        }else{
+            template.executePipelined(callback);
+        }
+    }
+
+    /**
+     * PFCOUNT of the union of the keys, which must share a {hash tag}
+     * @return approximate number of distinct elements
+     */
+    @SuppressWarnings("unchecked")
+    public long pfCount(String... keys){
+        RedisTemplate template = shardRouter.isEnabled() ? shardRouter.owner(keys[0]) : redisTemplate;
+        byte[][] rawKeys = new byte[keys.length][];
+        for(int i=0;i<keys.length;i++){
+            rawKeys[i] = raw(keys[i]);
+        }
+        Long count = (Long) template.execute((RedisCallback<Long>) connection -> connection.pfCount(rawKeys));
+        return count == null ? 0 : count;
+    }
+
+    private static byte[] raw(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
     public static void main(String[] args) {
 		/*JedisPool jedisPool = new JedisPool(null,"localhost",6379,100,"123456");
 		Jedis jedis = jedisPool.getResource();
@@ -539,4 +814,69 @@ public class Redis {
 			System.out.println(string);
 		}*/
     }
+
+    /**
+     * One node of {@link #scanNodes()}; template reads and deletes the keys found on it.
+     */
+    public static final class ScanNode {
+        private final String name;
+        private final RedisTemplate template;
+        // set in cluster mode, the master to scan
+        private final String clusterNodeId;
+
+        private ScanNode(String name, RedisTemplate template, String clusterNodeId) {
+            this.name = name;
+            this.template = template;
+            this.clusterNodeId = clusterNodeId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public RedisTemplate getTemplate() {
+            return template;
+        }
+
+        /**
+         * One SCAN step from cursor (0 to start).
+         * @param keys receives the keys of this step that deserialize to strings
+         * @return the cursor to continue from, 0 when the pass is complete
+         */
+        @SuppressWarnings("unchecked")
+        public long scan(long cursor, int count, List<String> keys) {
+            ScanCursor from = ScanCursor.of(Long.toUnsignedString(cursor));
+            ScanArgs args = ScanArgs.Builder.limit(count);
+            KeyScanCursor<byte[]> res;
+            try {
+                if (clusterNodeId != null) {
+                    try (RedisClusterConnection connection = template.getConnectionFactory().getClusterConnection()) {
+                        RedisAdvancedClusterAsyncCommands<byte[], byte[]> commands = (RedisAdvancedClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+                        res = commands.getConnection(clusterNodeId).scan(from, args).get();
+                    }
+                } else {
+                    try (RedisConnection connection = template.getConnectionFactory().getConnection()) {
+                        res = ((RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection()).scan(from, args).get();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted scanning " + name, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed scanning " + name + ": " + e.getCause().getMessage(), e.getCause());
+            }
+            RedisSerializer keySerializer = template.getKeySerializer();
+            for (byte[] raw : res.getKeys()) {
+                try {
+                    Object key = keySerializer.deserialize(raw);
+                    if (key instanceof String) {
+                        keys.add((String) key);
+                    }
+                } catch (Exception e) {
+                    // written by another client with a different serializer
+                }
+            }
+            return res.isFinished() ? 0 : Long.parseUnsignedLong(res.getCursor());
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package com.handson.tinyurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves keys from the previous shard topology to the current one in small SCAN
+ * batches. Reads keep working during the move because {@link Redis} falls back
+ * to the previous owner of a key until it has been moved.
+ * A key deleted while it is being moved must not come back on its new owner:
+ * codes in {@link MappingTombstones} are not restored, and a restored key is
+ * deleted again when it no longer exists on the old node afterwards (a delete
+ * that reaches the old node later also reaches the new one, see {@link Redis#del}).
+ * Once finished, redis.shards.previous can be removed from the configuration.
+ */
+@Lazy
+@Component
+public class RedisResharder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisResharder.class);
+
+    @Autowired
+    private RedisShardRouter shardRouter;
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Value("${redis.reshard.batch-size:500}")
+    private int batchSize;
+
+    @Value("${redis.reshard.pause-ms:10}")
+    private long pauseMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public boolean start() {
+        if (!shardRouter.isResharding()) {
+            throw new IllegalStateException("redis.shards.previous is not configured");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scanned.set(0);
+        moved.set(0);
+        failed.set(0);
+        dropped.set(0);
+        Thread worker = new Thread(this::run, "redis-resharder");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("running", running.get());
+        res.put("scanned", scanned.get());
+        res.put("moved", moved.get());
+        res.put("failed", failed.get());
+        res.put("dropped", dropped.get());
+        return res;
+    }
+
+    private void run() {
+        logger.info("Resharding started");
+        try {
+            for (RedisTemplate node : shardRouter.previousNodes()) {
+                if (!running.get()) {
+                    break;
+                }
+                moveFrom(node);
+            }
+            logger.info("Resharding finished: scanned={}, moved={}, failed={}", scanned.get(), moved.get(), failed.get());
+        } catch (Exception e) {
+            logger.error("Resharding aborted: {}", e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void moveFrom(RedisTemplate node) throws InterruptedException {
+        try (RedisConnection connection = node.getConnectionFactory().getConnection();
+             Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().count(batchSize).build())) {
+            List<byte[]> batch = new ArrayList<>(batchSize);
+            while (running.get() && cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= batchSize) {
+                    moveBatch(node, batch);
+                    batch.clear();
+                    Thread.sleep(pauseMs);
+                }
+            }
+            moveBatch(node, batch);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void moveBatch(RedisTemplate node, List<byte[]> rawKeys) {
+        scanned.addAndGet(rawKeys.size());
+        List<byte[]> toMove = new ArrayList<>();
+        List<RedisTemplate> owners = new ArrayList<>();
+        for (byte[] rawKey : rawKeys) {
+            Object key = node.getKeySerializer().deserialize(rawKey);
+            if (!(key instanceof String)) {
+                continue;
+            }
+            RedisTemplate owner = shardRouter.owner((String) key);
+            if (owner != node) {
+                toMove.add(rawKey);
+                owners.add(owner);
+            }
+        }
+        if (toMove.isEmpty()) {
+            return;
+        }
+        // DUMP/RESTORE keeps the type and TTL of the key, so this works for any value
+        List<Object> dumps = node.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[] rawKey : toMove) {
+                connection.dump(rawKey);
+                connection.pTtl(rawKey);
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        List<byte[]> done = new ArrayList<>();
+        List<Integer> restored = new ArrayList<>();
+        for (int i = 0; i < toMove.size(); i++) {
+            byte[] rawKey = toMove.get(i);
+            byte[] dump = (byte[]) dumps.get(2 * i);
+            Long ttl = (Long) dumps.get(2 * i + 1);
+            if (dump == null) {
+                continue;
+            }
+            if (tombstones.contains((String) node.getKeySerializer().deserialize(rawKey))) {
+                // deleted, the old copy goes away with the moved ones
+                done.add(rawKey);
+                dropped.incrementAndGet();
+                continue;
+            }
+            try {
+                boolean restore = (Boolean) owners.get(i).execute((RedisCallback<Object>) connection -> {
+                    if (connection.exists(rawKey)) {
+                        return false;
+                    }
+                    connection.restore(rawKey, ttl != null && ttl > 0 ? ttl : 0, dump);
+                    return true;
+                });
+                if (restore) {
+                    restored.add(i);
+                }
+                done.add(rawKey);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                logger.warn("Failed to move key: {}", e.getMessage());
+            }
+        }
+        dropDeletedWhileMoving(node, toMove, owners, restored);
+        if (!done.isEmpty()) {
+            node.execute((RedisCallback<Object>) connection -> connection.del(done.toArray(new byte[0][])));
+            moved.addAndGet(done.size());
+        }
+    }
+
+    // keys restored from a DUMP taken before a delete that has since removed them from the old node
+    @SuppressWarnings("unchecked")
+    private void dropDeletedWhileMoving(RedisTemplate node, List<byte[]> toMove, List<RedisTemplate> owners, List<Integer> restored) {
+        if (restored.isEmpty()) {
+            return;
+        }
+        List<Object> exists = node.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i : restored) {
+                connection.exists(toMove.get(i));
+            }
+            return null;
+        });
+        for (int j = 0; j < restored.size(); j++) {
+            byte[] rawKey = toMove.get(restored.get(j));
+            if (Boolean.TRUE.equals(exists.get(j)) && !tombstones.contains((String) node.getKeySerializer().deserialize(rawKey))) {
+                continue;
+            }
+            try {
+                owners.get(restored.get(j)).execute((RedisCallback<Object>) connection -> connection.del(rawKey));
+                dropped.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                logger.warn("Failed to drop key deleted while it was moved: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.util.ConsistentHash;
+import io.lettuce.core.RedisURI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client-side sharding of the mapping keyspace across standalone Redis nodes.
+ * Enabled by setting redis.shards to a comma separated list of redis:// URIs.
+ * While redis.shards.previous holds the old node list, reads fall back to the
+ * node that owned the key before the topology change (see {@link RedisResharder}).
+ */
+@Lazy
+@Component
+public class RedisShardRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisShardRouter.class);
+
+    @Value("${redis.shards:}")
+    private String shards;
+
+    @Value("${redis.shards.previous:}")
+    private String previousShards;
+
+    @Value("${redis.shards.virtual-nodes:160}")
+    private int virtualNodes;
+
+    private final Map<String, LettuceConnectionFactory> factories = new LinkedHashMap<>();
+    private final Map<String, RedisTemplate> templates = new LinkedHashMap<>();
+
+    private ConsistentHash<RedisTemplate> ring;
+    private ConsistentHash<RedisTemplate> previousRing;
+
+    @PostConstruct
+    public void init() {
+        ring = buildRing(shards);
+        previousRing = buildRing(previousShards);
+        if (isEnabled()) {
+            logger.info("Redis sharding enabled: nodes={}, previousNodes={}", ring.getNodes().size(), previousRing.getNodes().size());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        factories.values().forEach(LettuceConnectionFactory::destroy);
+    }
+
+    public boolean isEnabled() {
+        return !ring.isEmpty();
+    }
+
+    public boolean isResharding() {
+        return !previousRing.isEmpty();
+    }
+
+    /**
+     * The node that owns the key in the current topology.
+     */
+    public RedisTemplate owner(String key) {
+        return ring.get(routingKey(key));
+    }
+
+    /**
+     * The node that owned the key before the topology change, or null when no
+     * resharding is in progress or the key did not move.
+     */
+    public RedisTemplate previousOwner(String key) {
+        if (previousRing.isEmpty()) {
+            return null;
+        }
+        String routingKey = routingKey(key);
+        RedisTemplate previous = previousRing.get(routingKey);
+        return previous == ring.get(routingKey) ? null : previous;
+    }
+
+    public Collection<RedisTemplate> nodes() {
+        return ring.getNodes();
+    }
+
+    public Collection<RedisTemplate> previousNodes() {
+        return previousRing.getNodes();
+    }
+
+    /**
+     * Like Redis Cluster, only the part between the first { and the next } is hashed
+     * when present, so related keys (e.g. hll:{tiny}:day) land on the same node.
+     */
+    static String routingKey(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+
+    private ConsistentHash<RedisTemplate> buildRing(String uris) {
+        Map<String, RedisTemplate> nodes = new LinkedHashMap<>();
+        for (String uri : split(uris)) {
+            nodes.put(uri, templates.computeIfAbsent(uri, this::createTemplate));
+        }
+        return new ConsistentHash<>(nodes, virtualNodes);
+    }
+
+    private RedisTemplate createTemplate(String uri) {
+        RedisURI redisUri = RedisURI.create(uri);
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(redisUri.getHost(), redisUri.getPort());
+        config.setDatabase(redisUri.getDatabase());
+        if (redisUri.getUsername() != null) {
+            config.setUsername(redisUri.getUsername());
+        }
+        if (redisUri.getPassword() != null) {
+            config.setPassword(redisUri.getPassword());
+        }
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder clientConfig = LettuceClientConfiguration.builder();
+        if (redisUri.isSsl()) {
+            clientConfig.useSsl();
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config, clientConfig.build());
+        factory.afterPropertiesSet();
+        factories.put(uri, factory);
+
+        RedisTemplate<Object, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    private static List<String> split(String uris) {
+        List<String> res = new ArrayList<>();
+        if (uris == null) {
+            return res;
+        }
+        for (String uri : uris.split(",")) {
+            if (!uri.trim().isEmpty()) {
+                res.add(uri.trim());
+            }
+        }
+        return res;
+    }
+}
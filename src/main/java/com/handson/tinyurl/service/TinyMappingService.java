@@ -0,0 +1,354 @@
+package com.handson.tinyurl.service;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.handson.tinyurl.model.TinyMapping;
+import com.handson.tinyurl.repository.TinyMappingRepository;
+import com.handson.tinyurl.storage.MappingStore;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import com.handson.tinyurl.util.RequestEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.handson.tinyurl.model.TinyMapping.TinyMappingBuilder.aTinyMapping;
+
+/**
+ * tiny -> NewTinyRequest mappings. Cassandra's tiny_mapping table is the durable
+ * copy, Redis is a read-through cache in front of it, so Redis can run with an
+ * eviction policy (allkeys-lfu) and only hold the working set. The hottest
+ * mappings are also kept on the node itself in {@link HotMappingCache}.
+ */
+@Component
+@Profile("!inmemory")
+public class TinyMappingService implements MappingStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TinyMappingService.class);
+
+    private static final InsertOptions IF_NOT_EXISTS = InsertOptions.builder().withIfNotExists().build();
+
+    @Autowired
+    private Redis redis;
+
+    // Redis, unless mapping.backend=embedded
+    @Autowired
+    private KeyValueStore mappingCache;
+
+    @Autowired
+    private HotMappingCache hotMappingCache;
+
+    @Autowired
+    private CassandraOperations cassandraOperations;
+
+    @Autowired
+    private CqlSession session;
+
+    @Autowired
+    private TinyMappingRepository tinyMappingRepository;
+
+    @Autowired
+    private BackendGuards guards;
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    @Autowired
+    private MappingInvalidations invalidations;
+
+    // 0 keeps cached mappings until Redis evicts them
+    @Value("${mapping.cache.ttl-seconds:0}")
+    private long cacheTtlSeconds;
+
+    @Value("${mapping.get-all.cassandra-batch-size:100}")
+    private int cassandraBatchSize;
+
+    // keys per MGET, so one lookup does not hold a Redis node for long
+    @Value("${mapping.get-all.redis-batch-size:500}")
+    private int redisBatchSize;
+
+    @Value("${mapping.delete.reinvalidate-delay-ms:5000}")
+    private long reinvalidateDelayMs;
+
+    private PreparedStatement deleteMapping;
+    private PreparedStatement backfillOverClaim;
+
+    // deletes whose cache delete and invalidation are repeated, in the order they are due
+    private final Queue<PendingInvalidation> pendingInvalidations = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void init() {
+        deleteMapping = session.prepare("DELETE FROM tiny_mapping WHERE tiny = ?");
+        backfillOverClaim = session.prepare("UPDATE tiny_mapping SET payload = ? WHERE tiny = ? IF payload = ?");
+    }
+
+    /**
+     * Uniqueness is decided by a Cassandra lightweight transaction, since an
+     * evicted code is no longer in Redis. The code is then claimed in the cache
+     * with SET NX as well: until backfillFromRedis has run, a code can exist only
+     * in Redis, and such a legacy mapping must not be overwritten.
+     */
+    @Override
+    public boolean create(String tiny, String payload) {
+        if (tombstones.contains(tiny)) {
+            // deleted codes are not handed out again
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean applied = cassandraOperations.insert(aTinyMapping().withTiny(tiny).withPayload(payload).build(), IF_NOT_EXISTS)
+                .wasApplied();
+        RequestEvent.addCassandra(System.nanoTime() - start);
+        if (applied) {
+            start = System.nanoTime();
+            try {
+                applied = claim(tiny, payload);
+            } finally {
+                RequestEvent.addRedis(System.nanoTime() - start);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * @throws BackendUnavailableException when neither Redis nor Cassandra answered in time
+     */
+    @Override
+    public Object get(String tiny) {
+        if (tombstones.contains(tiny)) {
+            return null;
+        }
+        String local = hotMappingCache.get(tiny);
+        if (local != null) {
+            return local;
+        }
+        long start = System.nanoTime();
+        try {
+            Object payload = guards.redis().call(() -> mappingCache.get(tiny));
+            RequestEvent.addRedis(System.nanoTime() - start);
+            if (payload != null) {
+                hotMappingCache.put(tiny, payload.toString());
+                return payload;
+            }
+            logger.debug("Mapping cache miss: {}", tiny);
+        } catch (BackendUnavailableException e) {
+            // breaker state is visible in /actuator/breakers, no need to log every request
+            logger.debug("Mapping cache unavailable, reading from Cassandra: {}, error: {}", tiny, e.getMessage());
+            RequestEvent.addRedis(System.nanoTime() - start);
+        }
+        start = System.nanoTime();
+        TinyMapping mapping;
+        try {
+            mapping = guards.cassandra().call(() -> tinyMappingRepository.findById(tiny).orElse(null));
+        } finally {
+            RequestEvent.addCassandra(System.nanoTime() - start);
+        }
+        if (mapping == null) {
+            return null;
+        }
+        hotMappingCache.put(tiny, mapping.getPayload());
+        // filling the cache is not worth waiting for
+        guards.redis().submit(() -> cache(tiny, mapping.getPayload()));
+        return mapping.getPayload();
+    }
+
+    /**
+     * Local hits first, then one MGET for the rest, and Cassandra only for the
+     * codes Redis has evicted.
+     * @throws BackendUnavailableException when Cassandra had to be asked and did not answer in time
+     */
+    @Override
+    public Map<String, Object> getAll(Collection<String> tinies) {
+        Map<String, Object> found = new HashMap<>();
+        List<String> remote = new ArrayList<>();
+        for (String tiny : tinies) {
+            if (tombstones.contains(tiny)) {
+                continue;
+            }
+            String local = hotMappingCache.get(tiny);
+            if (local != null) {
+                found.put(tiny, local);
+            } else {
+                remote.add(tiny);
+            }
+        }
+        if (remote.isEmpty()) {
+            return found;
+        }
+        long start = System.nanoTime();
+        List<String> misses = new ArrayList<>();
+        try {
+            // bulk lookups are not clicks, they do not count towards the hot set
+            for (int from = 0; from < remote.size(); from += redisBatchSize) {
+                List<String> batch = remote.subList(from, Math.min(remote.size(), from + redisBatchSize));
+                try {
+                    List<Object> payloads = guards.redisBulk().call(() -> mappingCache.multiGet(batch));
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (payloads.get(i) != null) {
+                            found.put(batch.get(i), payloads.get(i));
+                        } else {
+                            misses.add(batch.get(i));
+                        }
+                    }
+                } catch (BackendUnavailableException e) {
+                    logger.debug("Mapping cache unavailable, reading {} mappings from Cassandra, error: {}", batch.size(), e.getMessage());
+                    misses.addAll(batch);
+                }
+            }
+        } finally {
+            RequestEvent.addRedis(System.nanoTime() - start);
+        }
+        start = System.nanoTime();
+        try {
+            // a multi-partition IN is coordinated by one node, keep each one small
+            for (int from = 0; from < misses.size(); from += cassandraBatchSize) {
+                List<String> batch = misses.subList(from, Math.min(misses.size(), from + cassandraBatchSize));
+                List<TinyMapping> mappings = guards.cassandraBulk().call(() -> tinyMappingRepository.findAllById(batch));
+                for (TinyMapping mapping : mappings) {
+                    found.put(mapping.getTiny(), mapping.getPayload());
+                }
+                if (!mappings.isEmpty()) {
+                    guards.redisBulk().submit(() -> mappings.forEach(mapping -> cache(mapping.getTiny(), mapping.getPayload())));
+                }
+            }
+        } finally {
+            RequestEvent.addCassandra(System.nanoTime() - start);
+        }
+        return found;
+    }
+
+    @Override
+    public void delete(String tiny) {
+        deleteAll(List.of(tiny));
+    }
+
+    /**
+     * Tombstones the codes first, so nothing serves or re-caches them from here on,
+     * then deletes them from Cassandra before the cache: a read between the two
+     * misses the cache and finds nothing in Cassandra to fill it with. A read that
+     * was already past its tombstone check can still fill the cache, so the cache
+     * delete and the invalidation are repeated after mapping.delete.reinvalidate-delay-ms.
+     */
+    @Override
+    public void deleteAll(Collection<String> tinies) {
+        if (tinies.isEmpty()) {
+            return;
+        }
+        List<String> codes = new ArrayList<>(tinies);
+        tombstones.add(codes);
+        List<CompletableFuture<AsyncResultSet>> deletes = new ArrayList<>(codes.size());
+        for (String tiny : codes) {
+            deletes.add(session.executeAsync(deleteMapping.bind(tiny)).toCompletableFuture());
+        }
+        CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).join();
+        invalidate(codes);
+        pendingInvalidations.add(new PendingInvalidation(codes, System.currentTimeMillis() + reinvalidateDelayMs));
+    }
+
+    @Scheduled(fixedDelayString = "${mapping.delete.reinvalidate-check-ms:1000}")
+    public void reinvalidate() {
+        long now = System.currentTimeMillis();
+        PendingInvalidation pending;
+        while ((pending = pendingInvalidations.peek()) != null && pending.dueAt <= now) {
+            pendingInvalidations.poll();
+            try {
+                invalidate(pending.tinies);
+            } catch (Exception e) {
+                logger.warn("Failed to invalidate {} deleted mappings again, error: {}", pending.tinies.size(), e.getMessage());
+            }
+        }
+    }
+
+    // the mapping cache (Redis or the embedded store) and every node's hot cache
+    private void invalidate(List<String> tinies) {
+        mappingCache.del(tinies.toArray(new String[0]));
+        invalidations.publish(tinies);
+    }
+
+    /**
+     * Copies mappings that only exist in Redis (created before Cassandra became the
+     * durable store) into tiny_mapping. Must complete before Redis eviction is enabled.
+     * @return number of mappings written
+     */
+    public long backfillFromRedis(int batchSize) {
+        AtomicLong written = new AtomicLong();
+        redis.scan(batchSize, keys -> {
+            for (String key : keys) {
+                if (!key.matches("[a-zA-Z0-9]+")) {
+                    continue;
+                }
+                try {
+                    Object payload = redis.get(key);
+                    if (payload != null && cassandraOperations.insert(aTinyMapping().withTiny(key).withPayload(payload.toString()).build(), IF_NOT_EXISTS)
+                            .wasApplied()) {
+                        written.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    logger.warn("Skipping key during backfill: {}, error: {}", key, e.getMessage());
+                }
+            }
+        });
+        logger.info("Backfilled {} mappings from Redis", written.get());
+        return written.get();
+    }
+
+    // false if the code turned out to be a legacy mapping that only existed in the cache
+    private boolean claim(String tiny, String payload) {
+        if (mappingCache.set(tiny, payload)) {
+            if (cacheTtlSeconds > 0) {
+                cache(tiny, payload);
+            }
+            return true;
+        }
+        Object legacy;
+        try {
+            legacy = guards.redis().call(() -> mappingCache.get(tiny));
+        } catch (BackendUnavailableException e) {
+            legacy = null;
+        }
+        if (legacy == null || payload.equals(legacy.toString())) {
+            // the cache did not answer, the mapping is in Cassandra and gets cached on first read
+            logger.warn("Failed to cache mapping: {}", tiny);
+            return true;
+        }
+        // backfill this one mapping in place of ours, the caller retries with another code
+        session.execute(backfillOverClaim.bind(legacy.toString(), tiny, payload));
+        logger.info("Code {} is a legacy mapping not yet in Cassandra, copied it there", tiny);
+        return false;
+    }
+
+    private void cache(String tiny, String payload) {
+        if (tombstones.contains(tiny)) {
+            return;
+        }
+        if (!mappingCache.set(tiny, payload, cacheTtlSeconds)) {
+            logger.warn("Failed to cache mapping: {}", tiny);
+        }
+    }
+
+    private static final class PendingInvalidation {
+        private final List<String> tinies;
+        private final long dueAt;
+
+        private PendingInvalidation(List<String> tinies, long dueAt) {
+            this.tinies = tinies;
+            this.dueAt = dueAt;
+        }
+    }
+}
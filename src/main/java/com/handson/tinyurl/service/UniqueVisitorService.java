@@ -0,0 +1,159 @@
+package com.handson.tinyurl.service;
+
+import com.handson.tinyurl.model.TinyVisitorsOut;
+import com.handson.tinyurl.storage.ClickStats;
+import com.handson.tinyurl.storage.UniqueVisitors;
+import com.handson.tinyurl.util.BackendUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unique visitors per link and day. Redirects queue a visitor fingerprint (hash of
+ * IP and User-Agent, the raw values are not kept) and the queue is flushed to
+ * {@link UniqueVisitors} in batches every flush-interval-ms. When the queue is full
+ * visits are dropped from the count rather than slowing the redirect down.
+ * Batches are written in chunks of visitors.chunk-size under the redis-bulk guard,
+ * so slow flushes never count against the breaker redirects depend on. Adding a
+ * fingerprint is idempotent, so a chunk that timed out is not counted as dropped:
+ * only chunks the guard refused are.
+ */
+@Component
+public class UniqueVisitorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UniqueVisitorService.class);
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @Autowired
+    private UniqueVisitors uniqueVisitors;
+
+    @Autowired
+    private BackendGuards guards;
+
+    @Value("${visitors.queue-size:100000}")
+    private int queueSize;
+
+    @Value("${visitors.batch-size:10000}")
+    private int batchSize;
+
+    // fingerprints per guarded write
+    @Value("${visitors.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${visitors.max-days:92}")
+    private int maxDays;
+
+    private BlockingQueue<Visit> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    public void record(String tiny, long clickTime, String ip, String userAgent) {
+        if (!queue.offer(new Visit(tiny, ClickStats.Granularity.DAY.bucketOf(clickTime), fingerprint(ip, userAgent)))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${visitors.flush-interval-ms:1000}")
+    public void flush() {
+        List<Visit> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+        while (queue.drainTo(batch, batchSize) > 0) {
+            for (int from = 0; from < batch.size(); from += chunkSize) {
+                List<Visit> chunk = batch.subList(from, Math.min(batch.size(), from + chunkSize));
+                Map<String, Map<Long, Collection<String>>> fingerprints = new HashMap<>();
+                for (Visit visit : chunk) {
+                    fingerprints.computeIfAbsent(visit.tiny, t -> new HashMap<>())
+                            .computeIfAbsent(visit.day, d -> new HashSet<>())
+                            .add(visit.fingerprint);
+                }
+                try {
+                    guards.redisBulk().call(() -> {
+                        uniqueVisitors.add(fingerprints);
+                        return null;
+                    });
+                } catch (BackendUnavailableException e) {
+                    if (!e.isRefused()) {
+                        // may still have been applied, and a later visit adds the same fingerprint again
+                        logger.debug("Flush of {} visits not confirmed, error: {}", chunk.size(), e.getMessage());
+                        continue;
+                    }
+                    // losing the rest of the batch only makes the estimate a little low
+                    logger.warn("Failed to flush {} visits, error: {}", batch.size() - from, e.getMessage());
+                    dropped.addAndGet(batch.size() - from);
+                    return;
+                }
+            }
+            batch.clear();
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            logger.warn("Dropped {} visits from the unique visitor counts", lost);
+        }
+    }
+
+    public TinyVisitorsOut visitors(String tiny, long from, long to) {
+        long start = ClickStats.Granularity.DAY.bucketOf(from);
+        List<Long> days = new ArrayList<>();
+        for (long day = start; day < to; day += ClickStats.Granularity.DAY.getMillis()) {
+            days.add(day);
+        }
+        if (days.size() > maxDays) {
+            throw new IllegalArgumentException("Range too large, at most " + maxDays + " days");
+        }
+        List<TinyVisitorsOut.Day> perDay = new ArrayList<>(days.size());
+        for (Long day : days) {
+            perDay.add(TinyVisitorsOut.Day.of(day, uniqueVisitors.count(tiny, List.of(day))));
+        }
+        return TinyVisitorsOut.of(tiny, uniqueVisitors.count(tiny, days), perDay);
+    }
+
+    static String fingerprint(String ip, String userAgent) {
+        byte[] digest = SHA256.get().digest((ip + "|" + (userAgent == null ? "" : userAgent)).getBytes(StandardCharsets.UTF_8));
+        StringBuilder res = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            res.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return res.toString();
+    }
+
+    private static final class Visit {
+        private final String tiny;
+        private final long day;
+        private final String fingerprint;
+
+        private Visit(String tiny, long day, String fingerprint) {
+            this.tiny = tiny;
+            this.day = day;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
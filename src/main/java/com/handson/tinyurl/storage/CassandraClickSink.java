@@ -0,0 +1,187 @@
+package com.handson.tinyurl.storage;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.handson.tinyurl.config.CassandraProfiles;
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.repository.UserClickRepository;
+import com.handson.tinyurl.util.RequestEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.cassandra.core.AsyncCassandraTemplate;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.EntityWriteResult;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.data.cassandra.core.cql.QueryOptions;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Click rows in the userclick table. Writes use the click-write execution profile
+ * and history reads the click-read one ({@link CassandraProfiles}); both are timed
+ * as tinyurl.cassandra.clicks (operation=write|read) with p50/p99 published.
+ */
+@Component
+@Profile("!inmemory")
+public class CassandraClickSink implements ClickSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(CassandraClickSink.class);
+
+    // added after the table was first created, schema-action only creates missing tables
+    private static final String[] ENRICHMENT_COLUMNS = {"referrer", "device", "browser", "ipprefix"};
+
+    private static final InsertOptions WRITE = InsertOptions.builder().executionProfile(CassandraProfiles.CLICK_WRITE).build();
+    private static final QueryOptions READ = QueryOptions.builder().executionProfile(CassandraProfiles.CLICK_READ).build();
+
+    @Autowired
+    private UserClickRepository userClickRepository;
+
+    @Autowired
+    private CqlSession session;
+
+    @Autowired
+    private CassandraOperations cassandraOperations;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${click.retention.manage-schema:true}")
+    private boolean manageSchema;
+
+    // 0 keeps raw clicks forever
+    @Value("${click.retention.raw-days:90}")
+    private int rawDays;
+
+    @Value("${click.retention.compaction-window-days:1}")
+    private int compactionWindowDays;
+
+    private AsyncCassandraTemplate asyncTemplate;
+    private Timer writeTimer;
+    private Timer readTimer;
+
+    @PostConstruct
+    public void init() {
+        asyncTemplate = new AsyncCassandraTemplate(session, cassandraOperations.getConverter());
+        writeTimer = timer("write");
+        readTimer = timer("read");
+        addMissingColumns();
+        applyRetention();
+    }
+
+    private Timer timer(String operation) {
+        return Timer.builder("tinyurl.cassandra.clicks")
+                .tag("operation", operation)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    private void addMissingColumns() {
+        Optional<TableMetadata> table = session.getKeyspace()
+                .flatMap(session.getMetadata()::getKeyspace)
+                .flatMap(keyspace -> keyspace.getTable("userclick"));
+        if (!table.isPresent()) {
+            return;
+        }
+        for (String column : ENRICHMENT_COLUMNS) {
+            if (!table.get().getColumn(CqlIdentifier.fromInternal(column)).isPresent()) {
+                logger.info("Adding column userclick.{}", column);
+                session.execute("ALTER TABLE userclick ADD " + column + " text");
+            }
+        }
+    }
+
+    /**
+     * Raw clicks expire after click.retention.raw-days (folded into userclick_daily
+     * by ClickDownsampler first) and are compacted in time windows, so expired
+     * SSTables are dropped whole instead of being rewritten by compaction.
+     * Altered only when the table options differ.
+     */
+    private void applyRetention() {
+        if (!manageSchema) {
+            return;
+        }
+        Optional<TableMetadata> table = session.getKeyspace()
+                .flatMap(session.getMetadata()::getKeyspace)
+                .flatMap(keyspace -> keyspace.getTable("userclick"));
+        if (!table.isPresent()) {
+            return;
+        }
+        int ttl = (int) TimeUnit.DAYS.toSeconds(rawDays);
+        Map<CqlIdentifier, Object> options = table.get().getOptions();
+        Object compaction = options.get(CqlIdentifier.fromInternal("compaction"));
+        boolean twcs = compaction instanceof Map
+                && String.valueOf(((Map<?, ?>) compaction).get("class")).endsWith("TimeWindowCompactionStrategy")
+                && String.valueOf(compactionWindowDays).equals(String.valueOf(((Map<?, ?>) compaction).get("compaction_window_size")));
+        boolean ttlSet = Integer.valueOf(ttl).equals(options.get(CqlIdentifier.fromInternal("default_time_to_live")));
+        if (twcs && ttlSet) {
+            return;
+        }
+        logger.info("Setting userclick retention: default TTL {} days, TWCS window {} days", rawDays, compactionWindowDays);
+        try {
+            session.execute("ALTER TABLE userclick WITH compaction = {'class': 'TimeWindowCompactionStrategy', "
+                    + "'compaction_window_unit': 'DAYS', 'compaction_window_size': " + compactionWindowDays + "} "
+                    + "AND default_time_to_live = " + ttl);
+        } catch (Exception e) {
+            // e.g. managed clusters that do not allow changing compaction, the downsampler still deletes expired rows
+            logger.warn("Could not change userclick table options, error: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void record(UserClick click) {
+        writeTimer.record(() -> cassandraOperations.insert(click, WRITE));
+    }
+
+    @Override
+    public void recordAll(List<UserClick> clicks) {
+        List<ListenableFuture<EntityWriteResult<UserClick>>> pending = new ArrayList<>(clicks.size());
+        for (UserClick click : clicks) {
+            long start = System.nanoTime();
+            ListenableFuture<EntityWriteResult<UserClick>> future = asyncTemplate.insert(click, WRITE);
+            future.addCallback(result -> writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS), e -> { });
+            pending.add(future);
+        }
+        try {
+            for (ListenableFuture<EntityWriteResult<UserClick>> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted writing clicks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed writing clicks: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public Iterable<UserClick> findByUserName(String userName) {
+        long start = System.nanoTime();
+        try {
+            return readTimer.record(() -> userClickRepository.findByUserName(userName, READ));
+        } finally {
+            RequestEvent.addCassandra(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Stream<UserClick> streamByUserName(String userName, Date from, Date to) {
+        // exports page through lazily, only the first page is timed
+        return readTimer.record(() -> userClickRepository.streamByUserName(userName, from, to, READ));
+    }
+}
@@ -0,0 +1,68 @@
+package com.handson.tinyurl.storage;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counter tables tiny_clicks_hourly and tiny_clicks_daily, one partition per link.
+ */
+@Component
+@Profile("!inmemory")
+public class CassandraClickStats implements ClickStats {
+
+    @Autowired
+    private CqlSession session;
+
+    private PreparedStatement incrementHourly;
+    private PreparedStatement incrementDaily;
+    private PreparedStatement selectHourly;
+    private PreparedStatement selectDaily;
+
+    @PostConstruct
+    public void init() {
+        for (String table : new String[]{"tiny_clicks_hourly", "tiny_clicks_daily"}) {
+            session.execute("CREATE TABLE IF NOT EXISTS " + table + " (tiny text, bucket timestamp, clicks counter, "
+                    + "PRIMARY KEY ((tiny), bucket)) WITH CLUSTERING ORDER BY (bucket ASC)");
+        }
+        incrementHourly = session.prepare("UPDATE tiny_clicks_hourly SET clicks = clicks + ? WHERE tiny = ? AND bucket = ?");
+        incrementDaily = session.prepare("UPDATE tiny_clicks_daily SET clicks = clicks + ? WHERE tiny = ? AND bucket = ?");
+        selectHourly = session.prepare("SELECT bucket, clicks FROM tiny_clicks_hourly WHERE tiny = ? AND bucket >= ? AND bucket < ?");
+        selectDaily = session.prepare("SELECT bucket, clicks FROM tiny_clicks_daily WHERE tiny = ? AND bucket >= ? AND bucket < ?");
+    }
+
+    @Override
+    public void add(String tiny, Map<Long, Long> hourlyDeltas) {
+        Map<Long, Long> dailyDeltas = new HashMap<>();
+        BatchStatementBuilder batch = BatchStatement.builder(DefaultBatchType.COUNTER);
+        hourlyDeltas.forEach((hour, clicks) -> {
+            batch.addStatement(incrementHourly.bind(clicks, tiny, Instant.ofEpochMilli(hour)));
+            dailyDeltas.merge(Granularity.DAY.bucketOf(hour), clicks, Long::sum);
+        });
+        dailyDeltas.forEach((day, clicks) -> batch.addStatement(incrementDaily.bind(clicks, tiny, Instant.ofEpochMilli(day))));
+        // all statements share the partition key, so this is a single-partition batch per table
+        session.execute(batch.build());
+    }
+
+    @Override
+    public Map<Long, Long> query(String tiny, long from, long to, Granularity granularity) {
+        PreparedStatement select = granularity == Granularity.HOUR ? selectHourly : selectDaily;
+        Map<Long, Long> res = new TreeMap<>();
+        for (Row row : session.execute(select.bind(tiny, Instant.ofEpochMilli(from), Instant.ofEpochMilli(to)))) {
+            res.put(row.getInstant("bucket").toEpochMilli(), row.getLong("clicks"));
+        }
+        return res;
+    }
+}
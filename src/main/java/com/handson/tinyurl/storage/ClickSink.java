@@ -0,0 +1,32 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.model.UserClick;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Raw click rows.
+ */
+public interface ClickSink {
+
+    void record(UserClick click);
+
+    /**
+     * Writes the rows concurrently and returns once all of them are written.
+     * Rows are keyed by user and click time, so writing them again is harmless.
+     */
+    void recordAll(List<UserClick> clicks);
+
+    /**
+     * @return the user's clicks, newest first
+     */
+    Iterable<UserClick> findByUserName(String userName);
+
+    /**
+     * Lazily reads the user's clicks in [from, to), newest first, without loading them all.
+     * The stream must be closed.
+     */
+    Stream<UserClick> streamByUserName(String userName, Date from, Date to);
+}
@@ -0,0 +1,40 @@
+package com.handson.tinyurl.storage;
+
+import java.util.Map;
+
+/**
+ * Pre-aggregated per-link click counts in hourly and daily buckets.
+ * Buckets are identified by their start time in epoch millis, UTC.
+ */
+public interface ClickStats {
+
+    enum Granularity {
+        HOUR(3_600_000L),
+        DAY(86_400_000L);
+
+        private final long millis;
+
+        Granularity(long millis) {
+            this.millis = millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public long bucketOf(long epochMillis) {
+            return epochMillis - Math.floorMod(epochMillis, millis);
+        }
+    }
+
+    /**
+     * Adds the deltas to the hourly buckets and to the daily buckets that contain them
+     * @param hourlyDeltas hour bucket -> clicks
+     */
+    void add(String tiny, Map<Long, Long> hourlyDeltas);
+
+    /**
+     * @return bucket -> clicks for the non-empty buckets in [from, to)
+     */
+    Map<Long, Long> query(String tiny, long from, long to, Granularity granularity);
+}
@@ -0,0 +1,38 @@
+package com.handson.tinyurl.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated backend latency and failures for the in-memory stores, so load tests
+ * can see how the controller behaves with slow or failing backends.
+ */
+@Component
+@Profile("inmemory")
+public class FaultInjector {
+
+    @Value("${storage.inmemory.latency-micros:0}")
+    private long latencyMicros;
+
+    @Value("${storage.inmemory.jitter-micros:0}")
+    private long jitterMicros;
+
+    @Value("${storage.inmemory.error-rate:0}")
+    private double errorRate;
+
+    public void apply(String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delayMicros = latencyMicros + (jitterMicros > 0 ? random.nextLong(jitterMicros) : 0);
+        if (delayMicros > 0) {
+            LockSupport.parkNanos(delayMicros * 1000);
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            throw new DataAccessResourceFailureException("Injected failure: " + operation);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.model.UserClick;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.stream.Stream;
+
+@Component
+@Profile("inmemory")
+public class InMemoryClickSink implements ClickSink {
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    // keeps memory bounded during long load tests
+    @Value("${storage.inmemory.max-clicks-per-user:10000}")
+    private int maxClicksPerUser;
+
+    private final Map<String, Deque<UserClick>> clicks = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(UserClick click) {
+        faultInjector.apply("click.record");
+        Deque<UserClick> userClicks = clicks.computeIfAbsent(click.getUserClickKey().getUserName(), u -> new LinkedBlockingDeque<>(maxClicksPerUser));
+        while (!userClicks.offerFirst(click)) {
+            userClicks.pollLast();
+        }
+    }
+
+    @Override
+    public void recordAll(List<UserClick> clicks) {
+        clicks.forEach(this::record);
+    }
+
+    @Override
+    public Iterable<UserClick> findByUserName(String userName) {
+        faultInjector.apply("click.find");
+        Deque<UserClick> userClicks = clicks.get(userName);
+        return userClicks == null ? new ArrayList<>() : new ArrayList<>(userClicks);
+    }
+
+    @Override
+    public Stream<UserClick> streamByUserName(String userName, Date from, Date to) {
+        faultInjector.apply("click.find");
+        Deque<UserClick> userClicks = clicks.get(userName);
+        return userClicks == null ? Stream.empty() : userClicks.stream().filter(click -> {
+            Date clickTime = click.getUserClickKey().getClickTime();
+            return !clickTime.before(from) && clickTime.before(to);
+        });
+    }
+}
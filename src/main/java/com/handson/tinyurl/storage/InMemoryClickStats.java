@@ -0,0 +1,32 @@
+package com.handson.tinyurl.storage;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+@Component
+@Profile("inmemory")
+public class InMemoryClickStats implements ClickStats {
+
+    private final Map<String, NavigableMap<Long, Long>> hourly = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Long, Long>> daily = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(String tiny, Map<Long, Long> hourlyDeltas) {
+        hourlyDeltas.forEach((hour, clicks) -> {
+            hourly.computeIfAbsent(tiny, t -> new ConcurrentSkipListMap<>()).merge(hour, clicks, Long::sum);
+            daily.computeIfAbsent(tiny, t -> new ConcurrentSkipListMap<>()).merge(Granularity.DAY.bucketOf(hour), clicks, Long::sum);
+        });
+    }
+
+    @Override
+    public Map<Long, Long> query(String tiny, long from, long to, Granularity granularity) {
+        NavigableMap<Long, Long> buckets = (granularity == Granularity.HOUR ? hourly : daily).get(tiny);
+        return buckets == null ? new TreeMap<>() : new TreeMap<>(buckets.subMap(from, true, to, false));
+    }
+}
@@ -0,0 +1,65 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.service.MappingTombstones;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+@Profile("inmemory")
+public class InMemoryMappingStore implements MappingStore {
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    @Autowired
+    private MappingTombstones tombstones;
+
+    private final Map<String, String> mappings = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean create(String tiny, String payload) {
+        faultInjector.apply("mapping.create");
+        if (tombstones.contains(tiny)) {
+            return false;
+        }
+        return mappings.putIfAbsent(tiny, payload) == null;
+    }
+
+    @Override
+    public Object get(String tiny) {
+        faultInjector.apply("mapping.get");
+        return mappings.get(tiny);
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> tinies) {
+        faultInjector.apply("mapping.get");
+        Map<String, Object> found = new HashMap<>();
+        for (String tiny : tinies) {
+            String payload = mappings.get(tiny);
+            if (payload != null) {
+                found.put(tiny, payload);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void delete(String tiny) {
+        deleteAll(List.of(tiny));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> tinies) {
+        faultInjector.apply("mapping.delete");
+        tombstones.add(tinies);
+        tinies.forEach(mappings::remove);
+    }
+}
@@ -0,0 +1,48 @@
+package com.handson.tinyurl.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact sets instead of sketches, fine for the load test profile and for the
+ * single node of mapping.backend=embedded, which has no Redis. Days older than
+ * visitors.retention-days are dropped, as the Redis keys expire.
+ */
+@Component
+@ConditionalOnExpression("environment.acceptsProfiles('inmemory') or '${mapping.backend:redis}' == 'embedded'")
+public class InMemoryUniqueVisitors implements UniqueVisitors {
+
+    private final Map<String, Set<String>> visitors = new ConcurrentHashMap<>();
+
+    @Value("${visitors.retention-days:400}")
+    private int retentionDays;
+
+    @Override
+    public void add(Map<String, Map<Long, Collection<String>>> fingerprints) {
+        fingerprints.forEach((tiny, days) -> days.forEach((day, seen) ->
+                visitors.computeIfAbsent(tiny + ":" + day, k -> ConcurrentHashMap.newKeySet()).addAll(seen)));
+    }
+
+    @Override
+    public long count(String tiny, Collection<Long> days) {
+        Set<String> union = new HashSet<>();
+        for (Long day : days) {
+            union.addAll(visitors.getOrDefault(tiny + ":" + day, Set.of()));
+        }
+        return union.size();
+    }
+
+    @Scheduled(fixedDelay = 3_600_000)
+    public void expire() {
+        long oldest = System.currentTimeMillis() - retentionDays * 86_400_000L;
+        visitors.keySet().removeIf(key -> Long.parseLong(key.substring(key.lastIndexOf(':') + 1)) < oldest);
+    }
+}
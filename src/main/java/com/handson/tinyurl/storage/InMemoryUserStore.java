@@ -0,0 +1,140 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.model.ShortUrl;
+import com.handson.tinyurl.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.handson.tinyurl.model.User.UserBuilder.anUser;
+
+@Component
+@Profile("inmemory")
+public class InMemoryUserStore implements UserStore {
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    // userName -> journal source -> last applied position, guarded by the user
+    private final Map<String, Map<String, Long>> journalPositions = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean existsByName(String name) {
+        faultInjector.apply("user.exists");
+        return users.containsKey(name);
+    }
+
+    @Override
+    public void save(User user) {
+        faultInjector.apply("user.save");
+        users.put(user.getName(), user);
+    }
+
+    @Override
+    public User findByName(String name) {
+        faultInjector.apply("user.find");
+        User user = users.get(name);
+        if (user == null) {
+            return null;
+        }
+        // hand out a copy, the stored user keeps changing under its lock
+        synchronized (user) {
+            Map<String, ShortUrl> shorts = new HashMap<>();
+            user.getShorts().forEach((tiny, shortUrl) -> {
+                ShortUrl copy = new ShortUrl();
+                copy.setClicks(new HashMap<>(shortUrl.getClicks()));
+                shorts.put(tiny, copy);
+            });
+            return anUser().withName(user.getName()).withAllUrlClicks(user.getAllUrlClicks()).withShorts(shorts).build();
+        }
+    }
+
+    @Override
+    public void addShort(String userName, String tiny, String longUrl) {
+        faultInjector.apply("user.addShort");
+        User user = users.get(userName);
+        if (user != null) {
+            synchronized (user) {
+                user.getShorts().putIfAbsent(tiny, new ShortUrl());
+            }
+        }
+    }
+
+    @Override
+    public void addShorts(Map<String, ? extends Map<String, String>> longUrlsByUser) {
+        longUrlsByUser.forEach((userName, longUrls) -> longUrls.forEach((tiny, longUrl) -> addShort(userName, tiny, longUrl)));
+    }
+
+    @Override
+    public void incrementClicks(String userName, String tiny, String month, long count) {
+        faultInjector.apply("user.incrementClicks");
+        User user = users.get(userName);
+        if (user != null) {
+            synchronized (user) {
+                user.setAllUrlClicks(user.getAllUrlClicks() + (int) count);
+                user.getShorts().computeIfAbsent(tiny, t -> new ShortUrl()).getClicks().merge(month, (int) count, Integer::sum);
+            }
+        }
+    }
+
+    @Override
+    public void applyClicks(Map<String, Map<String, Map<String, Long>>> counts, String source, long position) {
+        faultInjector.apply("user.applyClicks");
+        counts.forEach((userName, tinies) -> {
+            User user = users.get(userName);
+            if (user == null) {
+                return;
+            }
+            synchronized (user) {
+                Map<String, Long> positions = journalPositions.computeIfAbsent(userName, u -> new HashMap<>());
+                if (positions.getOrDefault(source, -1L) >= position) {
+                    return;
+                }
+                positions.put(source, position);
+                tinies.forEach((tiny, months) -> months.forEach((month, count) -> {
+                    user.setAllUrlClicks(user.getAllUrlClicks() + count.intValue());
+                    user.getShorts().computeIfAbsent(tiny, t -> new ShortUrl()).getClicks().merge(month, count.intValue(), Integer::sum);
+                }));
+            }
+        });
+    }
+
+    @Override
+    public void forgetJournal(String source, Collection<String> userNames) {
+        userNames.forEach(userName -> {
+            User user = users.get(userName);
+            Map<String, Long> positions = journalPositions.get(userName);
+            if (user != null && positions != null) {
+                synchronized (user) {
+                    positions.remove(source);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void forgetJournal(String source) {
+        forgetJournal(source, journalPositions.keySet());
+    }
+
+    @Override
+    public void removeShorts(Map<String, ? extends Collection<String>> tiniesByUser) {
+        faultInjector.apply("user.removeShorts");
+        tiniesByUser.forEach((userName, tinies) -> {
+            User user = users.get(userName);
+            if (user == null) {
+                return;
+            }
+            synchronized (user) {
+                user.getShorts().keySet().removeAll(tinies);
+            }
+        });
+    }
+}
@@ -0,0 +1,35 @@
+package com.handson.tinyurl.storage;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * tiny -> serialized NewTinyRequest mappings.
+ */
+public interface MappingStore {
+
+    /**
+     * Stores the mapping if the code is not taken yet
+     * @return false if the code already exists
+     */
+    boolean create(String tiny, String payload);
+
+    /**
+     * @return the serialized NewTinyRequest, or null if the code does not exist
+     */
+    Object get(String tiny);
+
+    /**
+     * Bulk {@link #get}, in as few round trips as the store allows
+     * @return tiny -> serialized NewTinyRequest of the codes that exist
+     */
+    Map<String, Object> getAll(Collection<String> tinies);
+
+    void delete(String tiny);
+
+    /**
+     * Deletes the mappings everywhere they are kept, and makes sure no copy of
+     * them is served again
+     */
+    void deleteAll(Collection<String> tinies);
+}
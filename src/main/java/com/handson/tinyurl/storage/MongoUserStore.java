@@ -0,0 +1,251 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.model.ShortUrl;
+import com.handson.tinyurl.model.User;
+import com.handson.tinyurl.repository.UserRepository;
+import com.handson.tinyurl.util.RateMeter;
+import com.handson.tinyurl.util.RequestEvent;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Users in the users collection.
+ *
+ * Click counters of hot users are sharded: when a user's increment rate seen by
+ * this node exceeds users.counter-shards.writes-per-shard, incrementClicks spreads
+ * the $incs over up to users.counter-shards.max documents of user_counter_shards
+ * (same counter layout as the user document, picked at random) instead of
+ * serializing on the user document. The shard count follows the rate, and the
+ * user document records the highest count used (counterShards), so findByName
+ * only looks for shards of users that have them, and adds them in.
+ *
+ * Sharding only applies to incrementClicks, i.e. with click.journal.enabled=false.
+ * applyClicks keeps journal replays on the user document, because their idempotence
+ * rests on the journal position stored next to the counters: a shard picked per
+ * call (or a shard count that changed between a failed batch and its retry) would
+ * let the same batch be applied on two documents. A replay is already one update
+ * per user and batch on each node, so a hot user costs nodes x batches per second.
+ */
+@Component
+@Profile("!inmemory")
+public class MongoUserStore implements UserStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoUserStore.class);
+
+    private static final String SHARDS = "user_counter_shards";
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${users.counter-shards.enabled:true}")
+    private boolean shardingEnabled;
+
+    @Value("${users.counter-shards.writes-per-shard:200}")
+    private double writesPerShard;
+
+    @Value("${users.counter-shards.max:16}")
+    private int maxShards;
+
+    private final Map<String, RateMeter> writeRates = new ConcurrentHashMap<>();
+    // highest shard count this node has recorded on each user document
+    private final Map<String, Integer> recordedShards = new ConcurrentHashMap<>();
+    private volatile boolean incrementsFailing;
+
+    @PostConstruct
+    public void init() {
+        mongoTemplate.indexOps(SHARDS).ensureIndex(new Index().on("user", Sort.Direction.ASC));
+    }
+
+    @Override
+    public boolean existsByName(String name) {
+        return userRepository.existsByName(name);
+    }
+
+    @Override
+    public void save(User user) {
+        userRepository.save(user);
+    }
+
+    @Override
+    public User findByName(String name) {
+        User user = userRepository.findFirstByName(name);
+        if (user != null && user.getCounterShards() > 0) {
+            addShards(user);
+        }
+        return user;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addShards(User user) {
+        for (Document shard : mongoTemplate.find(new Query(Criteria.where("user").is(user.getName())), Document.class, SHARDS)) {
+            user.setAllUrlClicks(user.getAllUrlClicks() + ((Number) shard.getOrDefault("allUrlClicks", 0)).intValue());
+            Map<String, Object> shorts = (Map<String, Object>) shard.getOrDefault("shorts", Map.of());
+            shorts.forEach((tiny, value) -> {
+                Map<String, Object> clicks = (Map<String, Object>) ((Map<String, Object>) value).getOrDefault("clicks", Map.of());
+                ShortUrl shortUrl = user.getShorts().computeIfAbsent(tiny, t -> new ShortUrl());
+                clicks.forEach((month, count) -> shortUrl.getClicks().merge(month, ((Number) count).intValue(), Integer::sum));
+            });
+        }
+    }
+
+    @Override
+    public void addShort(String userName, String tiny, String longUrl) {
+        logger.debug("Updating shorts for user: {}, tinyCode: {}, longUrl: {}", userName, tiny, longUrl);
+        try {
+            Query query = new Query(Criteria.where("name").is(userName));
+            Update update = new Update().set("shorts." + tiny + ".longUrl", longUrl);
+            long start = System.nanoTime();
+            mongoTemplate.updateFirst(query, update, "users");
+            RequestEvent.addMongo(System.nanoTime() - start);
+            logger.debug("Shorts updated successfully for user: {}", userName);
+        } catch (Exception e) {
+            logger.error("Error updating shorts for user: {}, error: {}", userName, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void addShorts(Map<String, ? extends Map<String, String>> longUrlsByUser) {
+        if (longUrlsByUser.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "users");
+        longUrlsByUser.forEach((userName, longUrls) -> {
+            Update update = new Update();
+            longUrls.forEach((tiny, longUrl) -> update.set("shorts." + tiny + ".longUrl", longUrl));
+            bulk.updateOne(new Query(Criteria.where("name").is(userName)), update);
+        });
+        bulk.execute();
+    }
+
+    @Override
+    public void incrementClicks(String userName, String tiny, String month, long count) {
+        logger.debug("Incrementing clicks: userName={}, tiny={}, month={}", userName, tiny, month);
+        try {
+            // both counters in one update, one round trip
+            Update update = new Update().inc("allUrlClicks", count).inc("shorts." + tiny + ".clicks." + month, count);
+            int shards = shardsFor(userName, count);
+            if (shards > 1) {
+                int shard = ThreadLocalRandom.current().nextInt(shards);
+                Query query = new Query(Criteria.where("_id").is(userName + "#" + shard));
+                mongoTemplate.upsert(query, update.set("user", userName), SHARDS);
+            } else {
+                mongoTemplate.updateFirst(new Query(Criteria.where("name").is(userName)), update, "users");
+            }
+            if (incrementsFailing) {
+                incrementsFailing = false;
+                logger.info("Incrementing clicks works again");
+            }
+        } catch (Exception e) {
+            // one per click during an outage: only the change is logged, the mongo guard counts the failures
+            if (!incrementsFailing) {
+                incrementsFailing = true;
+                logger.warn("Incrementing clicks failed, further failures are logged at debug: userName={}, tiny={}, error={}",
+                        userName, tiny, e.getMessage());
+            } else {
+                logger.debug("Error incrementing clicks: userName={}, tiny={}, error={}", userName, tiny, e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private int shardsFor(String userName, long count) {
+        if (!shardingEnabled) {
+            return 1;
+        }
+        RateMeter rate = writeRates.computeIfAbsent(userName, u -> new RateMeter());
+        rate.mark(count);
+        int shards = Math.min(maxShards, (int) Math.ceil(rate.rate() / writesPerShard));
+        if (shards > 1 && recordedShards.getOrDefault(userName, 0) < shards) {
+            // before the first sharded write, so readers never miss a shard
+            mongoTemplate.updateFirst(new Query(Criteria.where("name").is(userName)), new Update().max("counterShards", shards), "users");
+            recordedShards.merge(userName, shards, Math::max);
+            logger.info("Sharding click counters of user: {} over {} documents", userName, shards);
+        }
+        return shards;
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void forgetIdleUsers() {
+        writeRates.entrySet().removeIf(e -> e.getValue().idleNanos() > TimeUnit.MINUTES.toNanos(5));
+    }
+
+    @Override
+    public void applyClicks(Map<String, Map<String, Map<String, Long>>> counts, String source, long position) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        String positionField = "journalPositions." + source;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "users");
+        counts.forEach((userName, tinies) -> {
+            // matches users that have not seen this position yet, including those without the field
+            Query query = new Query(Criteria.where("name").is(userName).and(positionField).not().gte(position));
+            Update update = new Update().set(positionField, position);
+            long total = 0;
+            for (Map.Entry<String, Map<String, Long>> tiny : tinies.entrySet()) {
+                for (Map.Entry<String, Long> month : tiny.getValue().entrySet()) {
+                    update.inc("shorts." + tiny.getKey() + ".clicks." + month.getKey(), month.getValue());
+                    total += month.getValue();
+                }
+            }
+            bulk.updateOne(query, update.inc("allUrlClicks", total));
+        });
+        // already one update per user and batch, and not sharded: see the class comment
+        bulk.execute();
+    }
+
+    @Override
+    public void forgetJournal(String source, Collection<String> userNames) {
+        if (userNames.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(new Query(Criteria.where("name").in(userNames)), new Update().unset("journalPositions." + source), "users");
+    }
+
+    @Override
+    public void forgetJournal(String source) {
+        String positionField = "journalPositions." + source;
+        mongoTemplate.updateMulti(new Query(Criteria.where(positionField).exists(true)), new Update().unset(positionField), "users");
+    }
+
+    @Override
+    public void removeShorts(Map<String, ? extends Collection<String>> tiniesByUser) {
+        if (tiniesByUser.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "users");
+        BulkOperations shardBulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SHARDS);
+        tiniesByUser.forEach((userName, tinies) -> {
+            Update update = new Update();
+            tinies.forEach(tiny -> update.unset("shorts." + tiny));
+            bulk.updateOne(new Query(Criteria.where("name").is(userName)), update);
+            // sharded counters of the links go too (allUrlClicks keeps counting past clicks)
+            shardBulk.updateMulti(new Query(Criteria.where("user").is(userName)), update);
+        });
+        bulk.execute();
+        shardBulk.execute();
+    }
+}
@@ -0,0 +1,51 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.service.Redis;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * One Redis HyperLogLog per link and day, hll:{tiny}:yyyyMMdd. A sketch takes at
+ * most 12KB however many visitors it counts (0.81% standard error), and the days
+ * of a link share a hash tag so PFCOUNT can merge them in one call.
+ * Not with mapping.backend=embedded, see {@link InMemoryUniqueVisitors}.
+ */
+@Component
+@Profile("!inmemory")
+@ConditionalOnExpression("'${mapping.backend:redis}' != 'embedded'")
+public class RedisUniqueVisitors implements UniqueVisitors {
+
+    @Autowired
+    private Redis redis;
+
+    @Value("${visitors.retention-days:400}")
+    private int retentionDays;
+
+    @Override
+    public void add(Map<String, Map<Long, Collection<String>>> fingerprints) {
+        Map<String, Collection<String>> values = new HashMap<>();
+        fingerprints.forEach((tiny, days) -> days.forEach((day, visitors) -> values.put(key(tiny, day), visitors)));
+        redis.pfAdd(values, retentionDays * 86_400L);
+    }
+
+    @Override
+    public long count(String tiny, Collection<Long> days) {
+        return days.isEmpty() ? 0 : redis.pfCount(days.stream().map(day -> key(tiny, day)).toArray(String[]::new));
+    }
+
+    private static String key(String tiny, long day) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "hll:{" + tiny + "}:" + format.format(new Date(day));
+    }
+}
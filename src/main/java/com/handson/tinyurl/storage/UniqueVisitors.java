@@ -0,0 +1,21 @@
+package com.handson.tinyurl.storage;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Distinct visitors per link and day (UTC), approximated by HyperLogLog sketches.
+ */
+public interface UniqueVisitors {
+
+    /**
+     * @param fingerprints tiny -> day bucket -> visitor fingerprints seen
+     */
+    void add(Map<String, Map<Long, Collection<String>>> fingerprints);
+
+    /**
+     * @param days day buckets to merge
+     * @return distinct visitors over the union of the days
+     */
+    long count(String tiny, Collection<Long> days);
+}
@@ -0,0 +1,57 @@
+package com.handson.tinyurl.storage;
+
+import com.handson.tinyurl.model.User;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Users and their per-link click counters.
+ */
+public interface UserStore {
+
+    boolean existsByName(String name);
+
+    void save(User user);
+
+    User findByName(String name);
+
+    void addShort(String userName, String tiny, String longUrl);
+
+    /**
+     * addShort in bulk, users that do not exist are skipped.
+     * @param longUrlsByUser userName -> tiny -> longUrl
+     */
+    void addShorts(Map<String, ? extends Map<String, String>> longUrlsByUser);
+
+    /**
+     * Adds count to the user's total clicks and to the link's counter for the month
+     * @param month in the format of Dates.getCurMonth()
+     */
+    void incrementClicks(String userName, String tiny, String month, long count);
+
+    /**
+     * Idempotent incrementClicks for replaying a journal: each user's counters are
+     * updated together with the journal position they include, and a user already
+     * at or past position is left alone.
+     * @param counts userName -> tiny -> month -> clicks
+     * @param source id of the journal, positions of different journals are unrelated
+     */
+    void applyClicks(Map<String, Map<String, Map<String, Long>>> counts, String source, long position);
+
+    /**
+     * Drops the users' positions of a journal that will not be replayed again.
+     */
+    void forgetJournal(String source, Collection<String> userNames);
+
+    /**
+     * Drops every user's position of a journal, before it starts over from position 0.
+     */
+    void forgetJournal(String source);
+
+    /**
+     * Removes links (and their counters) from their owners, in bulk.
+     * @param tiniesByUser userName -> codes to remove
+     */
+    void removeShorts(Map<String, ? extends Collection<String>> tiniesByUser);
+}
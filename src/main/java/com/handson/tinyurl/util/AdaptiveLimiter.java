@@ -0,0 +1,134 @@
+package com.handson.tinyurl.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit estimated from latency, after the gradient algorithm of
+ * Netflix's concurrency-limits: once per window the average latency of the window
+ * (short RTT) is compared with a slow moving average of it (long RTT, the latency
+ * the node has when it is not queueing).
+ *
+ *   gradient = clamp(tolerance * longRtt / shortRtt, 0.5, 1)
+ *   newLimit = limit * gradient + sqrt(limit)
+ *
+ * While latency stays within tolerance the limit grows by sqrt(limit) per window
+ * (as long as the traffic actually uses it), and as soon as requests start queueing
+ * it shrinks in proportion. A window with requests that failed from overload
+ * (dropped) multiplies the limit by at most backoff-ratio, the AIMD decrease.
+ * Callers ask for a share of the limit, so low priority work is turned away first.
+ */
+public class AdaptiveLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final double backoffRatio;
+    private final long windowNanos;
+    private final int minWindowSamples;
+    private final int longWindow;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+
+    // current window
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final LongAdder rttSum = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicInteger maxInflight = new AtomicInteger();
+
+    private double longRtt;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing,
+                           double backoffRatio, long windowMillis, int minWindowSamples, int longWindow) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.backoffRatio = backoffRatio;
+        this.windowNanos = windowMillis * 1_000_000;
+        this.minWindowSamples = minWindowSamples;
+        this.longWindow = longWindow;
+    }
+
+    /**
+     * @param share of the limit this request may use, 1 for the highest priority
+     * @return false if the request has to be rejected, otherwise release must follow
+     */
+    public boolean tryAcquire(double share) {
+        int allowed = Math.max(1, (int) (limit * share));
+        while (true) {
+            int current = inflight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                maxInflight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param startNanos System.nanoTime() when the request was admitted
+     * @param overloaded the request failed because a backend was too slow or shed it
+     */
+    public void release(long startNanos, boolean overloaded) {
+        inflight.decrementAndGet();
+        long now = System.nanoTime();
+        if (overloaded) {
+            dropped.increment();
+        } else {
+            rttSum.add(now - startNanos);
+            samples.increment();
+        }
+        long start = windowStart.get();
+        // a window closes once it is window-ms long and has enough samples to tell anything
+        if (now - start >= windowNanos && (samples.sum() >= minWindowSamples || dropped.sum() > 0)
+                && windowStart.compareAndSet(start, now)) {
+            update();
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    private synchronized void update() {
+        long count = samples.sumThenReset();
+        long rtt = rttSum.sumThenReset();
+        long drops = dropped.sumThenReset();
+        int peak = maxInflight.getAndSet(inflight.get());
+        double current = limit;
+        double gradient = 1;
+        if (count > 0) {
+            double shortRtt = (double) rtt / count;
+            longRtt = longRtt == 0 ? shortRtt : longRtt + (shortRtt - longRtt) / longWindow;
+            // after a long overload the baseline itself has drifted up, let it come down faster
+            if (longRtt > 2 * shortRtt) {
+                longRtt *= 0.95;
+            }
+            gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        }
+        double newLimit;
+        if (drops > 0) {
+            newLimit = current * Math.min(gradient, backoffRatio);
+        } else {
+            newLimit = current * gradient + Math.sqrt(current);
+        }
+        if (peak < current / 2) {
+            // the limit is not what holds the traffic back, growing it would only loosen it
+            newLimit = Math.min(newLimit, current);
+        }
+        newLimit = current * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+}
@@ -0,0 +1,174 @@
+package com.handson.tinyurl.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead, timeout and circuit breaker around one backend. Calls run on the
+ * backend's own bounded pool, so a slow backend can only tie up its own threads,
+ * and callers stop waiting after timeout-ms whatever the driver does.
+ * Calls that take longer than the timeout count as failures for the breaker.
+ */
+public class BackendGuard {
+
+    private final String name;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    public BackendGuard(String name, int threads, int queueSize, long timeoutMillis, CircuitBreaker breaker) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.breaker = breaker;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, name + "-guard-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the call and waits at most timeout-ms for it.
+     * @throws BackendUnavailableException when the call was refused, timed out or failed
+     */
+    public <T> T call(Callable<T> task) {
+        if (!breaker.tryAcquire()) {
+            throw new BackendUnavailableException(name + " circuit breaker is open", true);
+        }
+        // the outcome is reported once, by whichever of the call and the timeout comes first
+        AtomicBoolean reported = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> measured(task, reported));
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw new BackendUnavailableException(name + " bulkhead is full", true);
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.incrementAndGet();
+            if (reported.compareAndSet(false, true)) {
+                breaker.onFailure();
+            }
+            throw new BackendUnavailableException(name + " call timed out after " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            throw new BackendUnavailableException(name + " call failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackendUnavailableException(name + " call interrupted");
+        }
+    }
+
+    /**
+     * Runs the task in the background without waiting for it. Work that cannot be
+     * taken right now is dropped.
+     * @return false when the task was shed
+     */
+    public boolean submit(Runnable task) {
+        if (!breaker.tryAcquire()) {
+            shed.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    measured(() -> {
+                        task.run();
+                        return null;
+                    }, new AtomicBoolean());
+                } catch (Exception e) {
+                    // counted by measured()
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected();
+            shed.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Counts work dropped in front of this backend by callers with their own queues.
+     */
+    public void shed() {
+        shed.incrementAndGet();
+    }
+
+    private <T> T measured(Callable<T> task, AtomicBoolean reported) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T res = task.call();
+            boolean slow = System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            if (reported.compareAndSet(false, true)) {
+                if (slow) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+            return res;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            if (reported.compareAndSet(false, true)) {
+                breaker.onFailure();
+            }
+            throw e;
+        }
+    }
+
+    private void rejected() {
+        rejected.incrementAndGet();
+        // a trial call that never ran must not leave the breaker half open forever
+        if (breaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+            breaker.onFailure();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("state", breaker.getState());
+        res.put("failureRate", breaker.getFailureRate());
+        res.put("bufferedCalls", breaker.getBufferedCalls());
+        res.put("notPermitted", breaker.getNotPermitted());
+        res.put("failures", failures.get());
+        res.put("timeouts", timeouts.get());
+        res.put("rejected", rejected.get());
+        res.put("shed", shed.get());
+        res.put("active", executor.getActiveCount());
+        res.put("queued", executor.getQueue().size());
+        res.put("timeoutMs", timeoutMillis);
+        return res;
+    }
+}
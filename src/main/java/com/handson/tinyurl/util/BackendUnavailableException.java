@@ -0,0 +1,32 @@
+package com.handson.tinyurl.util;
+
+/**
+ * A guarded backend call was not made or not completed in time: breaker open,
+ * bulkhead full, timed out or failed.
+ */
+public class BackendUnavailableException extends RuntimeException {
+
+    private final boolean refused;
+
+    public BackendUnavailableException(String message) {
+        this(message, false);
+    }
+
+    public BackendUnavailableException(String message, boolean refused) {
+        super(message);
+        this.refused = refused;
+    }
+
+    public BackendUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+        this.refused = false;
+    }
+
+    /**
+     * @return true if the call was never started (breaker open, bulkhead full), so a
+     * write can be retried; after a timeout or failure it may still have been applied
+     */
+    public boolean isRefused() {
+        return refused;
+    }
+}
@@ -0,0 +1,130 @@
+package com.handson.tinyurl.util;
+
+/**
+ * Count-based circuit breaker. Opens when at least failure-rate percent of the
+ * last window calls failed, rejects calls while open, and after open-millis lets
+ * half-open-calls trial calls through: all of them succeeding closes it again,
+ * any failure re-opens it.
+ */
+public class CircuitBreaker {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int window;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    // ring buffer of the last window outcomes, true = failure
+    private final boolean[] outcomes;
+    private int next;
+    private int calls;
+    private int failures;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int trialsLeft;
+    private int trialsSucceeded;
+    private long notPermitted;
+
+    public CircuitBreaker(int window, int minimumCalls, double failureRateThreshold, long openMillis, int halfOpenCalls) {
+        this.window = window;
+        this.minimumCalls = Math.min(minimumCalls, window);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+        this.outcomes = new boolean[window];
+    }
+
+    /**
+     * @return true when the call may proceed, its outcome must then be reported
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    notPermitted++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialsLeft = halfOpenCalls;
+                trialsSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsLeft == 0) {
+                    notPermitted++;
+                    return false;
+                }
+                trialsLeft--;
+            }
+            return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        record(true);
+    }
+
+    private void record(boolean failure) {
+        switch (state) {
+            case HALF_OPEN:
+                if (failure) {
+                    open();
+                } else if (++trialsSucceeded >= halfOpenCalls) {
+                    close();
+                }
+                return;
+            case OPEN:
+                // late outcome of a call that started before the breaker opened
+                return;
+            default:
+                if (calls == window) {
+                    failures -= outcomes[next] ? 1 : 0;
+                } else {
+                    calls++;
+                }
+                outcomes[next] = failure;
+                failures += failure ? 1 : 0;
+                next = (next + 1) % window;
+                if (calls >= minimumCalls && failures * 100.0 / calls >= failureRateThreshold) {
+                    open();
+                }
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : failures * 100.0 / calls;
+    }
+
+    public synchronized int getBufferedCalls() {
+        return calls;
+    }
+
+    public synchronized long getNotPermitted() {
+        return notPermitted;
+    }
+}
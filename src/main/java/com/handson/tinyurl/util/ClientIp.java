@@ -0,0 +1,22 @@
+package com.handson.tinyurl.util;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The visitor's address as the access log and the click rows record it.
+ */
+public final class ClientIp {
+
+    private ClientIp() {
+    }
+
+    // First hop of X-Forwarded-For when behind a proxy, otherwise the peer address
+    public static String of(HttpServletRequest request) {
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded != null && !forwarded.isEmpty()) {
+            int comma = forwarded.indexOf(',');
+            return (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -4,7 +4,9 @@ import org.joda.time.*;
 import org.springframework.lang.Nullable;
 
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Objects;
@@ -24,6 +26,11 @@ public class Dates {
         return monthFormatter.format(date);
     }
 
+    public static String getMonth(Date date) {
+        // monthFormatter is shared and SimpleDateFormat is not thread safe
+        return new SimpleDateFormat("yyyy/MM").format(date);
+    }
+
     public static String dateToStr(@Nullable LocalDate date) {
         return date == null ? null : shortDate.format(date);
     }
@@ -78,6 +85,17 @@ public class Dates {
         return DateTime.now().withZone(DateTimeZone.UTC).toDateTimeISO().toString();
     }
 
+    /**
+     * Parses an ISO date (2021-07-01, taken as UTC midnight) or an ISO instant
+     * (2021-07-01T10:00:00Z) to epoch millis.
+     */
+    public static long parseIsoMillis(String value) {
+        if (value.length() == 10) {
+            return java.time.LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+        return Instant.parse(value).toEpochMilli();
+    }
+
     public static boolean equals(@Nullable Date date1, @Nullable Date date2) {
         if (date1 != null && date2 != null) {
             return date1.getTime() == date2.getTime();
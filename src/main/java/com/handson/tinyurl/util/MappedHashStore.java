@@ -0,0 +1,592 @@
+package com.handson.tinyurl.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded string -> string store made of two memory-mapped files:
+ *
+ * mappings.log - append-only records (put / delete), each protected by a CRC32.
+ *     The log is the source of truth; a torn record at the tail is cut off on open.
+ *     It is mapped in fixed size segments and a record never spans two segments.
+ * mappings.idx - open-addressing hash table of (key hash, record offset) slots.
+ *     It is trusted on open only if it was closed cleanly, otherwise it is rebuilt
+ *     from the log.
+ *
+ * Writes are serialized by a single lock. Reads take no lock: a slot is published
+ * with a volatile write after its record is in the log, and resizes and compactions
+ * build new files and swap them in as one immutable {@link State}.
+ */
+public class MappedHashStore implements Closeable {
+
+    public static final String LOG_FILE = "mappings.log";
+    public static final String INDEX_FILE = "mappings.idx";
+
+    private static final long MAGIC = 0x54494E5948415348L;
+    private static final int INDEX_HEADER = 64;
+    private static final int SLOT = 16;
+    private static final int RECORD_HEADER = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final double MAX_LOAD = 0.7;
+
+    // header fields of the index file
+    private static final int H_MAGIC = 0;
+    private static final int H_CAPACITY = 8;
+    private static final int H_CLEAN = 16;
+    private static final int H_LOG_END = 24;
+    private static final int H_USED = 32;
+    private static final int H_LIVE = 40;
+    private static final int H_LIVE_BYTES = 48;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path dir;
+    private final int segmentSize;
+    private final boolean syncWrites;
+
+    private volatile State state;
+
+    // guarded by this
+    private long logEnd;
+    private long used;
+    private long live;
+    private long liveBytes;
+    private long flushedEnd;
+
+    private MappedHashStore(Path dir, int segmentSize, boolean syncWrites) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * @param segmentSize size of each mapped log segment, also the maximum record size
+     * @param syncWrites force every write to disk before returning, otherwise call {@link #flush()}
+     */
+    public static MappedHashStore open(Path dir, int initialCapacity, int segmentSize, boolean syncWrites) throws IOException {
+        Files.createDirectories(dir);
+        MappedHashStore store = new MappedHashStore(dir, segmentSize, syncWrites);
+        store.recover(Math.max(16, Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1));
+        return store;
+    }
+
+    //============================reads=============================
+
+    public String get(String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        State s = state;
+        long ref = find(s, k, hash(k));
+        if (ref <= 0) {
+            return null;
+        }
+        ByteBuffer record = s.log.record(ref - 1);
+        record.position(record.position() + 1);
+        record.position(record.position() + 2 + record.getShort(record.position()));
+        byte[] value = new byte[record.getInt()];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    public synchronized long size() {
+        return live;
+    }
+
+    /**
+     * @return share of the log taken by overwritten or deleted records
+     */
+    public synchronized double garbageRatio() {
+        return logEnd == 0 ? 0 : 1 - (double) liveBytes / logEnd;
+    }
+
+    public synchronized long logBytes() {
+        return logEnd;
+    }
+
+    //============================writes=============================
+
+    /**
+     * @return true if the key was absent (or deleted) and has been stored
+     */
+    public synchronized boolean putIfAbsent(String key, String value) throws IOException {
+        return write(key, value, false);
+    }
+
+    public synchronized void put(String key, String value) throws IOException {
+        write(key, value, true);
+    }
+
+    /**
+     * @return true if the key existed
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        long h = hash(k);
+        State s = state;
+        int slot = findSlot(s, k, h);
+        if (slot < 0 || ref(s.index, slot) <= 0) {
+            return false;
+        }
+        long oldRef = ref(s.index, slot);
+        long pos = append(DELETE, k, new byte[0]);
+        LONGS.setVolatile(s.index, slotOffset(slot) + 8, -(pos + 1));
+        liveBytes -= recordSize(state.log, oldRef - 1);
+        live--;
+        sync();
+        return true;
+    }
+
+    /**
+     * Forces the log written since the last flush to disk. The index is not forced,
+     * since it is rebuilt from the log after a crash anyway.
+     */
+    public synchronized void flush() {
+        if (logEnd == flushedEnd) {
+            return;
+        }
+        State s = state;
+        for (int segment = (int) (flushedEnd / segmentSize); segment <= (logEnd - 1) / segmentSize; segment++) {
+            s.log.segments[segment].force();
+        }
+        flushedEnd = logEnd;
+    }
+
+    /**
+     * Rewrites the log with live records only. Readers keep using the old files
+     * until the new ones are swapped in.
+     */
+    public synchronized void compact() throws IOException {
+        State old = state;
+        Path logTmp = dir.resolve(LOG_FILE + ".compact");
+        Path indexTmp = dir.resolve(INDEX_FILE + ".compact");
+        long capacity = old.capacity;
+        while (live + 1 > capacity * MAX_LOAD) {
+            capacity <<= 1;
+        }
+        Log log = new Log(FileChannel.open(logTmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), segmentSize);
+        State next = new State(createIndex(indexTmp, capacity), capacity, log);
+        long end = 0;
+        for (int slot = 0; slot < old.capacity; slot++) {
+            long ref = ref(old.index, slot);
+            if (ref <= 0) {
+                continue;
+            }
+            ByteBuffer record = old.log.record(ref - 1);
+            int size = RECORD_HEADER + record.getInt(record.position() - RECORD_HEADER);
+            byte[] bytes = new byte[size];
+            record.position(record.position() - RECORD_HEADER);
+            record.get(bytes);
+            end = next.log.alignForWrite(end, size);
+            next.log.write(end, bytes);
+            insertSlot(next, hash(old.index, slot), end + 1);
+            end += size;
+        }
+        for (MappedByteBuffer segment : next.log.segments) {
+            segment.force();
+        }
+        writeHeader(next.index, capacity, 0, end, live, live, end);
+        next.index.force();
+        // a crash between the two moves leaves a dirty index, which is rebuilt from the log on open
+        Files.move(logTmp, dir.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        state = next;
+        old.log.channel.close();
+        logEnd = end;
+        flushedEnd = end;
+        used = live;
+        liveBytes = end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        State s = state;
+        for (MappedByteBuffer segment : s.log.segments) {
+            segment.force();
+        }
+        writeHeader(s.index, s.capacity, 1, logEnd, used, live, liveBytes);
+        s.index.force();
+        s.log.channel.close();
+    }
+
+    private boolean write(String key, String value, boolean overwrite) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        long h = hash(k);
+        State s = state;
+        int slot = findSlot(s, k, h);
+        long oldRef = slot < 0 ? 0 : ref(s.index, slot);
+        if (oldRef > 0 && !overwrite) {
+            return false;
+        }
+        long pos = append(PUT, k, v);
+        s = state;
+        if (slot >= 0) {
+            LONGS.setVolatile(s.index, slotOffset(slot) + 8, pos + 1);
+            if (oldRef > 0) {
+                liveBytes -= recordSize(s.log, oldRef - 1);
+                live--;
+            }
+        } else {
+            if (used + 1 > s.capacity * MAX_LOAD) {
+                s = resize(s);
+            }
+            insertSlot(s, h, pos + 1);
+            used++;
+        }
+        live++;
+        liveBytes += recordSize(s.log, pos);
+        sync();
+        return true;
+    }
+
+    private long append(byte type, byte[] key, byte[] value) throws IOException {
+        int len = 1 + 2 + key.length + 4 + value.length;
+        if (key.length > Short.MAX_VALUE || RECORD_HEADER + len > segmentSize) {
+            throw new IllegalArgumentException("Record too large: " + (RECORD_HEADER + len));
+        }
+        ByteBuffer body = ByteBuffer.allocate(len);
+        body.put(type).putShort((short) key.length).put(key).putInt(value.length).put(value);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + len);
+        record.putInt(len).putInt((int) crc.getValue()).put(body.array());
+
+        State s = state;
+        long pos = s.log.alignForWrite(logEnd, record.capacity());
+        s.log.write(pos, record.array());
+        logEnd = pos + record.capacity();
+        return pos;
+    }
+
+    private void sync() {
+        if (syncWrites) {
+            flush();
+        }
+    }
+
+    //============================index=============================
+
+    /**
+     * @return the ref of the key (positive for live, negative for deleted), or 0 if absent
+     */
+    private long find(State s, byte[] key, long h) {
+        int slot = findSlot(s, key, h);
+        return slot < 0 ? 0 : ref(s.index, slot);
+    }
+
+    private int findSlot(State s, byte[] key, long h) {
+        long mask = s.capacity - 1;
+        for (long i = h & mask, n = 0; n < s.capacity; i = (i + 1) & mask, n++) {
+            int slot = (int) i;
+            long slotHash = (long) LONGS.getVolatile(s.index, slotOffset(slot));
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == h) {
+                long ref = ref(s.index, slot);
+                if (ref != 0 && s.log.keyEquals(Math.abs(ref) - 1, key)) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void insertSlot(State s, long h, long ref) {
+        long mask = s.capacity - 1;
+        for (long i = h & mask; ; i = (i + 1) & mask) {
+            int slot = (int) i;
+            if ((long) LONGS.getVolatile(s.index, slotOffset(slot)) == 0) {
+                // ref first, so a reader that sees the hash also sees the ref
+                LONGS.setVolatile(s.index, slotOffset(slot) + 8, ref);
+                LONGS.setVolatile(s.index, slotOffset(slot), h);
+                return;
+            }
+        }
+    }
+
+    private State resize(State s) throws IOException {
+        long capacity = s.capacity << 1;
+        Path tmp = dir.resolve(INDEX_FILE + ".resize");
+        State next = new State(createIndex(tmp, capacity), capacity, s.log);
+        for (int slot = 0; slot < s.capacity; slot++) {
+            long ref = ref(s.index, slot);
+            if (ref != 0) {
+                insertSlot(next, hash(s.index, slot), ref);
+            }
+        }
+        writeHeader(next.index, capacity, 0, logEnd, used, live, liveBytes);
+        Files.move(tmp, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        state = next;
+        return next;
+    }
+
+    private MappedByteBuffer createIndex(Path file, long capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + capacity * SLOT);
+            writeHeader(index, capacity, 0, 0, 0, 0, 0);
+            return index;
+        }
+    }
+
+    private static void writeHeader(MappedByteBuffer index, long capacity, long clean, long logEnd, long used, long live, long liveBytes) {
+        index.putLong(H_MAGIC, MAGIC);
+        index.putLong(H_CAPACITY, capacity);
+        index.putLong(H_CLEAN, clean);
+        index.putLong(H_LOG_END, logEnd);
+        index.putLong(H_USED, used);
+        index.putLong(H_LIVE, live);
+        index.putLong(H_LIVE_BYTES, liveBytes);
+    }
+
+    private static int slotOffset(int slot) {
+        return INDEX_HEADER + slot * SLOT;
+    }
+
+    private static long hash(MappedByteBuffer index, int slot) {
+        return (long) LONGS.getVolatile(index, slotOffset(slot));
+    }
+
+    private static long ref(MappedByteBuffer index, int slot) {
+        return (long) LONGS.getVolatile(index, slotOffset(slot) + 8);
+    }
+
+    private static int recordSize(Log log, long pos) {
+        ByteBuffer record = log.record(pos);
+        return RECORD_HEADER + record.getInt(record.position() - RECORD_HEADER);
+    }
+
+    // FNV-1a, never 0 since 0 marks an empty slot
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    //============================recovery=============================
+
+    private void recover(long initialCapacity) throws IOException {
+        Path logFile = dir.resolve(LOG_FILE);
+        Path indexFile = dir.resolve(INDEX_FILE);
+        Log log = new Log(FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), segmentSize);
+
+        if (Files.exists(indexFile)) {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() >= INDEX_HEADER) {
+                    MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                    long capacity = index.getLong(H_CAPACITY);
+                    if (index.getLong(H_MAGIC) == MAGIC && index.getLong(H_CLEAN) == 1
+                            && channel.size() == INDEX_HEADER + capacity * SLOT) {
+                        state = new State(index, capacity, log);
+                        logEnd = index.getLong(H_LOG_END);
+                        used = index.getLong(H_USED);
+                        live = index.getLong(H_LIVE);
+                        liveBytes = index.getLong(H_LIVE_BYTES);
+                        flushedEnd = logEnd;
+                        // dirty until the next clean close
+                        index.putLong(H_CLEAN, 0);
+                        index.force();
+                        return;
+                    }
+                }
+            }
+        }
+        rebuild(log, initialCapacity);
+    }
+
+    private void rebuild(Log log, long capacity) throws IOException {
+        // the existing index is dirty or unreadable, start from an empty one
+        state = new State(createIndex(dir.resolve(INDEX_FILE), capacity), capacity, log);
+        logEnd = 0;
+        used = 0;
+        live = 0;
+        liveBytes = 0;
+        long fileSize = log.channel.size();
+        long pos = 0;
+        CRC32 crc = new CRC32();
+        while (pos < fileSize) {
+            long segmentEnd = (pos / segmentSize + 1) * segmentSize;
+            int len = segmentEnd - pos < RECORD_HEADER ? 0 : log.record(pos).getInt(log.offset(pos));
+            if (len == 0) {
+                // padding at the end of a segment, or the end of the log
+                if (segmentEnd >= fileSize) {
+                    break;
+                }
+                pos = segmentEnd;
+                continue;
+            }
+            if (len < 0 || pos + RECORD_HEADER + len > segmentEnd) {
+                break;
+            }
+            ByteBuffer record = log.record(pos);
+            int expectedCrc = record.getInt(record.position() - 4);
+            byte[] body = new byte[len];
+            record.get(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            apply(body, pos);
+            pos += RECORD_HEADER + len;
+            logEnd = pos;
+        }
+        // cut off a torn tail so it can never be mistaken for a record later
+        log.zeroFrom(logEnd);
+        flushedEnd = logEnd;
+        for (MappedByteBuffer segment : log.segments) {
+            segment.force();
+        }
+        writeHeader(state.index, state.capacity, 0, logEnd, used, live, liveBytes);
+        state.index.force();
+    }
+
+    private void apply(byte[] body, long pos) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(body);
+        byte type = b.get();
+        byte[] key = new byte[b.getShort()];
+        b.get(key);
+        long h = hash(key);
+        State s = state;
+        int slot = findSlot(s, key, h);
+        long oldRef = slot < 0 ? 0 : ref(s.index, slot);
+        if (oldRef > 0) {
+            liveBytes -= recordSize(s.log, oldRef - 1);
+            live--;
+        }
+        if (type == DELETE) {
+            if (slot >= 0) {
+                LONGS.setVolatile(s.index, slotOffset(slot) + 8, -(pos + 1));
+            }
+            return;
+        }
+        if (slot >= 0) {
+            LONGS.setVolatile(s.index, slotOffset(slot) + 8, pos + 1);
+        } else {
+            if (used + 1 > s.capacity * MAX_LOAD) {
+                s = resize(s);
+            }
+            insertSlot(s, h, pos + 1);
+            used++;
+        }
+        live++;
+        liveBytes += RECORD_HEADER + body.length;
+    }
+
+    //============================state=============================
+
+    private static final class State {
+        private final MappedByteBuffer index;
+        private final long capacity;
+        private final Log log;
+
+        private State(MappedByteBuffer index, long capacity, Log log) {
+            this.index = index;
+            this.capacity = capacity;
+            this.log = log;
+        }
+    }
+
+    private static final class Log {
+        private final FileChannel channel;
+        private final int segmentSize;
+        private volatile MappedByteBuffer[] segments;
+
+        private Log(FileChannel channel, int segmentSize) throws IOException {
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+            int count = (int) ((channel.size() + segmentSize - 1) / segmentSize);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                mapped[i] = map(i);
+            }
+            this.segments = mapped;
+        }
+
+        private MappedByteBuffer map(int segment) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) segment * segmentSize, segmentSize);
+        }
+
+        private int offset(long pos) {
+            return (int) (pos % segmentSize);
+        }
+
+        /**
+         * @return a view positioned after the record header (length, crc) of the record at pos
+         */
+        private ByteBuffer record(long pos) {
+            ByteBuffer b = segments[(int) (pos / segmentSize)].duplicate();
+            b.position(offset(pos) + RECORD_HEADER);
+            return b;
+        }
+
+        private boolean keyEquals(long pos, byte[] key) {
+            ByteBuffer b = record(pos);
+            b.position(b.position() + 1);
+            if (b.getShort() != key.length) {
+                return false;
+            }
+            for (byte k : key) {
+                if (b.get() != k) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return pos, or the start of the next segment if the record does not fit
+         */
+        private long alignForWrite(long pos, int size) throws IOException {
+            long segmentEnd = (pos / segmentSize + 1) * segmentSize;
+            if (pos + size > segmentEnd) {
+                pos = segmentEnd;
+            }
+            int segment = (int) (pos / segmentSize);
+            if (segment >= segments.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+                grown[segment] = map(segment);
+                segments = grown;
+            }
+            return pos;
+        }
+
+        private void write(long pos, byte[] bytes) {
+            ByteBuffer b = segments[(int) (pos / segmentSize)].duplicate();
+            b.position(offset(pos));
+            b.put(bytes);
+        }
+
+        private void zeroFrom(long from) {
+            for (int segment = (int) (from / segmentSize); segment < segments.length; segment++) {
+                ByteBuffer b = segments[segment].duplicate();
+                b.position(segment == from / segmentSize ? offset(from) : 0);
+                while (b.hasRemaining()) {
+                    // only touch dirty bytes, so untouched pages of a sparse file stay unallocated
+                    if (b.get(b.position()) != 0) {
+                        b.put(b.position(), (byte) 0);
+                    }
+                    b.position(b.position() + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.handson.tinyurl.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of opaque records in memory-mapped segment files
+ * (journal-00000000000000000042.seg), with a consumer checkpoint.
+ *
+ * A record is int length, int CRC32, payload, and never spans two segments: when
+ * it does not fit, the rest of the segment is left zeroed and the writer moves on
+ * to the next one. Positions are global, segment index * segment size + offset.
+ *
+ * An append is a copy into the page cache, so it survives a process crash as soon
+ * as it returns; {@link #flush()} forces the segments to disk for power loss (group
+ * commit). On open, the tail of the last segment is scanned and cut at the first
+ * record that is incomplete or fails its CRC.
+ *
+ * Appends are serialized by a lock. A single consumer reads with {@link #read},
+ * records its progress with {@link #checkpoint} and deletes consumed segments
+ * with {@link #compact()}. A consumer whose side effects are keyed by batch end
+ * pins the end with {@link #begin} before applying a batch, and after a failure
+ * or restart re-reads exactly that batch with {@link #readTo}.
+ */
+public class MappedJournal implements Closeable {
+
+    public static final String CHECKPOINT_FILE = "checkpoint";
+    public static final String PENDING_FILE = "pending";
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER = 8;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // guarded by this
+    private Segment head;
+    private long flushedPosition;
+
+    // everything below was completely written, readers never go past it
+    private volatile long writePosition;
+    private volatile long checkpoint;
+    // end of the batch being applied, not above checkpoint when there is none
+    private volatile long pending;
+
+    private MappedJournal(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @param segmentSize size of each segment file, also the maximum record size
+     */
+    public static MappedJournal open(Path dir, int segmentSize) throws IOException {
+        Files.createDirectories(dir);
+        MappedJournal journal = new MappedJournal(dir, segmentSize);
+        journal.recover();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(index, Segment.open(segmentFile(index), index, segmentSize));
+                }
+            }
+        }
+        checkpoint = readPosition(CHECKPOINT_FILE);
+        pending = readPosition(PENDING_FILE);
+        if (segments.isEmpty()) {
+            long index = checkpoint / segmentSize;
+            segments.put(index, Segment.open(segmentFile(index), index, segmentSize));
+        }
+        head = segments.lastEntry().getValue();
+        int end = scanEnd(head);
+        zeroFrom(head, end);
+        writePosition = head.index * (long) segmentSize + end;
+        flushedPosition = writePosition;
+        if (checkpoint > writePosition || checkpoint < segments.firstKey() * (long) segmentSize) {
+            // checkpoint from another journal or lost segments, replay what is there
+            checkpoint = segments.firstKey() * (long) segmentSize;
+        }
+        // records cut from the tail are gone, the rest of the batch is still applied as one
+        pending = Math.min(pending, writePosition);
+    }
+
+    // offset after the last valid record of the segment
+    private static int scanEnd(Segment segment) {
+        ByteBuffer b = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + RECORD_HEADER <= b.capacity()) {
+            int length = b.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > b.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            b.position(offset + RECORD_HEADER);
+            b.get(payload);
+            if (crc(payload) != b.getInt(offset + 4)) {
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+        return offset;
+    }
+
+    private static void zeroFrom(Segment segment, int from) {
+        ByteBuffer b = segment.buffer;
+        for (int i = from; i < b.capacity(); i++) {
+            // only touch dirty bytes, so untouched pages of the sparse file stay unallocated
+            if (b.get(i) != 0) {
+                b.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return the position after the record
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        int size = RECORD_HEADER + payload.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit in a segment");
+        }
+        int offset = (int) (writePosition - head.index * (long) segmentSize);
+        if (offset + size > segmentSize) {
+            // the reader sees a zero length and moves on to the next segment; the old
+            // segment is forced by the next flush, which starts at the flushed position
+            long index = head.index + 1;
+            head = Segment.open(segmentFile(index), index, segmentSize);
+            segments.put(index, head);
+            offset = 0;
+        }
+        ByteBuffer b = head.buffer.duplicate();
+        b.position(offset + RECORD_HEADER);
+        b.put(payload);
+        b.putInt(offset + 4, crc(payload));
+        b.putInt(offset, payload.length);
+        writePosition = head.index * (long) segmentSize + offset + size;
+        return writePosition;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void flush() {
+        long target;
+        long from;
+        synchronized (this) {
+            target = writePosition;
+            from = flushedPosition;
+        }
+        if (target == from) {
+            return;
+        }
+        for (Segment segment : segments.subMap(from / segmentSize, true, target / segmentSize, true).values()) {
+            segment.buffer.force();
+        }
+        synchronized (this) {
+            flushedPosition = Math.max(flushedPosition, target);
+        }
+    }
+
+    /**
+     * Reads up to max records starting at position.
+     */
+    public Batch read(long position, int max) {
+        return read(position, max, writePosition);
+    }
+
+    /**
+     * Reads all records from position up to end, which must be a batch end
+     * returned by an earlier read.
+     */
+    public Batch readTo(long position, long end) {
+        return read(position, Integer.MAX_VALUE, Math.min(end, writePosition));
+    }
+
+    private Batch read(long position, int max, long end) {
+        List<byte[]> records = new ArrayList<>();
+        while (records.size() < max && position < end) {
+            long index = position / segmentSize;
+            int offset = (int) (position % segmentSize);
+            Segment segment = segments.get(index);
+            if (segment == null) {
+                // compacted away underneath us, continue with what is left
+                Long next = segments.ceilingKey(index + 1);
+                if (next == null) {
+                    break;
+                }
+                position = next * (long) segmentSize;
+                continue;
+            }
+            int length = offset + RECORD_HEADER <= segmentSize ? segment.buffer.getInt(offset) : 0;
+            if (length == 0) {
+                position = (index + 1) * (long) segmentSize;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer b = segment.buffer.duplicate();
+            b.position(offset + RECORD_HEADER);
+            b.get(payload);
+            records.add(payload);
+            position += RECORD_HEADER + length;
+        }
+        return new Batch(records, position);
+    }
+
+    /**
+     * Records that everything before position has been consumed.
+     */
+    public void checkpoint(long position) throws IOException {
+        writePosition(CHECKPOINT_FILE, position);
+        checkpoint = position;
+    }
+
+    /**
+     * Records that the batch ending at end is about to be applied, so it is the
+     * next one read even if more records are appended before the checkpoint.
+     */
+    public void begin(long end) throws IOException {
+        writePosition(PENDING_FILE, end);
+        pending = end;
+    }
+
+    /**
+     * @return end of the batch begun but not checkpointed, or -1 if there is none
+     */
+    public long getPending() {
+        long end = pending;
+        return end > checkpoint ? end : -1;
+    }
+
+    private void writePosition(String name, long position) throws IOException {
+        Path tmp = dir.resolve(name + ".tmp");
+        ByteBuffer b = ByteBuffer.allocate(12).putLong(position).putInt(crc(ByteBuffer.allocate(8).putLong(position).array()));
+        Files.write(tmp, b.array(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                StandardOpenOption.SYNC);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long readPosition(String name) throws IOException {
+        Path file = dir.resolve(name);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (b.remaining() != 12) {
+            return 0;
+        }
+        long position = b.getLong();
+        return crc(ByteBuffer.allocate(8).putLong(position).array()) == b.getInt() ? position : 0;
+    }
+
+    /**
+     * Deletes the segments that lie entirely before the checkpoint.
+     * @return number of segments deleted
+     */
+    public int compact() throws IOException {
+        int deleted = 0;
+        for (Map.Entry<Long, Segment> entry : segments.headMap(checkpoint / segmentSize).entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment == head) {
+                break;
+            }
+            segments.remove(entry.getKey());
+            segment.close();
+            Files.deleteIfExists(segment.file);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return bytes appended but not yet consumed
+     */
+    public long backlog() {
+        return writePosition - checkpoint;
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private Path segmentFile(long index) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    public static final class Batch {
+        private final List<byte[]> records;
+        private final long end;
+
+        private Batch(List<byte[]> records, long end) {
+            this.records = records;
+            this.end = end;
+        }
+
+        public List<byte[]> getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the position to continue reading from, and to checkpoint once the records are applied
+         */
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path file, long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(Path file, long index, int size) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+}
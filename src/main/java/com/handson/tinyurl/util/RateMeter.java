@@ -0,0 +1,68 @@
+package com.handson.tinyurl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Events per second, as an exponentially weighted moving average over one-second
+ * ticks. Marking is a LongAdder increment; the average is folded forward lazily
+ * by whichever caller first notices that a tick has passed.
+ */
+public class RateMeter {
+
+    private static final long TICK_NANOS = 1_000_000_000L;
+
+    // weight of the last second, about a 5 second time constant
+    private final double alpha;
+    private final LongAdder current = new LongAdder();
+    private final AtomicLong tickStart;
+    private volatile double rate;
+    private volatile long lastMarkNanos;
+
+    public RateMeter() {
+        this(0.2);
+    }
+
+    public RateMeter(double alpha) {
+        this.alpha = alpha;
+        long now = System.nanoTime();
+        this.tickStart = new AtomicLong(now);
+        this.lastMarkNanos = now;
+    }
+
+    public void mark(long count) {
+        long now = System.nanoTime();
+        tick(now);
+        current.add(count);
+        lastMarkNanos = now;
+    }
+
+    /**
+     * @return events per second
+     */
+    public double rate() {
+        tick(System.nanoTime());
+        return rate;
+    }
+
+    public long idleNanos() {
+        return System.nanoTime() - lastMarkNanos;
+    }
+
+    private void tick(long now) {
+        long start = tickStart.get();
+        long elapsed = now - start;
+        if (elapsed < TICK_NANOS) {
+            return;
+        }
+        long ticks = elapsed / TICK_NANOS;
+        if (!tickStart.compareAndSet(start, start + ticks * TICK_NANOS)) {
+            return;
+        }
+        double r = rate;
+        r += alpha * (current.sumThenReset() - r);
+        // seconds without any event decay the average too
+        r *= Math.pow(1 - alpha, ticks - 1);
+        rate = r;
+    }
+}
@@ -0,0 +1,191 @@
+package com.handson.tinyurl.util;
+
+import com.handson.tinyurl.model.RedirectRule;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@link RedirectRule}s of a link compiled into flat arrays: countries as
+ * upper-case codes, devices as a bit mask, and splits as cumulative weights.
+ * Immutable, so one instance is shared by all requests for the link. Resolving
+ * walks the rules in order, the User-Agent is only classified once a device rule
+ * is reached. A/B splits hash the visitor's IP and User-Agent, so a visitor keeps
+ * seeing the same variant.
+ */
+public final class RedirectRules {
+
+    private static final List<String> DEVICES = List.of("mobile", "tablet", "desktop", "bot", "other", UserAgentParser.UNKNOWN);
+
+    private final String defaultUrl;
+    private final Rule[] rules;
+    private final boolean usesCountry;
+
+    private RedirectRules(String defaultUrl, Rule[] rules) {
+        this.defaultUrl = defaultUrl;
+        this.rules = rules;
+        boolean country = false;
+        for (Rule rule : rules) {
+            country |= rule.countries != null;
+        }
+        this.usesCountry = country;
+    }
+
+    /**
+     * @param defaultUrl where visitors no rule matches go
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static RedirectRules compile(String defaultUrl, List<RedirectRule> rules) {
+        if (rules == null || rules.isEmpty()) {
+            return new RedirectRules(defaultUrl, new Rule[0]);
+        }
+        Rule[] compiled = new Rule[rules.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(rules.get(i), i);
+        }
+        return new RedirectRules(defaultUrl, compiled);
+    }
+
+    private static Rule compile(RedirectRule rule, int index) {
+        String at = "rule " + index + ": ";
+        if (rule == null) {
+            throw new IllegalArgumentException(at + "empty");
+        }
+        String[] countries = null;
+        if (rule.getCountries() != null) {
+            if (rule.getCountries().isEmpty()) {
+                throw new IllegalArgumentException(at + "countries is empty, leave it out to match any country");
+            }
+            countries = new String[rule.getCountries().size()];
+            for (int i = 0; i < countries.length; i++) {
+                countries[i] = String.valueOf(rule.getCountries().get(i)).trim().toUpperCase(Locale.ROOT);
+            }
+        }
+        int deviceMask = 0;
+        if (rule.getDevices() != null) {
+            if (rule.getDevices().isEmpty()) {
+                throw new IllegalArgumentException(at + "devices is empty, leave it out to match any device");
+            }
+            for (String device : rule.getDevices()) {
+                int bit = device == null ? -1 : DEVICES.indexOf(device.trim().toLowerCase(Locale.ROOT));
+                if (bit < 0) {
+                    throw new IllegalArgumentException(at + "unknown device " + device + ", expected one of " + DEVICES);
+                }
+                deviceMask |= 1 << bit;
+            }
+        }
+        boolean hasSplit = rule.getSplit() != null && !rule.getSplit().isEmpty();
+        if ((rule.getLongUrl() != null) == hasSplit) {
+            throw new IllegalArgumentException(at + "needs either longUrl or split");
+        }
+        if (!hasSplit) {
+            return new Rule(countries, deviceMask, new String[]{checkUrl(at, rule.getLongUrl())}, new int[]{1});
+        }
+        String[] urls = new String[rule.getSplit().size()];
+        int[] cumulative = new int[urls.length];
+        long total = 0;
+        for (int i = 0; i < urls.length; i++) {
+            RedirectRule.Target target = rule.getSplit().get(i);
+            if (target == null || target.getWeight() <= 0) {
+                throw new IllegalArgumentException(at + "split weights must be positive");
+            }
+            urls[i] = checkUrl(at, target.getLongUrl());
+            total += target.getWeight();
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(at + "split weights are too large");
+            }
+            cumulative[i] = (int) total;
+        }
+        return new Rule(countries, deviceMask, urls, cumulative);
+    }
+
+    private static String checkUrl(String at, String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            throw new IllegalArgumentException(at + "longUrl must be an http(s) URL: " + url);
+        }
+        return url;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * @return whether resolve needs the visitor's country, so callers can skip reading it
+     */
+    public boolean usesCountry() {
+        return usesCountry;
+    }
+
+    /**
+     * @param country ISO 3166 alpha-2 code, null if unknown
+     * @return the destination of this visitor
+     */
+    public String resolve(String country, String userAgent, String ip) {
+        int device = 0;
+        for (Rule rule : rules) {
+            if (rule.countries != null && !rule.matchesCountry(country)) {
+                continue;
+            }
+            if (rule.deviceMask != 0) {
+                if (device == 0) {
+                    device = 1 << DEVICES.indexOf(UserAgentParser.device(userAgent));
+                }
+                if ((rule.deviceMask & device) == 0) {
+                    continue;
+                }
+            }
+            return rule.target(ip, userAgent);
+        }
+        return defaultUrl;
+    }
+
+    private static final class Rule {
+        private final String[] countries;
+        private final int deviceMask;
+        private final String[] urls;
+        private final int[] cumulativeWeights;
+
+        private Rule(String[] countries, int deviceMask, String[] urls, int[] cumulativeWeights) {
+            this.countries = countries;
+            this.deviceMask = deviceMask;
+            this.urls = urls;
+            this.cumulativeWeights = cumulativeWeights;
+        }
+
+        private boolean matchesCountry(String country) {
+            if (country == null) {
+                return false;
+            }
+            for (String candidate : countries) {
+                if (candidate.equalsIgnoreCase(country)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String target(String ip, String userAgent) {
+            if (urls.length == 1) {
+                return urls[0];
+            }
+            int total = cumulativeWeights[cumulativeWeights.length - 1];
+            int bucket = Math.floorMod(mix(31 * (ip == null ? 0 : ip.hashCode()) + (userAgent == null ? 0 : userAgent.hashCode())), total);
+            int i = 0;
+            while (bucket >= cumulativeWeights[i]) {
+                i++;
+            }
+            return urls[i];
+        }
+
+        // murmur3 finalizer, spreads similar IPs over the whole range
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.handson.tinyurl.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event of one request, with the time it spent in each backend.
+ * The handler starts it with {@link #start}, the storage layers add their time to
+ * the thread's current event with {@link #addRedis} and friends (a no-op outside a
+ * request), and {@link #finish} commits it if it is over the recording's threshold.
+ */
+@Name("com.handson.tinyurl.Request")
+@Label("Tinyurl Request")
+@Category({"Tinyurl"})
+@StackTrace(false)
+@Threshold("50 ms")
+public class RequestEvent extends Event {
+
+    private static final ThreadLocal<RequestEvent> CURRENT = new ThreadLocal<>();
+
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Tiny Code")
+    private String tiny;
+
+    @Label("User Name")
+    private String userName;
+
+    @Label("Redis")
+    @Timespan
+    private long redis;
+
+    @Label("Cassandra")
+    @Timespan
+    private long cassandra;
+
+    @Label("MongoDB")
+    @Timespan
+    private long mongo;
+
+    @Label("Click Recording")
+    @Description("Handing the click to the journal or the background writers")
+    @Timespan
+    private long clickRecording;
+
+    @Label("Serialization")
+    @Description("JSON (de)serialization and output mapping in the handler")
+    @Timespan
+    private long serialization;
+
+    @Label("Results")
+    private int results;
+
+    public static RequestEvent start(String endpoint, String tiny, String userName) {
+        RequestEvent event = new RequestEvent();
+        if (event.isEnabled()) {
+            event.endpoint = endpoint;
+            event.tiny = tiny;
+            event.userName = userName;
+            CURRENT.set(event);
+            event.begin();
+        }
+        return event;
+    }
+
+    public void finish() {
+        if (!isEnabled()) {
+            return;
+        }
+        CURRENT.remove();
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+
+    public static void addRedis(long nanos) {
+        RequestEvent event = CURRENT.get();
+        if (event != null) {
+            event.redis += nanos;
+        }
+    }
+
+    public static void addCassandra(long nanos) {
+        RequestEvent event = CURRENT.get();
+        if (event != null) {
+            event.cassandra += nanos;
+        }
+    }
+
+    public static void addMongo(long nanos) {
+        RequestEvent event = CURRENT.get();
+        if (event != null) {
+            event.mongo += nanos;
+        }
+    }
+
+    public void setTiny(String tiny) {
+        this.tiny = tiny;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public void addClickRecording(long nanos) {
+        clickRecording += nanos;
+    }
+
+    public void addSerialization(long nanos) {
+        serialization += nanos;
+    }
+
+    public void setResults(int results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,59 @@
+package com.handson.tinyurl.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the Murmur3 token ring into contiguous ranges, for full-table jobs that
+ * scan with WHERE token(pk) &gt; start AND token(pk) &lt;= end. Murmur3 never hands
+ * out Long.MIN_VALUE, so the first range starting there (exclusive) loses nothing.
+ */
+public final class TokenRanges {
+
+    private TokenRanges() {
+    }
+
+    public static List<Range> split(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        BigInteger width = BigInteger.valueOf(Long.MAX_VALUE).subtract(min);
+        List<Range> res = new ArrayList<>(count);
+        long start = Long.MIN_VALUE;
+        for (int i = 1; i <= count; i++) {
+            long end = i == count ? Long.MAX_VALUE
+                    : min.add(width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count))).longValueExact();
+            res.add(new Range(start, end));
+            start = end;
+        }
+        return res;
+    }
+
+    /**
+     * (start, end]
+     */
+    public static final class Range {
+        private final long start;
+        private final long end;
+
+        private Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + start + ", " + end + "]";
+        }
+    }
+}
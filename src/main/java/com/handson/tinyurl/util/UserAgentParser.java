@@ -0,0 +1,140 @@
+package com.handson.tinyurl.util;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Coarse User-Agent, referrer and IP classification for click analytics.
+ * Only a device class and a browser family are extracted, which is all the click
+ * rows need and keeps this cheap compared to a full UA database.
+ */
+public class UserAgentParser {
+
+    public static final String UNKNOWN = "unknown";
+
+    // order matters, most UAs also claim to be the browsers they derive from
+    private static final String[][] BROWSERS = {
+            {"edg/", "Edge"}, {"edge/", "Edge"}, {"opr/", "Opera"}, {"opera", "Opera"},
+            {"samsungbrowser", "Samsung Internet"}, {"yabrowser", "Yandex"}, {"ucbrowser", "UC Browser"},
+            {"fbav", "Facebook"}, {"instagram", "Instagram"}, {"crios", "Chrome"}, {"chrome/", "Chrome"},
+            {"chromium", "Chrome"}, {"fxios", "Firefox"}, {"firefox/", "Firefox"}, {"msie ", "Internet Explorer"},
+            {"trident/", "Internet Explorer"}, {"safari/", "Safari"}, {"curl/", "curl"}, {"wget/", "Wget"},
+            {"python-requests", "Python"}, {"java/", "Java"}, {"okhttp", "OkHttp"}};
+
+    private static final String[] BOTS = {"bot", "crawler", "spider", "slurp", "facebookexternalhit", "preview", "headless"};
+
+    public static final class Parsed {
+        private final String device;
+        private final String browser;
+
+        public Parsed(String device, String browser) {
+            this.device = device;
+            this.browser = browser;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getBrowser() {
+            return browser;
+        }
+    }
+
+    public static Parsed parse(String userAgent) {
+        if (userAgent == null || userAgent.isEmpty()) {
+            return new Parsed(UNKNOWN, UNKNOWN);
+        }
+        String ua = userAgent.toLowerCase(Locale.ROOT);
+        return new Parsed(deviceOfLowerCase(ua), browser(ua));
+    }
+
+    /**
+     * The device class alone, for callers that do not need the browser.
+     */
+    public static String device(String userAgent) {
+        if (userAgent == null || userAgent.isEmpty()) {
+            return UNKNOWN;
+        }
+        return deviceOfLowerCase(userAgent.toLowerCase(Locale.ROOT));
+    }
+
+    private static String deviceOfLowerCase(String ua) {
+        for (String bot : BOTS) {
+            if (ua.contains(bot)) {
+                return "bot";
+            }
+        }
+        if (ua.contains("ipad") || ua.contains("tablet") || (ua.contains("android") && !ua.contains("mobile"))) {
+            return "tablet";
+        }
+        if (ua.contains("mobi") || ua.contains("iphone") || ua.contains("ipod") || ua.contains("android")) {
+            return "mobile";
+        }
+        if (ua.contains("windows") || ua.contains("macintosh") || ua.contains("x11") || ua.contains("cros")) {
+            return "desktop";
+        }
+        return "other";
+    }
+
+    private static String browser(String ua) {
+        for (String[] browser : BROWSERS) {
+            if (ua.contains(browser[0])) {
+                return browser[1];
+            }
+        }
+        return "other";
+    }
+
+    /**
+     * @return the host of the referrer URL, null when absent or not a URL
+     */
+    public static String referrerHost(String referrer) {
+        if (referrer == null || referrer.isEmpty()) {
+            return null;
+        }
+        try {
+            String host = URI.create(referrer.trim()).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * IPv4 addresses are cut to their /24 and IPv6 to their /48, so the rows keep
+     * the network but not the visitor. Anything else yields null.
+     */
+    public static String ipPrefix(String ip) {
+        if (ip == null) {
+            return null;
+        }
+        if (ip.indexOf(':') < 0) {
+            String[] octets = ip.split("\\.");
+            if (octets.length != 4) {
+                return null;
+            }
+            for (String octet : octets) {
+                if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(Character::isDigit)) {
+                    return null;
+                }
+            }
+            return octets[0] + "." + octets[1] + "." + octets[2] + ".0/24";
+        }
+        // expand the first three hextets of the IPv6 address
+        String[] halves = ip.split("::", -1);
+        if (halves.length > 2) {
+            return null;
+        }
+        String[] head = halves[0].isEmpty() ? new String[0] : halves[0].split(":");
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            String hextet = i < head.length ? head[i] : (halves.length == 2 ? "0" : null);
+            if (hextet == null || hextet.isEmpty() || hextet.length() > 4 || !hextet.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+                return null;
+            }
+            res.append(Integer.toHexString(Integer.parseInt(hextet, 16))).append(':');
+        }
+        return res.append(":/48").toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.handson.tinyurl.benchmark;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.handson.tinyurl.config.CassandraProfiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Click history read and click write latency with the driver defaults against the
+ * click-read / click-write execution profiles of {@link CassandraProfiles}.
+ * Sample mode, so JMH reports the p99 (and p99.9) next to the mean.
+ * Needs a Cassandra at -Dbenchmark.cassandra (default cassandra://127.0.0.1:9042, datacenter1),
+ * the tables are created in a tinyurl_benchmark keyspace. Profile settings can be
+ * overridden with -Dcassandra.profile.click-read.speculative-delay-ms=... and so on.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.handson.tinyurl.benchmark.CassandraProfileBenchmark
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CassandraProfileBenchmark {
+
+    private static final String KEYSPACE = "tinyurl_benchmark";
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"200"})
+    public int clicksPerUser;
+
+    private CqlSession session;
+    private PreparedStatement insert;
+    private PreparedStatement history;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        URI uri = URI.create(System.getProperty("benchmark.cassandra", "cassandra://127.0.0.1:9042"));
+        session = CqlSession.builder()
+                .addContactPoint(new InetSocketAddress(uri.getHost(), uri.getPort()))
+                .withLocalDatacenter(System.getProperty("benchmark.datacenter", "datacenter1"))
+                .withConfigLoader(CassandraProfiles.loader(new StandardEnvironment()))
+                .build();
+        session.execute("CREATE KEYSPACE IF NOT EXISTS " + KEYSPACE
+                + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}");
+        session.execute("CREATE TABLE IF NOT EXISTS " + KEYSPACE + ".userclick (user_name text, click_time timestamp, tiny text, longurl text,"
+                + " PRIMARY KEY (user_name, click_time)) WITH CLUSTERING ORDER BY (click_time DESC)");
+        insert = session.prepare("INSERT INTO " + KEYSPACE + ".userclick (user_name, click_time, tiny, longurl) VALUES (?, ?, ?, ?)");
+        history = session.prepare("SELECT * FROM " + KEYSPACE + ".userclick WHERE user_name = ?");
+        long now = System.currentTimeMillis();
+        for (int u = 0; u < users; u++) {
+            List<CompletableFuture<AsyncResultSet>> pending = new ArrayList<>();
+            for (int c = 0; c < clicksPerUser; c++) {
+                pending.add(session.executeAsync(insert.bind(user(u), Instant.ofEpochMilli(now - c * 1000L), "bench" + c, "https://example.com/" + c))
+                        .toCompletableFuture());
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.execute("DROP KEYSPACE IF EXISTS " + KEYSPACE);
+        session.close();
+    }
+
+    @Benchmark
+    public int readDefault() {
+        return readAll(session.execute(history.bind(randomUser())));
+    }
+
+    @Benchmark
+    public int readProfile() {
+        return readAll(session.execute(history.bind(randomUser()).setExecutionProfileName(CassandraProfiles.CLICK_READ)));
+    }
+
+    @Benchmark
+    public boolean writeDefault() {
+        return session.execute(insert.bind(randomUser(), Instant.now(), "bench", "https://example.com/")).wasApplied();
+    }
+
+    @Benchmark
+    public boolean writeProfile() {
+        return session.execute(insert.bind(randomUser(), Instant.now(), "bench", "https://example.com/")
+                .setExecutionProfileName(CassandraProfiles.CLICK_WRITE)).wasApplied();
+    }
+
+    // the whole history, every page, like getUserClicks
+    private static int readAll(ResultSet rs) {
+        int rows = 0;
+        for (Row ignored : rs) {
+            rows++;
+        }
+        return rows;
+    }
+
+    private String randomUser() {
+        return user(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private static String user(int i) {
+        return "user" + i;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CassandraProfileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,140 @@
+package com.handson.tinyurl.benchmark;
+
+import com.handson.tinyurl.model.UserClick;
+import com.handson.tinyurl.service.ClickEnricher;
+import com.handson.tinyurl.storage.ClickSink;
+import com.handson.tinyurl.util.UserAgentParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static com.handson.tinyurl.model.UserClick.UserClickBuilder.anUserClick;
+import static com.handson.tinyurl.model.UserClickKey.UserClickKeyBuilder.anUserClickKey;
+
+/**
+ * Click enrichment throughput: parsing every User-Agent against going through the
+ * LRU cache of {@link ClickEnricher}, a full row enrichment, and the whole pool (submit to a sink that
+ * only counts) as seen from the redirect path.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.handson.tinyurl.benchmark.ClickEnrichmentBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ClickEnrichmentBenchmark {
+
+    private static final String[] USER_AGENTS = {
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36 Edg/91.0.864.59",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/14.1.1 Safari/605.1.15",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 14_6 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/14.1.1 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (Linux; Android 11; SM-G991B) AppleWebKit/537.36 (KHTML, like Gecko) SamsungBrowser/14.2 Chrome/87.0.4280.141 Mobile Safari/537.36",
+            "Mozilla/5.0 (iPad; CPU OS 14_6 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) CriOS/91.0.4472.80 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:89.0) Gecko/20100101 Firefox/89.0",
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+            "facebookexternalhit/1.1 (+http://www.facebook.com/externalhit_uatext.php)",
+            "curl/7.68.0"};
+
+    private final LongAdder written = new LongAdder();
+    private ClickEnricher enricher;
+    private List<String> userAgents;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // a few hundred distinct versions, like real traffic
+        userAgents = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            userAgents.add(USER_AGENTS[i % USER_AGENTS.length].replace(".0", "." + i));
+        }
+        enricher = new ClickEnricher();
+        ReflectionTestUtils.setField(enricher, "clickSink", new ClickSink() {
+            @Override
+            public void record(UserClick click) {
+                written.increment();
+            }
+
+            @Override
+            public void recordAll(List<UserClick> clicks) {
+                written.add(clicks.size());
+            }
+
+            @Override
+            public Iterable<UserClick> findByUserName(String userName) {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public Stream<UserClick> streamByUserName(String userName, Date from, Date to) {
+                return Stream.empty();
+            }
+        });
+        ReflectionTestUtils.setField(enricher, "threads", 2);
+        ReflectionTestUtils.setField(enricher, "queueSize", 10000);
+        ReflectionTestUtils.setField(enricher, "uaCacheSize", 10000);
+        enricher.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        enricher.shutdown();
+    }
+
+    @Benchmark
+    public UserAgentParser.Parsed parseUncached() {
+        return UserAgentParser.parse(userAgent());
+    }
+
+    @Benchmark
+    public UserAgentParser.Parsed parseCached() {
+        return enricher.parseUserAgent(userAgent());
+    }
+
+    @Benchmark
+    public UserClick enrich() {
+        return enricher.enrich(click(), userAgent(), "https://www.facebook.com/some/post?id=1", "203.0.113.42");
+    }
+
+    @Benchmark
+    public void submit() {
+        enricher.submit(click(), userAgent(), "https://t.co/abc", "2001:db8:85a3::8a2e:370:7334");
+    }
+
+    private String userAgent() {
+        return userAgents.get(ThreadLocalRandom.current().nextInt(userAgents.size()));
+    }
+
+    private static UserClick click() {
+        return anUserClick()
+                .userClickKey(anUserClickKey().withUserName("benchmark").withClickTime(new Date()).build())
+                .tiny("abc123")
+                .longUrl("https://www.example.com/")
+                .build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ClickEnrichmentBenchmark.class.getSimpleName()).build()).run();
+    }
+}
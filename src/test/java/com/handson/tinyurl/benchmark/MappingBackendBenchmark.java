@@ -0,0 +1,112 @@
+package com.handson.tinyurl.benchmark;
+
+import com.handson.tinyurl.util.MappedHashStore;
+import io.lettuce.core.RedisURI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * get / set-if-absent throughput of the embedded mapping engine against Redis,
+ * both used the way TinyMappingService uses them.
+ * The Redis benchmarks need a Redis at -Dbenchmark.redis (default redis://localhost:6379).
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.handson.tinyurl.benchmark.MappingBackendBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class MappingBackendBenchmark {
+
+    private static final String PAYLOAD = "{\"longUrl\":\"https://www.example.com/some/long/path?with=query&and=more\",\"userName\":\"benchmark\"}";
+
+    @Param({"100000"})
+    public int keys;
+
+    private Path dir;
+    private MappedHashStore store;
+    private LettuceConnectionFactory factory;
+    private RedisTemplate<Object, Object> redis;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("mapping-benchmark");
+        store = MappedHashStore.open(dir, keys * 2, 64 << 20, false);
+        RedisURI uri = RedisURI.create(System.getProperty("benchmark.redis", "redis://localhost:6379"));
+        factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(uri.getHost(), uri.getPort()));
+        factory.afterPropertiesSet();
+        redis = new RedisTemplate<>();
+        redis.setConnectionFactory(factory);
+        redis.afterPropertiesSet();
+        for (int i = 0; i < keys; i++) {
+            store.putIfAbsent(key(i), PAYLOAD);
+            redis.opsForValue().set(key(i), PAYLOAD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        factory.destroy();
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public Object embeddedGet() {
+        return store.get(key(ThreadLocalRandom.current().nextInt(keys)));
+    }
+
+    @Benchmark
+    public boolean embeddedSet() throws IOException {
+        return store.putIfAbsent("new" + sequence.incrementAndGet(), PAYLOAD);
+    }
+
+    @Benchmark
+    public Object redisGet() {
+        return redis.opsForValue().get(key(ThreadLocalRandom.current().nextInt(keys)));
+    }
+
+    @Benchmark
+    public Boolean redisSet() {
+        return redis.opsForValue().setIfAbsent("new" + sequence.incrementAndGet(), PAYLOAD);
+    }
+
+    private static String key(int i) {
+        return "k" + i;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MappingBackendBenchmark.class.getSimpleName()).build()).run();
+    }
+}
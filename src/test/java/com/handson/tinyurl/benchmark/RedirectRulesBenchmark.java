@@ -0,0 +1,107 @@
+package com.handson.tinyurl.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.handson.tinyurl.model.NewTinyRequest;
+import com.handson.tinyurl.service.CompiledMappings;
+import com.handson.tinyurl.util.RedirectRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a redirect pays to pick its destination: parsing the payload on every
+ * request (before compiled mappings), a link without rules, and links with
+ * country rules, a device rule and a weighted A/B split, all through
+ * {@link CompiledMappings} as in getTiny.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.handson.tinyurl.benchmark.RedirectRulesBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedirectRulesBenchmark {
+
+    private static final String USER_AGENT =
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 14_6 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/14.1.1 Mobile/15E148 Safari/604.1";
+    private static final String IP = "203.0.113.57";
+
+    private static final String PLAIN = "{\"longUrl\":\"https://www.example.com/landing\",\"userName\":\"marketing\"}";
+    private static final String COUNTRY = "{\"longUrl\":\"https://www.example.com/landing\",\"userName\":\"marketing\",\"rules\":["
+            + "{\"countries\":[\"US\",\"CA\"],\"longUrl\":\"https://www.example.com/na\"},"
+            + "{\"countries\":[\"GB\",\"IE\"],\"longUrl\":\"https://www.example.com/uk\"},"
+            + "{\"countries\":[\"DE\",\"AT\",\"CH\"],\"longUrl\":\"https://www.example.com/dach\"},"
+            + "{\"countries\":[\"IL\"],\"longUrl\":\"https://www.example.com/il\"}]}";
+    private static final String DEVICE = "{\"longUrl\":\"https://www.example.com/landing\",\"userName\":\"marketing\",\"rules\":["
+            + "{\"devices\":[\"mobile\",\"tablet\"],\"longUrl\":\"https://m.example.com/landing\"}]}";
+    private static final String SPLIT = "{\"longUrl\":\"https://www.example.com/landing\",\"userName\":\"marketing\",\"rules\":["
+            + "{\"split\":[{\"longUrl\":\"https://www.example.com/a\",\"weight\":50},"
+            + "{\"longUrl\":\"https://www.example.com/b\",\"weight\":30},{\"longUrl\":\"https://www.example.com/c\",\"weight\":20}]}]}";
+
+    private ObjectMapper mapper;
+    private CompiledMappings compiledMappings;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mapper = new ObjectMapper();
+        compiledMappings = new CompiledMappings();
+        ReflectionTestUtils.setField(compiledMappings, "mapper", mapper);
+        ReflectionTestUtils.setField(compiledMappings, "maxSize", 1000);
+    }
+
+    @Benchmark
+    public String parsePayload() throws Exception {
+        return mapper.readValue(PLAIN, NewTinyRequest.class).getLongUrl();
+    }
+
+    @Benchmark
+    public String plainRedirect() throws Exception {
+        return resolve("plain", PLAIN, "DE");
+    }
+
+    @Benchmark
+    public String countryRules() throws Exception {
+        return resolve("country", COUNTRY, "DE");
+    }
+
+    @Benchmark
+    public String countryRulesNoMatch() throws Exception {
+        return resolve("country", COUNTRY, "FR");
+    }
+
+    @Benchmark
+    public String deviceRule() throws Exception {
+        return resolve("device", DEVICE, null);
+    }
+
+    @Benchmark
+    public String abSplit() throws Exception {
+        return resolve("split", SPLIT, null);
+    }
+
+    private String resolve(String tiny, String payload, String country) throws Exception {
+        CompiledMappings.Compiled compiled = compiledMappings.get(tiny, payload);
+        RedirectRules rules = compiled.getRules();
+        return rules.isEmpty() ? compiled.getRequest().getLongUrl() : rules.resolve(country, USER_AGENT, IP);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RedirectRulesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
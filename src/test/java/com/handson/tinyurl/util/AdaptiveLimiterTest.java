@@ -0,0 +1,88 @@
+package com.handson.tinyurl.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+
+    // simulated round trips are long enough that scheduling delays on a busy machine do not move the gradient
+    private static final long RTT_MS = 1000;
+
+    // every release closes a window once min-window-samples completed, no smoothing
+    private static AdaptiveLimiter limiter(int initial) {
+        return new AdaptiveLimiter(initial, 4, 1000, 1.5, 1.0, 0.9, 0, 10, 100);
+    }
+
+    // admits up to n requests and completes them all after rttMillis
+    private static void window(AdaptiveLimiter limiter, int n, long rttMillis, boolean overloaded) {
+        int admitted = 0;
+        while (admitted < n && limiter.tryAcquire(1)) {
+            admitted++;
+        }
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(rttMillis);
+        for (int i = 0; i < admitted; i++) {
+            limiter.release(start, overloaded);
+        }
+    }
+
+    @Test
+    void growsWhileLatencyIsSteadyAndTheLimitIsUsed() {
+        AdaptiveLimiter limiter = limiter(20);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 1000, RTT_MS, false);
+        }
+        assertTrue(limiter.getLimit() > 40, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void doesNotGrowWhenTrafficStaysFarBelowTheLimit() {
+        AdaptiveLimiter limiter = limiter(100);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 20, RTT_MS, false);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    void shrinksWhenLatencyGrows() {
+        AdaptiveLimiter limiter = limiter(100);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 100, RTT_MS, false);
+        }
+        int before = limiter.getLimit();
+        window(limiter, 100, 10 * RTT_MS, false);
+        // gradient bottoms out at 0.5, plus sqrt(limit) of headroom
+        assertTrue(limiter.getLimit() < before * 0.7, before + " -> " + limiter.getLimit());
+    }
+
+    @Test
+    void backsOffWhenRequestsAreShed() {
+        AdaptiveLimiter limiter = limiter(100);
+        window(limiter, 100, RTT_MS, false);
+        int before = limiter.getLimit();
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 100, RTT_MS, true);
+        }
+        assertTrue(limiter.getLimit() < before, before + " -> " + limiter.getLimit());
+    }
+
+    @Test
+    void lowerPrioritiesGetOnlyTheirShare() {
+        AdaptiveLimiter limiter = limiter(10);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(limiter.tryAcquire(1));
+        }
+        assertFalse(limiter.tryAcquire(0.6));
+        assertTrue(limiter.tryAcquire(0.8));
+        assertTrue(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(1));
+        assertFalse(limiter.tryAcquire(1));
+        assertEquals(10, limiter.getInflight());
+    }
+}
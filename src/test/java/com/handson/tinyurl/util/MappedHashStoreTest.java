@@ -0,0 +1,132 @@
+package com.handson.tinyurl.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedHashStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void putIfAbsentKeepsFirstValue() throws IOException {
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, false)) {
+            assertTrue(store.putIfAbsent("abc123", "first"));
+            assertFalse(store.putIfAbsent("abc123", "second"));
+            assertEquals("first", store.get("abc123"));
+            assertNull(store.get("missing"));
+        }
+    }
+
+    @Test
+    void deleteAllowsReuseOfKey() throws IOException {
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, false)) {
+            store.putIfAbsent("abc123", "first");
+            assertTrue(store.delete("abc123"));
+            assertNull(store.get("abc123"));
+            assertFalse(store.delete("abc123"));
+            assertTrue(store.putIfAbsent("abc123", "second"));
+            assertEquals("second", store.get("abc123"));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    void growsIndexAndLogSegments() throws IOException {
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(store.putIfAbsent("key" + i, "value-" + i));
+            }
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("value-" + i, store.get("key" + i));
+            }
+            assertEquals(5000, store.size());
+        }
+    }
+
+    @Test
+    void reopensAfterCleanClose() throws IOException {
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, true)) {
+            for (int i = 0; i < 1000; i++) {
+                store.putIfAbsent("key" + i, "value-" + i);
+            }
+            store.delete("key7");
+        }
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, true)) {
+            assertEquals(999, store.size());
+            assertEquals("value-500", store.get("key500"));
+            assertNull(store.get("key7"));
+            assertTrue(store.putIfAbsent("key1000", "value-1000"));
+        }
+    }
+
+    @Test
+    void recoversFromCrashWithTornTail() throws IOException {
+        Path crashed = dir.resolve("crashed");
+        try (MappedHashStore store = MappedHashStore.open(dir.resolve("live"), 16, SEGMENT_SIZE, true)) {
+            for (int i = 0; i < 300; i++) {
+                store.putIfAbsent("key" + i, "value-" + i);
+            }
+            store.delete("key3");
+            // copy the files while the store is still open: the index is marked dirty
+            Files.createDirectories(crashed);
+            for (String file : new String[]{MappedHashStore.LOG_FILE, MappedHashStore.INDEX_FILE}) {
+                Files.copy(dir.resolve("live").resolve(file), crashed.resolve(file), StandardCopyOption.REPLACE_EXISTING);
+            }
+            long logEnd = store.logBytes();
+            // simulate a record that was only partially written when the process died
+            try (RandomAccessFile log = new RandomAccessFile(crashed.resolve(MappedHashStore.LOG_FILE).toFile(), "rw")) {
+                log.seek(logEnd);
+                log.writeInt(40);
+                log.writeInt(12345);
+                log.write(new byte[]{1, 0, 6});
+            }
+        }
+        try (MappedHashStore store = MappedHashStore.open(crashed, 16, SEGMENT_SIZE, true)) {
+            assertEquals(299, store.size());
+            assertEquals("value-299", store.get("key299"));
+            assertNull(store.get("key3"));
+            assertTrue(store.putIfAbsent("after", "crash"));
+        }
+        try (MappedHashStore store = MappedHashStore.open(crashed, 16, SEGMENT_SIZE, true)) {
+            assertEquals("crash", store.get("after"));
+            assertEquals(300, store.size());
+        }
+    }
+
+    @Test
+    void compactionKeepsLiveRecordsOnly() throws IOException {
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 1000; i++) {
+                store.putIfAbsent("key" + i, "value-" + i);
+            }
+            for (int i = 0; i < 900; i++) {
+                store.delete("key" + i);
+            }
+            long before = store.logBytes();
+            assertTrue(store.garbageRatio() > 0.5);
+            store.compact();
+            assertTrue(store.logBytes() < before);
+            assertEquals(0.0, store.garbageRatio(), 0.0001);
+            assertNull(store.get("key10"));
+            assertEquals("value-950", store.get("key950"));
+        }
+        try (MappedHashStore store = MappedHashStore.open(dir, 16, SEGMENT_SIZE, false)) {
+            assertEquals(100, store.size());
+            assertEquals("value-999", store.get("key999"));
+        }
+    }
+}
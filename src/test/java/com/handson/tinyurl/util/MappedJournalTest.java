@@ -0,0 +1,165 @@
+package com.handson.tinyurl.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsRecordsInOrder() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(record(i));
+            }
+            MappedJournal.Batch first = journal.read(0, 4);
+            assertEquals(List.of("record-0", "record-1", "record-2", "record-3"), strings(first));
+            MappedJournal.Batch rest = journal.read(first.getEnd(), 100);
+            assertEquals(6, rest.getRecords().size());
+            assertEquals("record-9", strings(rest).get(5));
+            assertEquals(journal.getWritePosition(), rest.getEnd());
+        }
+    }
+
+    @Test
+    void rollsToNextSegmentWhenRecordDoesNotFit() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            byte[] payload = new byte[1000];
+            for (int i = 0; i < 10; i++) {
+                payload[0] = (byte) i;
+                journal.append(payload);
+            }
+            // four records of 1008 bytes fit in a segment
+            assertEquals(3, journal.segmentCount());
+            MappedJournal.Batch batch = journal.read(0, 100);
+            assertEquals(10, batch.getRecords().size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, batch.getRecords().get(i)[0]);
+            }
+        }
+    }
+
+    @Test
+    void recoversFromCrashWithTornTail() throws IOException {
+        Path crashed = dir.resolve("crashed");
+        Path live = dir.resolve("live");
+        try (MappedJournal journal = MappedJournal.open(live, SEGMENT_SIZE)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(record(i));
+            }
+            journal.flush();
+            Files.createDirectories(crashed);
+            try (Stream<Path> files = Files.list(live)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.copy(file, crashed.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            long end = journal.getWritePosition();
+            // simulate a record that was only partially written when the process died
+            try (RandomAccessFile segment = new RandomAccessFile(crashed.resolve(String.format("journal-%020d.seg", 0)).toFile(), "rw")) {
+                segment.seek(end);
+                segment.writeInt(40);
+                segment.writeInt(12345);
+                segment.write(new byte[]{1, 0, 6});
+            }
+        }
+        try (MappedJournal journal = MappedJournal.open(crashed, SEGMENT_SIZE)) {
+            MappedJournal.Batch batch = journal.read(0, 100);
+            assertEquals(20, batch.getRecords().size());
+            journal.append(record(20));
+            assertEquals("record-20", strings(journal.read(batch.getEnd(), 100)).get(0));
+        }
+    }
+
+    @Test
+    void compactionDeletesConsumedSegmentsOnly() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            byte[] payload = new byte[1000];
+            for (int i = 0; i < 10; i++) {
+                journal.append(payload);
+            }
+            MappedJournal.Batch batch = journal.read(0, 7);
+            journal.checkpoint(batch.getEnd());
+            // the second segment still holds an unconsumed record
+            assertEquals(1, journal.compact());
+            batch = journal.read(batch.getEnd(), 2);
+            journal.checkpoint(batch.getEnd());
+            assertEquals(1, journal.compact());
+            assertEquals(1, journal.segmentCount());
+            assertEquals(1, journal.read(journal.getCheckpoint(), 100).getRecords().size());
+        }
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(1, journal.read(journal.getCheckpoint(), 100).getRecords().size());
+        }
+    }
+
+    @Test
+    void retryRereadsTheBegunBatchOnly() throws IOException {
+        long end;
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(record(i));
+            }
+            MappedJournal.Batch batch = journal.read(0, 100);
+            end = batch.getEnd();
+            journal.begin(end);
+            // appended while the batch failed to apply
+            for (int i = 3; i < 6; i++) {
+                journal.append(record(i));
+            }
+            assertEquals(end, journal.getPending());
+            assertEquals(3, journal.readTo(0, journal.getPending()).getRecords().size());
+        }
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(end, journal.getPending());
+            MappedJournal.Batch retry = journal.readTo(journal.getCheckpoint(), journal.getPending());
+            assertEquals(List.of("record-0", "record-1", "record-2"), strings(retry));
+            assertEquals(end, retry.getEnd());
+            journal.checkpoint(retry.getEnd());
+            assertEquals(-1, journal.getPending());
+            assertEquals(List.of("record-3", "record-4", "record-5"), strings(journal.read(retry.getEnd(), 100)));
+        }
+    }
+
+    @Test
+    void pendingBatchIsCutToWhatSurvivedACrash() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            journal.append(record(0));
+            journal.checkpoint(journal.getWritePosition());
+            journal.begin(journal.getWritePosition() + 1000);
+        }
+        try (MappedJournal journal = MappedJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(-1, journal.getPending());
+            assertTrue(journal.read(journal.getCheckpoint(), 100).getRecords().isEmpty());
+        }
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(MappedJournal.Batch batch) {
+        List<String> res = new ArrayList<>();
+        for (byte[] record : batch.getRecords()) {
+            res.add(new String(record, StandardCharsets.UTF_8));
+        }
+        return res;
+    }
+}
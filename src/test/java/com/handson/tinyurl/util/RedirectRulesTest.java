@@ -0,0 +1,105 @@
+package com.handson.tinyurl.util;
+
+import com.handson.tinyurl.model.RedirectRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedirectRulesTest {
+
+    private static final String DEFAULT = "https://example.com/default";
+    private static final String IPHONE = "Mozilla/5.0 (iPhone; CPU iPhone OS 16_0 like Mac OS X) Mobile/15E148";
+    private static final String WINDOWS = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) Chrome/120.0";
+
+    private static RedirectRule rule(List<String> countries, List<String> devices, String longUrl) {
+        RedirectRule rule = new RedirectRule();
+        rule.setCountries(countries);
+        rule.setDevices(devices);
+        rule.setLongUrl(longUrl);
+        return rule;
+    }
+
+    private static RedirectRule.Target target(String longUrl, int weight) {
+        RedirectRule.Target target = new RedirectRule.Target();
+        target.setLongUrl(longUrl);
+        target.setWeight(weight);
+        return target;
+    }
+
+    private static RedirectRules split(int weightA, int weightB) {
+        RedirectRule rule = new RedirectRule();
+        rule.setSplit(List.of(target("https://example.com/a", weightA), target("https://example.com/b", weightB)));
+        return RedirectRules.compile(DEFAULT, List.of(rule));
+    }
+
+    @Test
+    void firstMatchingRuleWinsAndTheRestFallThrough() {
+        RedirectRules rules = RedirectRules.compile(DEFAULT, List.of(
+                rule(List.of("IL"), List.of("mobile"), "https://example.com/il-mobile"),
+                rule(List.of("IL"), null, "https://example.com/il"),
+                rule(null, List.of("desktop"), "https://example.com/desktop")));
+        assertEquals("https://example.com/il-mobile", rules.resolve("IL", IPHONE, "10.0.0.1"));
+        assertEquals("https://example.com/il", rules.resolve("IL", WINDOWS, "10.0.0.1"));
+        assertEquals("https://example.com/desktop", rules.resolve("US", WINDOWS, "10.0.0.1"));
+        assertEquals(DEFAULT, rules.resolve("US", IPHONE, "10.0.0.1"));
+        assertEquals(DEFAULT, rules.resolve(null, IPHONE, "10.0.0.1"));
+    }
+
+    @Test
+    void countriesMatchIgnoringCase() {
+        RedirectRules rules = RedirectRules.compile(DEFAULT, List.of(rule(List.of(" de ", "fr"), null, "https://example.com/eu")));
+        assertTrue(rules.usesCountry());
+        assertEquals("https://example.com/eu", rules.resolve("DE", null, null));
+        assertEquals("https://example.com/eu", rules.resolve("de", null, null));
+        assertEquals("https://example.com/eu", rules.resolve("Fr", null, null));
+        assertEquals(DEFAULT, rules.resolve("IT", null, null));
+    }
+
+    @Test
+    void deviceMasksIncludingUnknown() {
+        RedirectRules rules = RedirectRules.compile(DEFAULT, List.of(
+                rule(null, List.of("Mobile", "tablet"), "https://example.com/handheld"),
+                rule(null, List.of("unknown"), "https://example.com/unknown")));
+        assertEquals("https://example.com/handheld", rules.resolve(null, IPHONE, null));
+        assertEquals("https://example.com/handheld", rules.resolve(null, "Mozilla/5.0 (iPad; CPU OS 16_0 like Mac OS X)", null));
+        assertEquals(DEFAULT, rules.resolve(null, WINDOWS, null));
+        assertEquals("https://example.com/unknown", rules.resolve(null, null, null));
+        assertEquals("https://example.com/unknown", rules.resolve(null, "", null));
+        assertEquals(DEFAULT, rules.resolve(null, "curl/8.0", null));
+        assertThrows(IllegalArgumentException.class,
+                () -> RedirectRules.compile(DEFAULT, List.of(rule(null, List.of("watch"), "https://example.com/watch"))));
+    }
+
+    @Test
+    void splitFollowsTheWeights() {
+        RedirectRules rules = split(1, 3);
+        Map<String, Integer> hits = new HashMap<>();
+        int visitors = 20_000;
+        for (int i = 0; i < visitors; i++) {
+            hits.merge(rules.resolve(null, WINDOWS, "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255)), 1, Integer::sum);
+        }
+        assertEquals(2, hits.size());
+        double shareOfA = hits.get("https://example.com/a") / (double) visitors;
+        assertEquals(0.25, shareOfA, 0.02, "share of a " + shareOfA);
+    }
+
+    @Test
+    void splitIsStickyForTheSameIpAndUserAgent() {
+        RedirectRules rules = split(1, 1);
+        for (int i = 0; i < 100; i++) {
+            String ip = "192.168.1." + i;
+            String first = rules.resolve(null, IPHONE, ip);
+            for (int j = 0; j < 10; j++) {
+                assertEquals(first, rules.resolve(null, IPHONE, ip));
+            }
+            // an equivalent rule set compiled again, as after a restart, sends the visitor to the same variant
+            assertEquals(first, split(1, 1).resolve(null, IPHONE, ip));
+        }
+    }
+}